@@ -0,0 +1,140 @@
+package com.practice;
+
+import com.practice.constants.ConfigurationConsts;
+import com.practicecom.practice.utill.VirtualThreads;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor the S3-bound endpoints run on. A request thread only parses the request and hands the work to this
+ * pool, then goes back to Tomcat while the S3 call is in progress; the response is written when the work completes.
+ * The same executor runs {@code Callable} and {@code StreamingResponseBody} results and {@code @Async} methods.
+ * <p>
+ * With {@code gist.threads.virtual.enabled} on a JDK that has virtual threads, Tomcat and this executor start a
+ * virtual thread per request instead, so a request waiting on S3 holds no platform thread and the concurrency is
+ * bounded by {@code server.tomcat.max-connections} rather than by thread counts. Those executors are shut down when
+ * the context closes, after Tomcat has stopped, and the tasks still running get a minute to finish.
+ */
+@Configuration
+@EnableAsync
+public class AsyncConfiguration implements WebMvcConfigurer, DisposableBean {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final ConfigurationConsts consts;
+    private final List<ExecutorService> virtualExecutors = new CopyOnWriteArrayList<>();
+
+    AsyncConfiguration(final ConfigurationConsts consts) {
+        this.consts = consts;
+    }
+
+    /**
+     * Sized by {@code gist.async.*}, by default like the Tomcat pool it takes the S3 calls from: the same threads
+     * block on S3 as before, only on this pool, and the queue holds as many tasks as Tomcat holds connections, so
+     * requests above the thread count wait as they did in the Tomcat queue. A task that still finds the pool and
+     * queue full runs on the request thread, or with {@code gist.async.reject.enabled} is rejected and the endpoint
+     * answers 503. Growing the pool does not buy concurrency cheaply, each thread costs a stack and a connection; the
+     * virtual thread mode does, where every task gets its own virtual thread.
+     */
+    @Bean(name = "taskExecutor")
+    public AsyncTaskExecutor taskExecutor() {
+        if (isVirtual()) {
+            return new TaskExecutorAdapter(newVirtualExecutor(consts.getAsyncThreadNamePrefix()));
+        }
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, consts.getAsyncCorePoolSize()));
+        executor.setMaxPoolSize(Math.max(consts.getAsyncCorePoolSize(), consts.getAsyncMaxPoolSize()));
+        executor.setQueueCapacity(Math.max(0, consts.getAsyncQueueCapacity()));
+        executor.setThreadNamePrefix(consts.getAsyncThreadNamePrefix());
+        executor.setRejectedExecutionHandler(consts.isAsyncRejectEnabled()
+                ? new ThreadPoolExecutor.AbortPolicy()
+                : new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds((int) SHUTDOWN_TIMEOUT_SECONDS);
+        return executor;
+    }
+
+    /**
+     * In the virtual thread mode, give the Tomcat connectors an executor that runs every request on its own virtual
+     * thread. {@code server.tomcat.max-threads} no longer applies then.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (isVirtual()) {
+                protocolHandler.setExecutor(newVirtualExecutor("tomcat-handler-"));
+            }
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(taskExecutor());
+        if (consts.getAsyncDefaultTimeout() > 0) {
+            configurer.setDefaultTimeout(consts.getAsyncDefaultTimeout());
+        }
+    }
+
+    /**
+     * Shut down the virtual thread executors. Neither Tomcat nor {@link TaskExecutorAdapter} shuts down an executor
+     * it was given.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        for (final ExecutorService executor : virtualExecutors) {
+            executor.shutdown();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+        for (final ExecutorService executor : virtualExecutors) {
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                this.getlogger().warn("AsyncConfiguration: virtual thread tasks still running at shutdown");
+                executor.shutdownNow();
+            }
+        }
+        virtualExecutors.clear();
+    }
+
+    private ExecutorService newVirtualExecutor(final String prefix) {
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor(prefix);
+        virtualExecutors.add(executor);
+        return executor;
+    }
+
+    private boolean isVirtual() {
+        if (!consts.isVirtualThreadsEnabled()) {
+            return false;
+        }
+        if (!VirtualThreads.isSupported()) {
+            this.getlogger().warn(String.format("AsyncConfiguration: virtual threads need Java 21 or later, "
+                    + "running on %s with platform threads", System.getProperty("java.version")));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(AsyncConfiguration.class);
+    }
+}
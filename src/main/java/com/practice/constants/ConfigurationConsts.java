@@ -3,10 +3,18 @@ package com.practice.constants;
 import com.amazonaws.retry.RetryPolicy;
 import com.practicecom.practice.utill.Validation;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Component
 @RefreshScope
 public class ConfigurationConsts {
@@ -130,6 +138,12 @@ public class ConfigurationConsts {
     @Value("${gist.async.default.timeout}")
     private int asyncDefaultTimeout;
 
+    /**
+     * Answer 503 when the async pool and queue are full, instead of running the work on the request thread
+     */
+    @Value("${gist.async.reject.enabled:false}")
+    private boolean asyncRejectEnabled;
+
     @Value("${gist.aws.s3.max.upload.threads}")
     private int awsS3MaxUploadthreads;
 
@@ -172,79 +186,399 @@ public class ConfigurationConsts {
     @Value("${gist.temp.cleanup.duration.threshold}")
     private long tempCleanUpDurationThreshold;
 
-    public String getKid(final String env) {
-        String kid;
+    /**
+     * Local metadata index of the bucket contents, kept under {@link #fileOperationTempDir}
+     */
+    @Value("${gist.aws.s3.index.enabled:false}")
+    private boolean awsS3IndexEnabled;
+
+    @Value("${gist.aws.s3.index.reconcile.interval:900000}")
+    private long awsS3IndexReconcileInterval;
+
+    @Value("${gist.aws.s3.index.compaction.threshold:100000}")
+    private long awsS3IndexCompactionThreshold;
+
+    /**
+     * The index is held on the heap, a bucket with more objects than this is not indexed
+     */
+    @Value("${gist.aws.s3.index.max.entries:500000}")
+    private int awsS3IndexMaxEntries;
+
+    @Value("${gist.aws.s3.index.reconcile.pages:1000}")
+    private int awsS3IndexReconcilePages;
+
+    /**
+     * How long the existence of a bucket is remembered, and how long a missing bucket is remembered
+     */
+    @Value("${gist.aws.s3.bucket.exists.ttl:300000}")
+    private long awsS3BucketExistsTtl;
+
+    @Value("${gist.aws.s3.bucket.missing.ttl:30000}")
+    private long awsS3BucketMissingTtl;
+
+    /**
+     * How long the metadata of an object is remembered, how long a missing key is remembered, and how many keys
+     */
+    @Value("${gist.aws.s3.stat.exists.ttl:30000}")
+    private long awsS3StatExistsTtl;
+
+    @Value("${gist.aws.s3.stat.missing.ttl:5000}")
+    private long awsS3StatMissingTtl;
+
+    @Value("${gist.aws.s3.stat.maxEntries:100000}")
+    private int awsS3StatMaxEntries;
+
+    /**
+     * Maximum number of multi object delete requests in flight for one folder delete
+     */
+    @Value("${gist.aws.s3.delete.parallelism:8}")
+    private int awsS3DeleteParallelism;
+
+    /**
+     * Copies in flight for one move or copy request. The engine starts at the initial value and adapts up to the
+     * maximum, halving on throttling
+     */
+    @Value("${gist.aws.s3.copy.concurrency.initial:8}")
+    private int awsS3CopyInitialConcurrency;
+
+    @Value("${gist.aws.s3.copy.concurrency.max:64}")
+    private int awsS3CopyMaxConcurrency;
+
+    /**
+     * Objects of at least this size are copied with a multipart upload of part copies. Single copies are limited
+     * to 5 GB by S3
+     */
+    @Value("${gist.aws.s3.copy.multipart.threshold:1073741824}")
+    private long awsS3CopyMultipartThreshold;
+
+    @Value("${gist.aws.s3.copy.multipart.partSize:134217728}")
+    private long awsS3CopyPartSize;
+
+    @Value("${gist.aws.s3.copy.multipart.concurrency:16}")
+    private int awsS3CopyPartConcurrency;
+
+    @Value("${gist.aws.s3.move.journal.enabled:true}")
+    private boolean awsS3MoveJournalEnabled;
+
+    @Value("${gist.aws.s3.transfer.stream.partSize:16777216}")
+    private long awsS3TransferStreamPartSize;
+
+    /**
+     * HTTP connection pool and socket settings of the S3 clients. The pool size and the socket buffers can be set
+     * per environment and fall back to the shared value.
+     */
+    @Value("${gist.aws.s3.client.pool.maxConnections:200}")
+    private int awsS3ClientMaxConnectionsDefault;
+
+    @Value("${gist.aws.s3.client.pool.maxConnections.qa:${gist.aws.s3.client.pool.maxConnections:200}}")
+    private int awsS3ClientMaxConnectionsQa;
+
+    @Value("${gist.aws.s3.client.pool.maxConnections.prod:${gist.aws.s3.client.pool.maxConnections:200}}")
+    private int awsS3ClientMaxConnectionsProd;
+
+    @Value("${gist.aws.s3.client.socket.sendBuffer:0}")
+    private int awsS3ClientSendBufferDefault;
+
+    @Value("${gist.aws.s3.client.socket.sendBuffer.qa:${gist.aws.s3.client.socket.sendBuffer:0}}")
+    private int awsS3ClientSendBufferQa;
+
+    @Value("${gist.aws.s3.client.socket.sendBuffer.prod:${gist.aws.s3.client.socket.sendBuffer:0}}")
+    private int awsS3ClientSendBufferProd;
+
+    @Value("${gist.aws.s3.client.socket.receiveBuffer:0}")
+    private int awsS3ClientReceiveBufferDefault;
+
+    @Value("${gist.aws.s3.client.socket.receiveBuffer.qa:${gist.aws.s3.client.socket.receiveBuffer:0}}")
+    private int awsS3ClientReceiveBufferQa;
+
+    @Value("${gist.aws.s3.client.socket.receiveBuffer.prod:${gist.aws.s3.client.socket.receiveBuffer:0}}")
+    private int awsS3ClientReceiveBufferProd;
+
+    @Value("${gist.aws.s3.client.tcpKeepAlive:true}")
+    private boolean awsS3ClientTcpKeepAlive;
+
+    @Value("${gist.aws.s3.client.pool.validateAfterInactivity:5000}")
+    private int awsS3ClientValidateAfterInactivity;
+
+    @Value("${gist.aws.s3.client.pool.maxIdle:60000}")
+    private long awsS3ClientConnectionMaxIdle;
+
+    @Value("${gist.aws.s3.client.pool.reaper:true}")
+    private boolean awsS3ClientUseReaper;
+
+    /**
+     * Background jobs: threads, queued jobs beyond which submissions are refused, and how long finished jobs are kept
+     */
+    @Value("${gist.jobs.threads:4}")
+    private int jobsThreads;
+
+    @Value("${gist.jobs.queue.capacity:100}")
+    private int jobsQueueCapacity;
+
+    @Value("${gist.jobs.retention:604800000}")
+    private long jobsRetention;
+
+    /**
+     * Named storage targets besides DEFAULT, QA and PRODUCTION, comma separated. The settings of a target named
+     * {@code tenant_a} are read from {@code gist.storage.target.tenant_a.*}: {@code bucket} (required),
+     * {@code region}, {@code arn}, {@code accessKeyId}, {@code secretKey}, {@code maxConnections},
+     * {@code sendBuffer} and {@code receiveBuffer}. Anything not set falls back to the default environment.
+     */
+    @Value("${gist.storage.targets:}")
+    private String storageTargets;
+
+    @Value("${gist.storage.retire.delay:300000}")
+    private long storageRetireDelay;
+
+    /**
+     * Requested duration of STS sessions in seconds. Lowered automatically when the role allows less.
+     */
+    @Value("${gist.aws.sts.session.duration:3600}")
+    private int awsStsSessionDuration;
+
+    /**
+     * Use the STS endpoint of the bucket region instead of the global one.
+     */
+    @Value("${gist.aws.sts.regionalEndpoint:true}")
+    private boolean awsStsRegionalEndpoint;
+
+    @Value("${gist.aws.retry.baseDelay:100}")
+    private long awsRetryBaseDelay;
+
+    @Value("${gist.aws.retry.maxDelay:20000}")
+    private long awsRetryMaxDelay;
+
+    /**
+     * Retries allowed per environment as a percentage of its requests over the circuit window.
+     */
+    @Value("${gist.aws.retry.budget.percent:20}")
+    private int awsRetryBudgetPercent;
+
+    @Value("${gist.aws.retry.budget.minimum:10}")
+    private int awsRetryBudgetMinimum;
+
+    @Value("${gist.aws.circuit.enabled:true}")
+    private boolean awsCircuitEnabled;
+
+    /**
+     * Percentage of the requests in the window failing with the gist.aws.exceptions errors that opens the circuit.
+     */
+    @Value("${gist.aws.circuit.failureRate:50}")
+    private int awsCircuitFailureRate;
+
+    @Value("${gist.aws.circuit.minimumRequests:20}")
+    private int awsCircuitMinimumRequests;
+
+    @Value("${gist.aws.circuit.window:10000}")
+    private long awsCircuitWindow;
+
+    @Value("${gist.aws.circuit.openDuration:30000}")
+    private long awsCircuitOpenDuration;
+
+    @Value("${gist.aws.s3.rateLimit.enabled:true}")
+    private boolean awsS3RateLimitEnabled;
+
+    /**
+     * GET/HEAD/LIST requests per second and prefix, S3 supports 5500
+     */
+    @Value("${gist.aws.s3.rateLimit.readRate:5500}")
+    private double awsS3RateLimitReadRate;
+
+    /**
+     * PUT/COPY/POST/DELETE requests per second and prefix, S3 supports 3500
+     */
+    @Value("${gist.aws.s3.rateLimit.writeRate:3500}")
+    private double awsS3RateLimitWriteRate;
+
+    @Value("${gist.aws.s3.rateLimit.minimumRate:50}")
+    private double awsS3RateLimitMinimumRate;
+
+    @Value("${gist.aws.s3.rateLimit.recoveryRate:100}")
+    private double awsS3RateLimitRecoveryRate;
+
+    /**
+     * Hedge the HEAD and GET of file reads: a request slower than the recent 95th percentile is sent again
+     */
+    @Value("${gist.aws.s3.hedge.enabled:false}")
+    private boolean awsS3HedgeEnabled;
+
+    @Value("${gist.aws.s3.hedge.maxObjectSize:1048576}")
+    private long awsS3HedgeMaxObjectSize;
+
+    @Value("${gist.aws.s3.hedge.minimumDelay:20}")
+    private long awsS3HedgeMinimumDelay;
+
+    @Value("${gist.aws.s3.hedge.budget.percent:5}")
+    private int awsS3HedgeBudgetPercent;
+
+    /**
+     * Local disk copies of the files read, under file.operation-dir/.cache, revalidated with conditional GETs
+     */
+    @Value("${gist.cache.disk.enabled:false}")
+    private boolean diskCacheEnabled;
+
+    @Value("${gist.cache.disk.quota:1073741824}")
+    private long diskCacheQuota;
+
+    @Value("${gist.cache.disk.maxObjectSize:67108864}")
+    private long diskCacheMaxObjectSize;
+
+    /**
+     * LRU or LFU
+     */
+    @Value("${gist.cache.disk.policy:LRU}")
+    private String diskCachePolicy;
+
+    /**
+     * Off-heap copies of the small files read, served without revalidation for staleAfter milliseconds. maxBytes is
+     * the limit of every environment, overridden per environment by gist.cache.memory.maxBytes.{environment}.
+     */
+    @Value("${gist.cache.memory.enabled:false}")
+    private boolean memoryCacheEnabled;
+
+    @Value("${gist.cache.memory.maxBytes:67108864}")
+    private long memoryCacheMaxBytes;
+
+    @Value("${gist.cache.memory.staleAfter:5000}")
+    private long memoryCacheStaleAfter;
+
+    /**
+     * Write-behind of the stored files: a local spool under file.operation-dir/.spool of at most maxBytes pending
+     * bytes, uploaded by the given number of threads. Callers opt in per request.
+     */
+    @Value("${gist.aws.s3.writeBehind.enabled:false}")
+    private boolean awsS3WriteBehindEnabled;
+
+    @Value("${gist.aws.s3.writeBehind.maxBytes:1073741824}")
+    private long awsS3WriteBehindMaxBytes;
+
+    @Value("${gist.aws.s3.writeBehind.threads:8}")
+    private int awsS3WriteBehindThreads;
+
+    /**
+     * Run request handling, the async executor and the transfer pools on virtual threads. Needs Java 21 or later
+     * and is read at startup only.
+     */
+    @Value("${gist.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Autowired
+    private Environment environment;
+
+    /**
+     * Resolved settings per environment name: QA, PRODUCTION, a configured storage target or the empty name of
+     * the default environment, so it holds no more entries than there are targets. This bean is refresh scoped,
+     * so a configuration refresh starts with an empty map.
+     */
+    private final Map<String, EnvironmentContext> environmentContexts = new ConcurrentHashMap<>();
+
+    /**
+     * {@link #storageTargets} parsed once, see {@link #getStorageTargetNames()}
+     */
+    private volatile Set<String> storageTargetNames;
+
+    /**
+     * Get the resolved settings of an environment.
+     *
+     * @param env The environment. Anything other than QA, PRODUCTION or a configured storage target resolves to
+     *            the default environment.
+     * @return {@link EnvironmentContext}
+     */
+    public EnvironmentContext getEnvironmentContext(final String env) {
+        final String name = env == null ? "" : env.trim().toUpperCase();
+        // Unknown names share the default entry instead of each adding one
+        final String key = name.equals(QA) || name.equals(PRODUCTION) || getStorageTargetNames().contains(name)
+                ? name
+                : "";
+        return environmentContexts.computeIfAbsent(key, this::createEnvironmentContext);
+    }
+
+    private EnvironmentContext createEnvironmentContext(final String env) {
+        EnvironmentContext context;
         switch (env.trim().toUpperCase()) {
             case QA:
-                kid = kidQa;
+                context = new EnvironmentContext(QA, Validation.sanitize(kidQa), Validation.sanitize(akeyQa),
+                        Validation.sanitize(awsBucketNameQa), Validation.sanitize(awsArnQa),
+                        Validation.sanitize(awsBucketRegionQa),
+                        awsS3ClientMaxConnectionsQa, awsS3ClientSendBufferQa, awsS3ClientReceiveBufferQa);
                 break;
             case PRODUCTION:
-                kid = kidProd;
+                context = new EnvironmentContext(PRODUCTION, Validation.sanitize(kidProd), Validation.sanitize(akeyProd),
+                        Validation.sanitize(awsBucketNameProd), Validation.sanitize(awsArnProd),
+                        Validation.sanitize(awsBucketRegionProd),
+                        awsS3ClientMaxConnectionsProd, awsS3ClientSendBufferProd, awsS3ClientReceiveBufferProd);
                 break;
             default:
-                kid = kidDefault;
+                context = getStorageTargetNames().contains(env.trim().toUpperCase())
+                        ? createStorageTargetContext(env.trim().toUpperCase())
+                        : null;
+        }
+        if (context == null) {
+            context = new EnvironmentContext(DEFAULT, Validation.sanitize(kidDefault), Validation.sanitize(akeyDefault),
+                    Validation.sanitize(awsBucketNameDefault), Validation.sanitize(awsArnDefault),
+                    Validation.sanitize(awsBucketRegionDefault),
+                    awsS3ClientMaxConnectionsDefault, awsS3ClientSendBufferDefault, awsS3ClientReceiveBufferDefault);
         }
-        return Validation.sanitize(kid);
+        return context;
     }
 
-    public String getAkey(final String env) {
-        String akey;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                akey = akeyQa;
-                break;
-            case PRODUCTION:
-                akey = akeyProd;
-                break;
-            default:
-                akey = akeyDefault;
+    /**
+     * @return The names of the configured storage targets in upper case
+     */
+    public Set<String> getStorageTargetNames() {
+        Set<String> names = storageTargetNames;
+        if (names == null) {
+            final Set<String> parsed = new LinkedHashSet<>();
+            for (final String name : (storageTargets == null ? "" : storageTargets).split(",")) {
+                final String target = Validation.sanitizeEnvironment(name);
+                if (!target.isEmpty() && !target.equals(QA) && !target.equals(PRODUCTION)) {
+                    parsed.add(target);
+                }
+            }
+            names = Collections.unmodifiableSet(parsed);
+            storageTargetNames = names;
         }
-        return Validation.sanitize(akey);
+        return names;
     }
 
-    public String getAwsBucketName(final String env) {
-        String awsBucketName;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                awsBucketName = awsBucketNameQa;
-                break;
-            case PRODUCTION:
-                awsBucketName = awsBucketNameProd;
-                break;
-            default:
-                awsBucketName = awsBucketNameDefault;
+    /**
+     * @return The settings of a named storage target, or {@code null} if it has no bucket
+     */
+    private EnvironmentContext createStorageTargetContext(final String name) {
+        final String prefix = "gist.storage.target." + name.toLowerCase() + ".";
+        final String bucket = Validation.sanitize(environment.getProperty(prefix + "bucket", ""));
+        if (bucket.isEmpty()) {
+            return null;
         }
-        return Validation.sanitize(awsBucketName);
+        return new EnvironmentContext(name,
+                Validation.sanitize(environment.getProperty(prefix + "accessKeyId", kidDefault)),
+                Validation.sanitize(environment.getProperty(prefix + "secretKey", akeyDefault)),
+                bucket,
+                Validation.sanitize(environment.getProperty(prefix + "arn", awsArnDefault)),
+                Validation.sanitize(environment.getProperty(prefix + "region", awsBucketRegionDefault)),
+                environment.getProperty(prefix + "maxConnections", Integer.class, awsS3ClientMaxConnectionsDefault),
+                environment.getProperty(prefix + "sendBuffer", Integer.class, awsS3ClientSendBufferDefault),
+                environment.getProperty(prefix + "receiveBuffer", Integer.class, awsS3ClientReceiveBufferDefault));
+    }
+
+    public String getKid(final String env) {
+        return getEnvironmentContext(env).getKid();
+    }
+
+    public String getAkey(final String env) {
+        return getEnvironmentContext(env).getAkey();
+    }
+
+    public String getAwsBucketName(final String env) {
+        return getEnvironmentContext(env).getBucketName();
     }
 
     public String getAwsArn(final String env) {
-        String awsArn;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                awsArn = awsArnQa;
-                break;
-            case PRODUCTION:
-                awsArn = awsArnProd;
-                break;
-            default:
-                awsArn = awsArnDefault;
-        }
-        return Validation.sanitize(awsArn);
+        return getEnvironmentContext(env).getArn();
     }
 
     public String getAwsBucketRegion(final String env) {
-        String awsBucketRegion;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                awsBucketRegion = awsBucketRegionQa;
-                break;
-            case PRODUCTION:
-                awsBucketRegion = awsBucketRegionProd;
-                break;
-            default:
-                awsBucketRegion = awsBucketRegionDefault;
-        }
-        return Validation.sanitize(awsBucketRegion);
+        return getEnvironmentContext(env).getBucketRegion();
     }
 
     public String getConcurProxyHost() {
@@ -291,6 +625,10 @@ public class ConfigurationConsts {
         return asyncDefaultTimeout;
     }
 
+    public boolean isAsyncRejectEnabled() {
+        return asyncRejectEnabled;
+    }
+
     public int getAwsS3ClientRequestTimeout() {
         return awsS3ClientRequestTimeout;
     }
@@ -350,4 +688,237 @@ public class ConfigurationConsts {
     public long getTempCleanUpDurationThreshold() {
         return tempCleanUpDurationThreshold;
     }
+
+    public boolean isAwsS3IndexEnabled() {
+        return awsS3IndexEnabled;
+    }
+
+    public long getAwsS3IndexReconcileInterval() {
+        return awsS3IndexReconcileInterval;
+    }
+
+    public long getAwsS3IndexCompactionThreshold() {
+        return awsS3IndexCompactionThreshold;
+    }
+
+    public int getAwsS3IndexMaxEntries() {
+        return awsS3IndexMaxEntries;
+    }
+
+    public int getAwsS3IndexReconcilePages() {
+        return awsS3IndexReconcilePages;
+    }
+
+    public long getAwsS3BucketExistsTtl() {
+        return awsS3BucketExistsTtl;
+    }
+
+    public long getAwsS3BucketMissingTtl() {
+        return awsS3BucketMissingTtl;
+    }
+
+    public long getAwsS3StatExistsTtl() {
+        return awsS3StatExistsTtl;
+    }
+
+    public long getAwsS3StatMissingTtl() {
+        return awsS3StatMissingTtl;
+    }
+
+    public int getAwsS3StatMaxEntries() {
+        return awsS3StatMaxEntries;
+    }
+
+    public int getAwsS3DeleteParallelism() {
+        return awsS3DeleteParallelism;
+    }
+
+    public int getJobsThreads() {
+        return jobsThreads;
+    }
+
+    public int getJobsQueueCapacity() {
+        return jobsQueueCapacity;
+    }
+
+    public long getJobsRetention() {
+        return jobsRetention;
+    }
+
+    public int getAwsS3CopyInitialConcurrency() {
+        return awsS3CopyInitialConcurrency;
+    }
+
+    public int getAwsS3CopyMaxConcurrency() {
+        return awsS3CopyMaxConcurrency;
+    }
+
+    public long getAwsS3CopyMultipartThreshold() {
+        return awsS3CopyMultipartThreshold;
+    }
+
+    public long getAwsS3CopyPartSize() {
+        return awsS3CopyPartSize;
+    }
+
+    public int getAwsS3CopyPartConcurrency() {
+        return awsS3CopyPartConcurrency;
+    }
+
+    public boolean isAwsS3MoveJournalEnabled() {
+        return awsS3MoveJournalEnabled;
+    }
+
+    public long getAwsS3TransferStreamPartSize() {
+        return awsS3TransferStreamPartSize;
+    }
+
+    public boolean isAwsS3ClientTcpKeepAlive() {
+        return awsS3ClientTcpKeepAlive;
+    }
+
+    public int getAwsS3ClientValidateAfterInactivity() {
+        return awsS3ClientValidateAfterInactivity;
+    }
+
+    public long getAwsS3ClientConnectionMaxIdle() {
+        return awsS3ClientConnectionMaxIdle;
+    }
+
+    public boolean isAwsS3ClientUseReaper() {
+        return awsS3ClientUseReaper;
+    }
+
+    public long getStorageRetireDelay() {
+        return storageRetireDelay;
+    }
+
+    public int getAwsStsSessionDuration() {
+        return awsStsSessionDuration;
+    }
+
+    public boolean isAwsStsRegionalEndpoint() {
+        return awsStsRegionalEndpoint;
+    }
+
+    public long getAwsRetryBaseDelay() {
+        return awsRetryBaseDelay;
+    }
+
+    public long getAwsRetryMaxDelay() {
+        return awsRetryMaxDelay;
+    }
+
+    public int getAwsRetryBudgetPercent() {
+        return awsRetryBudgetPercent;
+    }
+
+    public int getAwsRetryBudgetMinimum() {
+        return awsRetryBudgetMinimum;
+    }
+
+    public boolean isAwsCircuitEnabled() {
+        return awsCircuitEnabled;
+    }
+
+    public int getAwsCircuitFailureRate() {
+        return awsCircuitFailureRate;
+    }
+
+    public int getAwsCircuitMinimumRequests() {
+        return awsCircuitMinimumRequests;
+    }
+
+    public long getAwsCircuitWindow() {
+        return awsCircuitWindow;
+    }
+
+    public long getAwsCircuitOpenDuration() {
+        return awsCircuitOpenDuration;
+    }
+
+    public boolean isAwsS3RateLimitEnabled() {
+        return awsS3RateLimitEnabled;
+    }
+
+    public double getAwsS3RateLimitReadRate() {
+        return awsS3RateLimitReadRate;
+    }
+
+    public double getAwsS3RateLimitWriteRate() {
+        return awsS3RateLimitWriteRate;
+    }
+
+    public double getAwsS3RateLimitMinimumRate() {
+        return awsS3RateLimitMinimumRate;
+    }
+
+    public double getAwsS3RateLimitRecoveryRate() {
+        return awsS3RateLimitRecoveryRate;
+    }
+
+    public boolean isAwsS3HedgeEnabled() {
+        return awsS3HedgeEnabled;
+    }
+
+    public long getAwsS3HedgeMaxObjectSize() {
+        return awsS3HedgeMaxObjectSize;
+    }
+
+    public long getAwsS3HedgeMinimumDelay() {
+        return awsS3HedgeMinimumDelay;
+    }
+
+    public int getAwsS3HedgeBudgetPercent() {
+        return awsS3HedgeBudgetPercent;
+    }
+
+    public boolean isDiskCacheEnabled() {
+        return diskCacheEnabled;
+    }
+
+    public long getDiskCacheQuota() {
+        return diskCacheQuota;
+    }
+
+    public long getDiskCacheMaxObjectSize() {
+        return diskCacheMaxObjectSize;
+    }
+
+    public String getDiskCachePolicy() {
+        return diskCachePolicy;
+    }
+
+    public boolean isMemoryCacheEnabled() {
+        return memoryCacheEnabled;
+    }
+
+    /**
+     * @param env The name of a resolved environment, see {@link EnvironmentContext#getName()}
+     * @return The bytes the memory cache may hold for the environment
+     */
+    public long getMemoryCacheMaxBytes(final String env) {
+        return environment.getProperty("gist.cache.memory.maxBytes." + env.toLowerCase(), Long.class,
+                memoryCacheMaxBytes);
+    }
+
+    public long getMemoryCacheStaleAfter() {
+        return memoryCacheStaleAfter;
+    }
+
+    public boolean isAwsS3WriteBehindEnabled() {
+        return awsS3WriteBehindEnabled;
+    }
+
+    public long getAwsS3WriteBehindMaxBytes() {
+        return awsS3WriteBehindMaxBytes;
+    }
+
+    public int getAwsS3WriteBehindThreads() {
+        return awsS3WriteBehindThreads;
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
 }
@@ -0,0 +1,117 @@
+package com.practice.constants;
+
+import java.util.Objects;
+
+/**
+ * The resolved and sanitized settings of one environment. Instances are built once per environment by
+ * {@link ConfigurationConsts#getEnvironmentContext(String)} and are immutable, so the request path does not
+ * repeat the environment switch and the sanitizing on every lookup. A configuration refresh rebuilds them
+ * together with the {@link ConfigurationConsts} bean. Two contexts are equal if all their settings are, which is
+ * how the client registry tells whether a refresh changed an environment.
+ */
+public final class EnvironmentContext {
+    private final String name;
+    private final String kid;
+    private final String akey;
+    private final String bucketName;
+    private final String arn;
+    private final String bucketRegion;
+    private final int maxConnections;
+    private final int socketSendBufferSize;
+    private final int socketReceiveBufferSize;
+
+    EnvironmentContext(final String name,
+                       final String kid,
+                       final String akey,
+                       final String bucketName,
+                       final String arn,
+                       final String bucketRegion,
+                       final int maxConnections,
+                       final int socketSendBufferSize,
+                       final int socketReceiveBufferSize) {
+        this.name = name;
+        this.kid = kid;
+        this.akey = akey;
+        this.bucketName = bucketName;
+        this.arn = arn;
+        this.bucketRegion = bucketRegion;
+        this.maxConnections = maxConnections;
+        this.socketSendBufferSize = socketSendBufferSize;
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+    }
+
+    /**
+     * @return One of {@link ConfigurationConsts#DEFAULT}, {@link ConfigurationConsts#QA},
+     * {@link ConfigurationConsts#PRODUCTION} or the upper case name of a configured storage target
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+
+    public String getAkey() {
+        return akey;
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public String getArn() {
+        return arn;
+    }
+
+    public String getBucketRegion() {
+        return bucketRegion;
+    }
+
+    /**
+     * @return The size of the HTTP connection pool of the S3 client
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return The socket send buffer size hint in bytes, 0 for the operating system default
+     */
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    /**
+     * @return The socket receive buffer size hint in bytes, 0 for the operating system default
+     */
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EnvironmentContext)) {
+            return false;
+        }
+        final EnvironmentContext that = (EnvironmentContext) o;
+        return maxConnections == that.maxConnections
+                && socketSendBufferSize == that.socketSendBufferSize
+                && socketReceiveBufferSize == that.socketReceiveBufferSize
+                && name.equals(that.name)
+                && kid.equals(that.kid)
+                && akey.equals(that.akey)
+                && bucketName.equals(that.bucketName)
+                && arn.equals(that.arn)
+                && bucketRegion.equals(that.bucketRegion);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, kid, akey, bucketName, arn, bucketRegion,
+                maxConnections, socketSendBufferSize, socketReceiveBufferSize);
+    }
+}
@@ -16,5 +16,9 @@ public enum FileSystemOptionKeys {
     FROM_DESTINATION,
     ENVIRONMENT,
     CORRELATION_ID,
-    ENTITY_ID
+    ENTITY_ID,
+    CONSISTENCY,
+    LISTING_FILTER,
+    JOB_PROGRESS,
+    OVERWRITE
 }
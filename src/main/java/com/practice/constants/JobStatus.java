@@ -0,0 +1,20 @@
+package com.practice.constants;
+
+/**
+ * Life cycle of a background job. {@link #QUEUED} and {@link #RUNNING} jobs found in the job store at startup
+ * are run again.
+ */
+public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    /**
+     * The job ran to the end but some of its keys could not be processed; see the failed count and the errors.
+     */
+    PARTIALLY_SUCCEEDED,
+    FAILED;
+
+    public boolean isFinished() {
+        return this == SUCCEEDED || this == PARTIALLY_SUCCEEDED || this == FAILED;
+    }
+}
@@ -0,0 +1,10 @@
+package com.practice.constants;
+
+/**
+ * The long running operations that can be run as background jobs.
+ */
+public enum JobType {
+    DELETE,
+    MOVE,
+    COPY
+}
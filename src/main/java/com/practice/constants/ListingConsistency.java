@@ -0,0 +1,20 @@
+package com.practice.constants;
+
+/**
+ * Where a listing is answered from. {@link #LIVE} always goes to S3, {@link #INDEX} answers from the local
+ * metadata index when it is enabled and loaded and falls back to {@link #LIVE} otherwise.
+ */
+public enum ListingConsistency {
+    INDEX,
+    LIVE;
+
+    public static ListingConsistency from(final Object value) {
+        ListingConsistency result = LIVE;
+        if (value instanceof ListingConsistency) {
+            result = (ListingConsistency) value;
+        } else if (value != null && INDEX.name().equalsIgnoreCase(value.toString().trim())) {
+            result = INDEX;
+        }
+        return result;
+    }
+}
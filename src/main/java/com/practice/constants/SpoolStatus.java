@@ -0,0 +1,20 @@
+package com.practice.constants;
+
+/**
+ * Life cycle of a write accepted by the write-behind spool. {@link #PENDING} and {@link #UPLOADING} writes found in
+ * the spool at startup are uploaded again.
+ */
+public enum SpoolStatus {
+    PENDING,
+    UPLOADING,
+    UPLOADED,
+    /**
+     * A later write of the same key was accepted before this one was uploaded, so this one was never sent
+     */
+    SUPERSEDED,
+    FAILED;
+
+    public boolean isFinished() {
+        return this == UPLOADED || this == SUPERSEDED || this == FAILED;
+    }
+}
@@ -6,6 +6,8 @@ import com.practice.constants.ContentMimeType;
 import com.practice.constants.ErrorConstants;
 import com.practice.constants.FileSystemOptionKeys;
 import com.practice.constants.FileTransferErrors;
+import com.practice.constants.JobType;
+import com.practice.constants.ListingConsistency;
 import com.practice.constants.StoreFilePayload;
 import com.practice.exception.AWSConnectionException;
 import com.practice.exception.FileTransferException;
@@ -14,8 +16,12 @@ import com.practice.model.CreateDirectoryPayload;
 import com.practice.model.DeleteFolderPayLoad;
 import com.practice.model.FileObjectProxy;
 import com.practice.model.FileOperationResponse;
+import com.practice.model.JobRecord;
+import com.practice.model.ListingFilter;
 import com.practice.model.MoveFilePayload;
 import com.practice.model.Pair;
+import com.practice.model.S3ObjectRecord;
+import com.practice.model.SpoolReceipt;
 import com.practice.s3.service.FileTransferService;
 import com.practicecom.practice.utill.Validation;
 
@@ -25,13 +31,15 @@ import jakarta.validation.Valid;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
@@ -43,27 +51,31 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import static org.springframework.http.HttpStatus.*;
 import static com.practice.constants.FileSystemOptionKeys.*;
 
 @CrossOrigin
 @RestController
 @RequestMapping(value = "/api/sftp")
-@EnableAsync
 public class SFTPFileOperationController {
    
 
     private FileTransferService fileTransferService;
     private ConfigurationConsts consts;
+    private AsyncTaskExecutor taskExecutor;
 
     private static Logger logger = (Logger) LoggerFactory.getLogger(SFTPFileOperationController.class);
     @Autowired
     SFTPFileOperationController(final FileTransferService fileTransferService,
-                                final ConfigurationConsts		 consts) {
+                                final ConfigurationConsts		 consts,
+                                @Qualifier("taskExecutor") final AsyncTaskExecutor taskExecutor) {
         this.fileTransferService = fileTransferService;
         this.consts = consts;
+        this.taskExecutor = taskExecutor;
     }
 
     @GetMapping(value = "/getTempLocation")
@@ -78,7 +90,7 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v1/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> uploadV1(@RequestPart("file") MultipartFile multipartFile,
+    public CompletableFuture<ResponseEntity<?>> uploadV1(@RequestPart("file") MultipartFile multipartFile,
                                       @RequestParam("remoteDir") String remoteDir,
                                       @RequestParam(value = "server", defaultValue = "") String server,
                                       @RequestParam(value = "port", defaultValue = "0") String port,
@@ -88,6 +100,14 @@ public class SFTPFileOperationController {
                                       @RequestHeader(value = "password", defaultValue = "", required = false) char[] pass,
                                       @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
                                       @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName) {
+        return async(() -> uploadV1Blocking(multipartFile, remoteDir, server, port, env, correlationId, user, pass,
+                entityId, connectorName));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<?> uploadV1Blocking(MultipartFile multipartFile, String remoteDir, String server,
+            String port, String env, String correlationId, String user, char[] pass, String entityId,
+            String connectorName) {
         final String nameofCurrMethod = "uploadV1";
         final String logMessage = String.format("Upload file %s to %s location in env: %s",
                 multipartFile.getName(), remoteDir, env);
@@ -121,7 +141,7 @@ public class SFTPFileOperationController {
 
     @Trace
     @GetMapping(value = "/v1/download")
-    public ResponseEntity<?> downloadV1(@RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
+    public CompletableFuture<ResponseEntity<?>> downloadV1(@RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
                                         @Valid @RequestParam("remoteDir") String remoteDir,
                                         @Valid @RequestParam("fileName") String fileName,
                                         @RequestParam(value = "server", defaultValue = "", required = false) String server,
@@ -131,6 +151,13 @@ public class SFTPFileOperationController {
                                         @RequestHeader(value = "env", defaultValue = "", required = false) String env,
                                         @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
                                         @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName) {
+        return async(() -> downloadV1Blocking(correlationId, remoteDir, fileName, server, port, user, pass, env,
+                entityId, connectorName));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<?> downloadV1Blocking(String correlationId, String remoteDir, String fileName, String server,
+            Integer port, String user, char[] pass, String env, String entityId, String connectorName) {
         final String nameofCurrMethod = "downloadV1";
         final String logMessage = String.format("Download file %s from %s location", fileName, remoteDir);
      //   final Instant start = logger.logStartTime(nameofCurrMethod, logMessage, correlationId, entityId, connectorName);
@@ -180,7 +207,7 @@ public class SFTPFileOperationController {
 
     @Trace
     @GetMapping(value = "/v1/listFiles")
-    public Callable<ResponseEntity<Object>> listFilesV1(
+    public CompletableFuture<ResponseEntity<Object>> listFilesV1(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
@@ -190,13 +217,23 @@ public class SFTPFileOperationController {
             @RequestParam(value = "port", defaultValue = "0", required = false) Integer port,
             @RequestHeader(value = "user", defaultValue = "", required = false) String user,
             @RequestHeader(value = "password", defaultValue = "", required = false) char[] pass,
-            @RequestParam(name = "regularExpression", defaultValue = ".*") String regularExpression) {
+            @RequestParam(name = "regularExpression", defaultValue = ".*") String regularExpression,
+            @RequestParam(name = "consistency", defaultValue = "live", required = false) String consistency) {
+        return async(() -> listFilesV1Blocking(correlationId, entityId, connectorName, env, remoteDir, server, port,
+                user, pass, regularExpression, consistency));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> listFilesV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, String remoteDir, String server, Integer port, String user, char[] pass,
+            String regularExpression, String consistency) {
         final String nameofCurrMethod = "listFilesV1";
         final String logMessage = String.format("Listing files in %s location with regex %s", remoteDir, regularExpression);
       //  final Instant start = logger.logStartTime(nameofCurrMethod, logMessage, correlationId, entityId, connectorName);
         Map<FileSystemOptionKeys, Object> options = new EnumMap<>(FileSystemOptionKeys.class);
         options.put(FileSystemOptionKeys.REMOTE_DIR, remoteDir);
         options.put(FileSystemOptionKeys.REGULAR_EXPRESSION, regularExpression);
+        options.put(FileSystemOptionKeys.CONSISTENCY, ListingConsistency.from(consistency));
         if(correlationId == null || correlationId.isEmpty()) {
             correlationId = String.format("%s:%s", remoteDir, env);
         }
@@ -244,13 +281,120 @@ public class SFTPFileOperationController {
                     .body(String.format("%s with exception %s", err, e.getMessage()));
         }
   //      logger.logEndTime(nameofCurrMethod, logMessage, correlationId, start, entityId, connectorName);
-        final ResponseEntity<Object> finalResponse = response;
-        return () -> finalResponse;
+        return response;
+    }
+
+    /**
+     * List the files in a remote directory with their size, last modified time, ETag and storage class. The size
+     * and modified time bounds and the sort order are applied on the server side. Times are epoch milliseconds or
+     * ISO-8601 instants.
+     */
+    @Trace
+    @GetMapping(value = "/v2/listFiles")
+    public CompletableFuture<ResponseEntity<Object>> listFilesV2(
+            @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
+            @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
+            @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
+            @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @Valid @RequestParam("remoteDir") String remoteDir,
+            @RequestParam(name = "regularExpression", defaultValue = ".*") String regularExpression,
+            @RequestParam(name = "consistency", defaultValue = "live", required = false) String consistency,
+            @RequestParam(name = "minSize", required = false) Long minSize,
+            @RequestParam(name = "maxSize", required = false) Long maxSize,
+            @RequestParam(name = "modifiedAfter", required = false) String modifiedAfter,
+            @RequestParam(name = "modifiedBefore", required = false) String modifiedBefore,
+            @RequestParam(name = "sortBy", defaultValue = "key", required = false) String sortBy,
+            @RequestParam(name = "order", defaultValue = "asc", required = false) String order) {
+        return async(() -> listFilesV2Blocking(correlationId, entityId, connectorName, env, remoteDir,
+                regularExpression, consistency, minSize, maxSize, modifiedAfter, modifiedBefore, sortBy, order));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> listFilesV2Blocking(String correlationId, String entityId, String connectorName,
+            String env, String remoteDir, String regularExpression, String consistency, Long minSize, Long maxSize,
+            String modifiedAfter, String modifiedBefore, String sortBy, String order) {
+        Map<FileSystemOptionKeys, Object> options = new EnumMap<>(FileSystemOptionKeys.class);
+        options.put(FileSystemOptionKeys.REMOTE_DIR, remoteDir);
+        options.put(FileSystemOptionKeys.REGULAR_EXPRESSION, regularExpression);
+        options.put(FileSystemOptionKeys.CONSISTENCY, ListingConsistency.from(consistency));
+        if(correlationId == null || correlationId.isEmpty()) {
+            correlationId = String.format("%s:%s", remoteDir, env);
+        }
+
+        options.put(FileSystemOptionKeys.ENVIRONMENT, Validation.sanitizeEnvironment(env));
+        ResponseEntity<Object> response;
+        final String err =
+                String.format("Could not list file %s in env %s", remoteDir, env);
+        try {
+            options.put(FileSystemOptionKeys.LISTING_FILTER, new ListingFilter(minSize, maxSize,
+                    parseTime(modifiedAfter), parseTime(modifiedBefore),
+                    ListingFilter.SortField.valueOf(sortBy.trim().toUpperCase(Locale.ROOT)),
+                    "desc".equalsIgnoreCase(order)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            final String exc = String.format("%s. Invalid listing filter %s", err, e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+            return ResponseEntity.status(BAD_REQUEST).body(exc);
+        }
+        final Optional<List<S3ObjectRecord>> res;
+        try {
+            res = fileTransferService.listFilesDetailed(options, entityId, connectorName);
+            if (res.isPresent()) {
+                response = ResponseEntity.ok(res.get());
+            } else {
+                response = ResponseEntity.status(INTERNAL_SERVER_ERROR).body(ErrorConstants.FILE_NOT_FOUND);
+                logger.error(ErrorConstants.FILE_NOT_FOUND, correlationId, entityId, connectorName);
+            }
+        } catch (AWSConnectionException e) {
+            final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+            response = ResponseEntity.status(e.getStatusCode()).body(e.getMessage());
+        } catch (FileTransferException e) {
+            String error = ErrorConstants.GENERIC_ERROR;
+            if (e.getErrorCode() == FileTransferErrors.INVALID_FILE_REGULAR_EXPRESSION.getCode()) {
+                error = ErrorConstants.WRONG_FILE_NAME_FILTER;
+                response = ResponseEntity.status(BAD_REQUEST).body(error + ErrorConstants.DISPLAY_SPACE
+                        + e.getMessage());
+            } else if (e.getErrorCode() == FileTransferErrors.INVALID_REMOTE_LOCATION.getCode()) {
+                error = ErrorConstants.REMOTE_FOLDER_NOT_FOUND;
+                response = ResponseEntity.status(BAD_REQUEST).body(error + ErrorConstants.DISPLAY_SPACE
+                        + e.getMessage());
+            } else if (e.getErrorCode() == FileTransferErrors.CANNOT_CONNECT.getCode()) {
+                error = ErrorConstants.CONNECTION_FAILED;
+                response = ResponseEntity.status(BAD_REQUEST).body(error + ErrorConstants.DISPLAY_SPACE
+                        + e.getMessage());
+            } else {
+                response = ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body("Wrong filename filter" +
+                        e.getMessage());
+            }
+            logger.error(String.format("%s, Error: %s", error, e), correlationId, entityId, connectorName);
+        } catch (Exception e) {
+            final String exc = String.format("IOException in server %s", e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+            response = ResponseEntity.status(INTERNAL_SERVER_ERROR)
+                    .body(String.format("%s with exception %s", err, e.getMessage()));
+        }
+        return response;
+    }
+
+    /**
+     * Parse a listing time bound given either as epoch milliseconds or as an ISO-8601 instant.
+     *
+     * @return The epoch milliseconds or {@code null} if no bound was given
+     */
+    private static Long parseTime(final String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        final String time = value.trim();
+        if (time.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(time);
+        }
+        return Instant.parse(time).toEpochMilli();
     }
 
     @Trace
     @GetMapping(value = "/v1/getfile")
-    public ResponseEntity<Object> getFile(
+    public CompletableFuture<ResponseEntity<Object>> getFile(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @Valid @RequestParam("remoteDir") String remoteDir,
             @Valid @RequestParam("fileName") String fileName,
@@ -261,6 +405,13 @@ public class SFTPFileOperationController {
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName) {
+        return async(() -> getFileBlocking(correlationId, remoteDir, fileName, server, port, user, pass, env, entityId,
+                connectorName));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> getFileBlocking(String correlationId, String remoteDir, String fileName,
+            String server, Integer port, String user, char[] pass, String env, String entityId, String connectorName) {
         final String nameofCurrMethod = "getFile";
         final String logMessage = String.format("Get file %s from %s", fileName, remoteDir);
     //    final Instant start = logger.logStartTime(nameofCurrMethod, logMessage, correlationId, entityId, connectorName);
@@ -315,7 +466,7 @@ public class SFTPFileOperationController {
 
     @Trace
     @GetMapping(value = "/v2/getfile", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<StreamingResponseBody> getFileV2(
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> getFileV2(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
@@ -326,6 +477,14 @@ public class SFTPFileOperationController {
             @RequestHeader(value = "password", defaultValue = "", required = false) char[] pass,
             @Valid @RequestParam("remoteDir") String remoteDir,
             @Valid @RequestParam("fileName") String fileName) {
+        return async(() -> getFileV2Blocking(correlationId, entityId, connectorName, env, server, port, user, pass,
+                remoteDir, fileName));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<StreamingResponseBody> getFileV2Blocking(String correlationId, String entityId,
+            String connectorName, String env, String server, Integer port, String user, char[] pass, String remoteDir,
+            String fileName) {
         final String logMessage = String.format("Get file %s from %s", fileName, remoteDir);
         final String nameofCurrMethod = "getFileV2";
     //    final Instant start = logger.logStartTime(nameofCurrMethod, logMessage, correlationId, entityId, connectorName);
@@ -385,12 +544,20 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v1/storefile")
-    public ResponseEntity<Object> storeFile(
+    public CompletableFuture<ResponseEntity<Object>> storeFile(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam(name = "writeBehind", defaultValue = "false", required = false) boolean writeBehind,
             @RequestBody StoreFilePayload fileObjectProxy) {
+        return async(() -> storeFileBlocking(correlationId, entityId, connectorName, env, writeBehind,
+                fileObjectProxy));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> storeFileBlocking(String correlationId, String entityId, String connectorName,
+            String env, boolean writeBehind, StoreFilePayload fileObjectProxy) {
         final String nameofCurrMethod = "storeFile";
         final String logMessage =
                 String.format("Store file %s in %s", fileObjectProxy.getFileName(), fileObjectProxy.getRemoteDir());
@@ -412,6 +579,9 @@ public class SFTPFileOperationController {
         final String err =
                 String.format("Could not write file %s in %s", fileObjectProxy.getFileName(), fileObjectProxy.getRemoteDir());
         try {
+            if (writeBehind) {
+                return spoolFile(options, entityId, connectorName);
+            }
             final Optional<FileOperationResponse> res = fileTransferService.setRemoteFileStream(options, entityId, connectorName);
             if (res.isPresent()) {
                 response = ResponseEntity.ok(res.get());
@@ -445,7 +615,7 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v2/storefile")
-    public ResponseEntity<Object> storeFileV2(@RequestParam(value = "fileName") String fileName,
+    public CompletableFuture<ResponseEntity<Object>> storeFileV2(@RequestParam(value = "fileName") String fileName,
                                               @RequestParam(value = "remoteDir") String remoteDir,
                                               @RequestParam(value = "server", defaultValue = "", required = false) String server,
                                               @RequestParam(value = "port", defaultValue = "0", required = false) Integer port,
@@ -455,7 +625,16 @@ public class SFTPFileOperationController {
                                               @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
                                               @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
                                               @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
+                                              @RequestParam(name = "writeBehind", defaultValue = "false", required = false) boolean writeBehind,
                                               HttpServletRequest request) {
+        return async(() -> storeFileV2Blocking(fileName, remoteDir, server, port, user, pass, env, correlationId,
+                entityId, connectorName, writeBehind, request));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> storeFileV2Blocking(String fileName, String remoteDir, String server, Integer port,
+            String user, char[] pass, String env, String correlationId, String entityId, String connectorName,
+            boolean writeBehind, HttpServletRequest request) {
         final String nameofCurrMethod = "storeFile";
         final String logMessage = String.format("Store file %s in %s", fileName, remoteDir);
        // final Instant start = logger.logStartTime(nameofCurrMethod, logMessage, correlationId, entityId, connectorName);
@@ -481,6 +660,9 @@ public class SFTPFileOperationController {
         try {
             final InputStream inputStream = request.getInputStream();
             options.put(FILE_OBJECT, inputStream);
+            if (writeBehind) {
+                return spoolFile(options, entityId, connectorName);
+            }
             final Optional<FileOperationResponse> res = fileTransferService.setRemoteFileStreamV2(options, entityId, connectorName);
             if (res.isPresent()) {
                 response = ResponseEntity.ok(res.get());
@@ -515,12 +697,19 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v1/mkdir")
-    public ResponseEntity<Object> createDirectoryV1(
+    public CompletableFuture<ResponseEntity<Object>> createDirectoryV1(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
             @RequestBody CreateDirectoryPayload createDirectoryPayload) {
+        return async(() -> createDirectoryV1Blocking(correlationId, entityId, connectorName, env,
+                createDirectoryPayload));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> createDirectoryV1Blocking(String correlationId, String entityId,
+            String connectorName, String env, CreateDirectoryPayload createDirectoryPayload) {
         final String nameofCurrMethod = "createDirectoryV1";
         final String logMessage = String.format("Create file %s in %s",
                 createDirectoryPayload.getCreatePath(), createDirectoryPayload.getRootDirectory());
@@ -562,12 +751,19 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v1/move")
-    public ResponseEntity<Object> moveFileV1(
+    public CompletableFuture<ResponseEntity<Object>> moveFileV1(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam(name = "async", defaultValue = "false", required = false) boolean async,
             @RequestBody MoveFilePayload moveFilePayload) {
+        return async(() -> moveFileV1Blocking(correlationId, entityId, connectorName, env, async, moveFilePayload));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> moveFileV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, boolean async, MoveFilePayload moveFilePayload) {
         final String nameofCurrMethod = "moveFileV1";
         final String logMessage = String.format("Move from %s to %s",
                 moveFilePayload.getFromLocation(), moveFilePayload.getToRootDirectory());
@@ -584,9 +780,13 @@ public class SFTPFileOperationController {
         final String err =
                 String.format("Error moving file from %s to %s",fromLocation, toLocation );
         try {
-            final Optional<String> status = fileTransferService.moveFilesV1(moveFilePayload, options, entityId, connectorName);
-            response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
-                    .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not move"));
+            if (async) {
+                response = submitJob(JobType.MOVE, moveFilePayload, options, entityId, connectorName);
+            } else {
+                final Optional<String> status = fileTransferService.moveFilesV1(moveFilePayload, options, entityId, connectorName);
+                response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not move"));
+            }
         } catch (AWSConnectionException e) {
             final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
             logger.error(exc, correlationId, entityId, connectorName);
@@ -610,12 +810,19 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v1/copy")
-    public ResponseEntity<Object> copyFileV1(
+    public CompletableFuture<ResponseEntity<Object>> copyFileV1(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam(name = "async", defaultValue = "false", required = false) boolean async,
             @RequestBody MoveFilePayload copyFileUpload) {
+        return async(() -> copyFileV1Blocking(correlationId, entityId, connectorName, env, async, copyFileUpload));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> copyFileV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, boolean async, MoveFilePayload copyFileUpload) {
         final String nameofCurrMethod = "copyFileV1";
         final String logMessage = String.format("Copy from %s to %s",
         		copyFileUpload.getFromLocation(), copyFileUpload.getToRootDirectory());
@@ -633,9 +840,13 @@ public class SFTPFileOperationController {
         final String err =
                 String.format("Error copying file from %s to %s",fromLocation, toLocation );
         try {
-            final Optional<String> status = fileTransferService.copyFilesV1(copyFileUpload, options, entityId, connectorName);
-            response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
-                    .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not copy"));
+            if (async) {
+                response = submitJob(JobType.COPY, copyFileUpload, options, entityId, connectorName);
+            } else {
+                final Optional<String> status = fileTransferService.copyFilesV1(copyFileUpload, options, entityId, connectorName);
+                response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not copy"));
+            }
         } catch (AWSConnectionException e) {
             final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
             logger.error(exc, correlationId, entityId, connectorName);
@@ -658,12 +869,19 @@ public class SFTPFileOperationController {
 
     @Trace
     @PostMapping(value = "/v2/move")
-    public ResponseEntity<Object> moveFileV2(
+    public CompletableFuture<ResponseEntity<Object>> moveFileV2(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam(name = "async", defaultValue = "false", required = false) boolean async,
             @RequestBody MoveFilePayload moveFilePayload) {
+        return async(() -> moveFileV2Blocking(correlationId, entityId, connectorName, env, async, moveFilePayload));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> moveFileV2Blocking(String correlationId, String entityId, String connectorName,
+            String env, boolean async, MoveFilePayload moveFilePayload) {
         final String nameofCurrMethod = "moveFileV2";
         final String logMessage = String.format("Move from %s to %s",
                 moveFilePayload.getFromLocation(), moveFilePayload.getToRootDirectory());
@@ -681,10 +899,14 @@ public class SFTPFileOperationController {
         final String err =
                 String.format("Error moving file from %s to %s",fromLocation, toLocation );
         try {
-            final Optional<String> status =
-                    fileTransferService.moveFilesV2(moveFilePayload, options, entityId, connectorName);
-            response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
-                    .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not move"));
+            if (async) {
+                response = submitJob(JobType.MOVE, moveFilePayload, options, entityId, connectorName);
+            } else {
+                final Optional<String> status =
+                        fileTransferService.moveFilesV2(moveFilePayload, options, entityId, connectorName);
+                response = status.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not move"));
+            }
         } catch (AWSConnectionException e) {
             final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
             logger.error(exc, correlationId, entityId, connectorName);
@@ -706,14 +928,123 @@ public class SFTPFileOperationController {
         return response;
     }
 
+    /**
+     * Get the size, ETag and modified time of a file without reading it. Answers 404 if there is no such file.
+     */
+    @Trace
+    @GetMapping(value = "/v1/stat")
+    public CompletableFuture<ResponseEntity<Object>> statV1(
+            @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
+            @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
+            @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
+            @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @Valid @RequestParam("remoteDir") String remoteDir,
+            @Valid @RequestParam("fileName") String fileName) {
+        return async(() -> statV1Blocking(correlationId, entityId, connectorName, env, remoteDir, fileName));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> statV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, String remoteDir, String fileName) {
+        final Map<FileSystemOptionKeys, Object> options = new EnumMap<>(FileSystemOptionKeys.class);
+        options.put(FileSystemOptionKeys.REMOTE_DIR, remoteDir);
+        options.put(FileSystemOptionKeys.FILE_NAME, fileName);
+        options.put(ENVIRONMENT, Validation.sanitizeEnvironment(env));
+        if(correlationId == null || correlationId.isEmpty()) {
+            correlationId = String.format("%s:%s:%s", remoteDir, fileName, env);
+        }
+        options.put(CORRELATION_ID, correlationId);
+        ResponseEntity<Object> response;
+        final String err = String.format("Error getting the stat of %s in %s", fileName, remoteDir);
+        try {
+            final Optional<S3ObjectRecord> result = fileTransferService.statFile(options, entityId, connectorName);
+            response = result.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body(err));
+        } catch (AWSConnectionException e) {
+            final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+            response = ResponseEntity.status(e.getStatusCode()).body(e.getMessage());
+        } catch (FileTransferException e) {
+            if (e.getErrorCode() == FileTransferErrors.FILE_NOT_FOUND.getCode()) {
+                response = ResponseEntity.status(NOT_FOUND).body(e.getMessage());
+            } else {
+                response = ResponseEntity.status(BAD_REQUEST).body(e.getMessage());
+                logger.error(String.format("%s. Exception from server %s", err, e.getMessage()), correlationId,
+                        entityId, connectorName);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Rename a file, or a folder with everything under it.
+     */
+    @Trace
+    @PostMapping(value = "/v1/rename")
+    public CompletableFuture<ResponseEntity<Object>> renameFileV1(
+            @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
+            @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
+            @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
+            @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam("fileName") String fileName,
+            @RequestParam("newName") String newName,
+            @RequestParam(name = "overwrite", defaultValue = "false", required = false) boolean overwrite) {
+        return async(() -> renameFileV1Blocking(correlationId, entityId, connectorName, env, fileName, newName,
+                overwrite));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> renameFileV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, String fileName, String newName, boolean overwrite) {
+        final Map<FileSystemOptionKeys, Object> options = new EnumMap<>(FileSystemOptionKeys.class);
+        options.put(ENVIRONMENT, Validation.sanitizeEnvironment(env));
+        options.put(FileSystemOptionKeys.TO_DESTINATION, newName);
+        options.put(FileSystemOptionKeys.OVERWRITE, overwrite);
+        if(correlationId == null || correlationId.isEmpty()) {
+            correlationId = String.format("%s:%s:%s", fileName, newName, env);
+        }
+        options.put(CORRELATION_ID, correlationId);
+        ResponseEntity<Object> response;
+        final String err = String.format("Error renaming %s to %s", fileName, newName);
+        try {
+            final Optional<FileOperationResponse> result =
+                    fileTransferService.renameFile(fileName, options, entityId, connectorName);
+            response = result.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not rename"));
+        } catch (AWSConnectionException e) {
+            final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+            response = ResponseEntity.status(e.getStatusCode()).body(e.getMessage());
+        } catch (FileTransferException e) {
+            if (e.getErrorCode() == FileTransferErrors.FILE_NOT_FOUND.getCode()) {
+                response = ResponseEntity.status(NOT_FOUND).body(e.getMessage());
+            } else if (e.getErrorCode() == FileTransferErrors.ALREADY_EXISTS.getCode()) {
+                response = ResponseEntity.status(CONFLICT).body(e.getMessage());
+            } else {
+                response = ResponseEntity.status(BAD_REQUEST).body(e.getMessage());
+            }
+            final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
+            logger.error(exc, correlationId, entityId, connectorName);
+        }
+        return response;
+    }
+
     @Trace
     @PostMapping(value = "/v1/delete")
-    public ResponseEntity<Object> deleteFolderV1(
+    public CompletableFuture<ResponseEntity<Object>> deleteFolderV1(
             @RequestHeader(value = "x-correlation-id", defaultValue = "", required = false) String correlationId,
             @RequestHeader(value = "entityId", defaultValue = "", required = false) String entityId,
             @RequestHeader(value = "connectorName", defaultValue = "", required = false) String connectorName,
             @RequestHeader(value = "env", defaultValue = "", required = false) String env,
+            @RequestParam(name = "async", defaultValue = "false", required = false) boolean async,
             @RequestBody DeleteFolderPayLoad deleteFolderPayLoad) {
+        return async(() -> deleteFolderV1Blocking(correlationId, entityId, connectorName, env, async,
+                deleteFolderPayLoad));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<Object> deleteFolderV1Blocking(String correlationId, String entityId, String connectorName,
+            String env, boolean async, DeleteFolderPayLoad deleteFolderPayLoad) {
         final String nameofCurrMethod = "deleteFolderV1";
         final String logMessage = String.format("Delete %s",
                 deleteFolderPayLoad.getDirectorName());
@@ -725,7 +1056,11 @@ public class SFTPFileOperationController {
         final String err =
                 String.format("Error deleting file %s in env %s",deleteFolderPayLoad.getDirectorName(), env);
         try {
-            response = ResponseEntity.ok(fileTransferService.removeDirectory(deleteFolderPayLoad, options, entityId, connectorName));
+            if (async) {
+                response = submitJob(JobType.DELETE, deleteFolderPayLoad, options, entityId, connectorName);
+            } else {
+                response = ResponseEntity.ok(fileTransferService.removeDirectory(deleteFolderPayLoad, options, entityId, connectorName));
+            }
         } catch (AWSConnectionException e) {
             final String exc = String.format("%s. Exception from server %s", err, e.getMessage());
             logger.error(exc, correlationId, entityId, connectorName);
@@ -746,9 +1081,78 @@ public class SFTPFileOperationController {
         return response;
     }
 
+    /**
+     * Get the progress of a job submitted with {@code async=true}.
+     */
+    @Trace
+    @GetMapping(value = "/v1/jobs/{id}")
+    public ResponseEntity<Object> getJobV1(@PathVariable("id") String id) {
+        return fileTransferService.getJob(id).<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(NOT_FOUND).body(String.format("Job %s not found", id)));
+    }
+
+    /**
+     * Queue an operation as a background job. The response carries the job so the caller can poll
+     * {@code /v1/jobs/{id}}.
+     */
+    private ResponseEntity<Object> submitJob(final JobType type, final Object payload,
+                                             final Map<FileSystemOptionKeys, Object> options,
+                                             final String entityId, final String connectorName)
+            throws FileTransferException {
+        final Optional<JobRecord> job = fileTransferService.submitJob(type, payload, options, entityId, connectorName);
+        return job.<ResponseEntity<Object>>map(j -> ResponseEntity.status(ACCEPTED)
+                .header(HttpHeaders.LOCATION, String.format("/api/sftp/v1/jobs/%s", j.getId()))
+                .body(j))
+                .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not submit the job"));
+    }
+
+    /**
+     * Get the state of a file stored with {@code writeBehind=true}.
+     */
+    @Trace
+    @GetMapping(value = "/v1/spool/{id}")
+    public ResponseEntity<Object> getSpoolReceiptV1(@PathVariable("id") String id) {
+        return fileTransferService.getSpoolReceipt(id).<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(NOT_FOUND).body(String.format("Write %s not found", id)));
+    }
+
+    /**
+     * Run the work of an endpoint on the async executor so that the request thread is released while S3 is called.
+     * When the executor and its queue are full the work runs on the request thread, or with
+     * {@code gist.async.reject.enabled} the request is answered 503 at once.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends ResponseEntity<?>> CompletableFuture<T> async(final Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, taskExecutor);
+        } catch (TaskRejectedException e) {
+            logger.warn(String.format("Async executor is saturated: %s", e.getMessage()));
+            return CompletableFuture.completedFuture((T) ResponseEntity.status(SERVICE_UNAVAILABLE).build());
+        }
+    }
+
+    /**
+     * Store a file through the write-behind spool. The response carries the receipt so the caller can poll
+     * {@code /v1/spool/{id}}.
+     */
+    private ResponseEntity<Object> spoolFile(final Map<FileSystemOptionKeys, Object> options,
+                                             final String entityId, final String connectorName)
+            throws FileTransferException {
+        final Optional<SpoolReceipt> receipt = fileTransferService.spoolRemoteFileStream(options, entityId, connectorName);
+        return receipt.<ResponseEntity<Object>>map(r -> ResponseEntity.status(ACCEPTED)
+                .header(HttpHeaders.LOCATION, String.format("/api/sftp/v1/spool/%s", r.getId()))
+                .body(r))
+                .orElseGet(() -> ResponseEntity.status(INTERNAL_SERVER_ERROR).body("Could not spool the file"));
+    }
+
     @Trace
     @GetMapping(value = "/testFileOperations")
-    public ResponseEntity<String> testFileOperations(@RequestHeader(value = "env", defaultValue = "", required = false) String env) {
+    public CompletableFuture<ResponseEntity<String>> testFileOperations(@RequestHeader(value = "env", defaultValue = "", required = false) String env) {
+        return async(() -> testFileOperationsBlocking(env));
+    }
+
+    @Trace(dispatcher = true)
+    private ResponseEntity<String> testFileOperationsBlocking(String env) {
         final String res = fileTransferService.testFileOperations(Validation.sanitizeEnvironment(env));
         return ResponseEntity.ok(res);
     }
@@ -0,0 +1,39 @@
+package com.practice.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batched delete. {@code errors} holds the first failures as {@code key: code message}; the
+ * counts always cover all of them.
+ */
+public class DeleteReport {
+    private final long deleted;
+    private final long failed;
+    private final List<String> errors;
+
+    public DeleteReport() {
+        deleted = 0;
+        failed = 0;
+        errors = Collections.emptyList();
+    }
+
+    public DeleteReport(final long deleted, final long failed, final List<String> errors) {
+        this.deleted = deleted;
+        this.failed = failed;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
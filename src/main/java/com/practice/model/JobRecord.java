@@ -0,0 +1,176 @@
+package com.practice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.practice.constants.JobStatus;
+import com.practice.constants.JobType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of a background job as it is kept in the job store and reported by the job status API. Times are epoch
+ * milliseconds, {@code processed} and {@code failed} count keys.
+ * <p>
+ * The payload is only written to the job store, never to the API; credentials are removed from it before it is
+ * stored.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JobRecord {
+    private String id;
+    private JobType type;
+    private JobStatus status = JobStatus.QUEUED;
+    private String env = "";
+    private String entityId = "";
+    private String connectorName = "";
+    private String correlationId = "";
+    private String payload = "";
+    private long submittedAt;
+    private long startedAt;
+    private long finishedAt;
+    private long processed;
+    private long failed;
+    private List<String> errors = new ArrayList<>();
+    private String result = "";
+
+    public JobRecord() {
+    }
+
+    public JobRecord(final String id, final JobType type, final String payload) {
+        this.id = id;
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * @return Keys processed per second since the job started, or 0 if it has not started
+     */
+    public double getThroughput() {
+        if (startedAt <= 0) {
+            return 0;
+        }
+        final long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        return end > startedAt ? processed * 1000.0 / (end - startedAt) : 0;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public JobType getType() {
+        return type;
+    }
+
+    public void setType(JobType type) {
+        this.type = type;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    public String getEnv() {
+        return env;
+    }
+
+    public void setEnv(String env) {
+        this.env = env;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getConnectorName() {
+        return connectorName;
+    }
+
+    public void setConnectorName(String connectorName) {
+        this.connectorName = connectorName;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(String correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    @JsonIgnore
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+}
@@ -0,0 +1,86 @@
+package com.practice.model;
+
+import java.util.Comparator;
+
+/**
+ * Server side filter and sort order applied to a detailed listing. Bounds that are {@code null} are not applied.
+ * Size bounds are inclusive, {@code modifiedAfter} and {@code modifiedBefore} are exclusive epoch milliseconds.
+ */
+public class ListingFilter {
+
+    public enum SortField {
+        KEY,
+        SIZE,
+        LAST_MODIFIED
+    }
+
+    private Long minSize;
+    private Long maxSize;
+    private Long modifiedAfter;
+    private Long modifiedBefore;
+    private SortField sortBy = SortField.KEY;
+    private boolean descending = false;
+
+    public ListingFilter() {
+    }
+
+    public ListingFilter(final Long minSize, final Long maxSize,
+                         final Long modifiedAfter, final Long modifiedBefore,
+                         final SortField sortBy, final boolean descending) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.modifiedAfter = modifiedAfter;
+        this.modifiedBefore = modifiedBefore;
+        this.sortBy = sortBy == null ? SortField.KEY : sortBy;
+        this.descending = descending;
+    }
+
+    public boolean matches(final S3ObjectRecord record) {
+        return (minSize == null || record.getSize() >= minSize)
+                && (maxSize == null || record.getSize() <= maxSize)
+                && (modifiedAfter == null || record.getLastModified() > modifiedAfter)
+                && (modifiedBefore == null || record.getLastModified() < modifiedBefore);
+    }
+
+    public Comparator<S3ObjectRecord> comparator() {
+        Comparator<S3ObjectRecord> comparator;
+        switch (sortBy) {
+            case SIZE:
+                comparator = Comparator.comparingLong(S3ObjectRecord::getSize);
+                break;
+            case LAST_MODIFIED:
+                comparator = Comparator.comparingLong(S3ObjectRecord::getLastModified);
+                break;
+            case KEY:
+            default:
+                comparator = Comparator.comparing(S3ObjectRecord::getKey);
+                break;
+        }
+        comparator = comparator.thenComparing(S3ObjectRecord::getKey);
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    public Long getMinSize() {
+        return minSize;
+    }
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getModifiedAfter() {
+        return modifiedAfter;
+    }
+
+    public Long getModifiedBefore() {
+        return modifiedBefore;
+    }
+
+    public SortField getSortBy() {
+        return sortBy;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+}
@@ -15,6 +15,16 @@ public class MoveFilePayload {
     public String toRootDirectory;
     public String toLocationName;
 
+    /**
+     * Environment the files are moved from. Empty means the environment of the request.
+     */
+    public String fromEnvironment = "";
+
+    /**
+     * Environment the files are moved to. Empty means the same environment as the source.
+     */
+    public String toEnvironment = "";
+
     public boolean overwrite = true;
 
     public boolean createToRootIfNotExists = true;
@@ -59,6 +69,14 @@ public class MoveFilePayload {
         this.toLocationName = toLocationName;
     }
 
+    public void setFromEnvironment(String fromEnvironment) {
+        this.fromEnvironment = fromEnvironment;
+    }
+
+    public void setToEnvironment(String toEnvironment) {
+        this.toEnvironment = toEnvironment;
+    }
+
     public void setOverwrite(boolean overwrite) {
         this.overwrite = overwrite;
     }
@@ -111,6 +129,14 @@ public class MoveFilePayload {
         return toLocationName;
     }
 
+    public String getFromEnvironment() {
+        return fromEnvironment;
+    }
+
+    public String getToEnvironment() {
+        return toEnvironment;
+    }
+
     public boolean getOverwrite() { return overwrite; }
 
     public boolean getCreateToRootIfNotExists() {
@@ -0,0 +1,83 @@
+package com.practice.model;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Compact description of a single object stored in S3. This is what the metadata index keeps per key and
+ * what the listing calls hand back when the caller needs more than just the key.
+ */
+public class S3ObjectRecord {
+    private final String key;
+    private final long size;
+    private final long lastModified;
+    private final String eTag;
+    private final String storageClass;
+    private final boolean versioned;
+
+    public S3ObjectRecord() {
+        key = "";
+        size = 0;
+        lastModified = 0;
+        eTag = "";
+        storageClass = "";
+        versioned = false;
+    }
+
+    public S3ObjectRecord(final String key,
+                          final long size,
+                          final long lastModified,
+                          final String eTag,
+                          final String storageClass,
+                          final boolean versioned) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.eTag = eTag == null ? "" : eTag;
+        this.storageClass = storageClass == null ? "" : storageClass;
+        this.versioned = versioned;
+    }
+
+    public static S3ObjectRecord from(final S3ObjectSummary summary, final boolean versioned) {
+        return new S3ObjectRecord(summary.getKey(), summary.getSize(),
+                summary.getLastModified() != null ? summary.getLastModified().getTime() : 0L,
+                summary.getETag(), summary.getStorageClass(), versioned);
+    }
+
+    public static S3ObjectRecord from(final String key, final ObjectMetadata metadata) {
+        return new S3ObjectRecord(key, metadata.getContentLength(),
+                metadata.getLastModified() != null ? metadata.getLastModified().getTime() : 0L,
+                metadata.getETag(), metadata.getStorageClass(), metadata.getVersionId() != null);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getStorageClass() {
+        return storageClass;
+    }
+
+    public boolean isVersioned() {
+        return versioned;
+    }
+
+    /**
+     * @return {@code true} if the other record describes the same object content.
+     */
+    public boolean sameContent(final S3ObjectRecord other) {
+        return other != null && size == other.size && lastModified == other.lastModified && eTag.equals(other.eTag);
+    }
+}
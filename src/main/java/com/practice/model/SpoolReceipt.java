@@ -0,0 +1,89 @@
+package com.practice.model;
+
+import com.practice.constants.SpoolStatus;
+
+/**
+ * Receipt of a write accepted by the write-behind spool, as reported by the spool status API. Times are epoch
+ * milliseconds.
+ */
+public class SpoolReceipt {
+    private final String id;
+    private final String env;
+    private final String remoteFilePath;
+    private final long size;
+    private final long submittedAt;
+    private volatile SpoolStatus status = SpoolStatus.PENDING;
+    private volatile int attempts;
+    private volatile long finishedAt;
+    private volatile String eTag = "";
+    private volatile String error = "";
+
+    public SpoolReceipt(final String id, final String env, final String remoteFilePath, final long size,
+                        final long submittedAt) {
+        this.id = id;
+        this.env = env;
+        this.remoteFilePath = remoteFilePath;
+        this.size = size;
+        this.submittedAt = submittedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEnv() {
+        return env;
+    }
+
+    public String getRemoteFilePath() {
+        return remoteFilePath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public SpoolStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(SpoolStatus status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag == null ? "" : eTag;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error == null ? "" : error;
+    }
+}
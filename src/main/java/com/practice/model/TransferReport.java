@@ -0,0 +1,99 @@
+package com.practice.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a copy or move of many objects: the result of every file and the counts of the copy and of the
+ * deferred source delete.
+ */
+public class TransferReport {
+
+    public enum Status {
+        COPIED,
+        FAILED
+    }
+
+    /**
+     * Result of one file
+     */
+    public static class FileOutcome {
+        private final String source;
+        private final String destination;
+        private final Status status;
+        private final String error;
+
+        public FileOutcome(final String source, final String destination, final Status status, final String error) {
+            this.source = source;
+            this.destination = destination;
+            this.status = status;
+            this.error = error == null ? "" : error;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final List<FileOutcome> outcomes;
+    private final long copied;
+    private final long failed;
+    private final DeleteReport sourceDelete;
+    private final long elapsedMillis;
+
+    public TransferReport() {
+        outcomes = Collections.emptyList();
+        copied = 0;
+        failed = 0;
+        sourceDelete = new DeleteReport();
+        elapsedMillis = 0;
+    }
+
+    public TransferReport(final List<FileOutcome> outcomes, final DeleteReport sourceDelete, final long elapsedMillis) {
+        this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+        this.copied = outcomes.stream().filter(o -> o.getStatus() == Status.COPIED).count();
+        this.failed = outcomes.size() - copied;
+        this.sourceDelete = sourceDelete == null ? new DeleteReport() : sourceDelete;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return The same report with the result of deleting the copied sources
+     */
+    public TransferReport withSourceDelete(final DeleteReport sourceDelete) {
+        return new TransferReport(outcomes, sourceDelete, elapsedMillis);
+    }
+
+    public List<FileOutcome> getOutcomes() {
+        return outcomes;
+    }
+
+    public long getCopied() {
+        return copied;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public DeleteReport getSourceDelete() {
+        return sourceDelete;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
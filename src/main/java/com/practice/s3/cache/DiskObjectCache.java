@@ -0,0 +1,346 @@
+package com.practice.s3.cache;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link DiskObjectCache} keeps copies of S3 objects on local disk so that files read again and again, such as
+ * reference files, are not downloaded every time. An object is cached under its bucket and key together with its
+ * ETag, and every read revalidates it with a conditional GET: S3 answers 304 without a body while the object is
+ * unchanged, and the new content otherwise.
+ * <p>
+ * Every object is two files in the cache directory, named after a hash of bucket and key: {@code .data} with the
+ * content and {@code .meta} with bucket, key, ETag and size. Both are written to temporary files first and renamed
+ * into place, the meta file last, so a crash never leaves a readable entry with partial content. At startup the
+ * index is rebuilt from the meta files; incomplete entries and temporary files are removed.
+ * <p>
+ * The cache is kept under its byte quota by evicting the least recently used entries, or with {@link Policy#LFU}
+ * the least often read ones. Objects above the maximum object size are not cached, and are remembered so that the
+ * next read of the same object goes straight to its regular download.
+ * <p>
+ * Readers get a hard link to the cached file (a copy where links are not supported), so evicting or replacing an
+ * entry never disturbs a reader.
+ * <p>
+ * Metrics: {@code s3.cache.disk.requests} tagged {@code result} hit or miss, {@code s3.cache.disk.bytes} tagged
+ * the same way, {@code s3.cache.disk.evictions} and the {@code s3.cache.disk.size} gauge.
+ */
+public class DiskObjectCache {
+    private static final String CLASS_NAME = DiskObjectCache.class.getSimpleName();
+    private static final int MAGIC = 0x53334f43;
+    private static final String DATA = ".data";
+    private static final String META = ".meta";
+    private static final String TEMP = ".tmp";
+    private static final int MAX_TOO_LARGE = 10000;
+
+    public enum Policy {
+        LRU, LFU
+    }
+
+    private final Path directory;
+    private final long quotaBytes;
+    private final long maxObjectSize;
+    private final Policy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final RecentKeys tooLarge = new RecentKeys(MAX_TOO_LARGE);
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Open the cache and rebuild its index from the directory.
+     *
+     * @param directory     The cache directory, created if needed
+     * @param quotaBytes    The bytes the cached objects may take
+     * @param maxObjectSize The largest object that is cached
+     * @param policy        Which entries are evicted first
+     */
+    public DiskObjectCache(final Path directory, final long quotaBytes, final long maxObjectSize,
+                           final Policy policy) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.quotaBytes = quotaBytes;
+        this.maxObjectSize = Math.min(maxObjectSize, quotaBytes);
+        this.policy = policy;
+        rebuild();
+        Gauge.builder("s3.cache.disk.size", size, AtomicLong::get).register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Put the current content of an object at the target, from the cache if it is still valid.
+     *
+     * @param amazonS3 The client to read the object with
+     * @param bucket   The bucket
+     * @param key      The key
+     * @param target   Where to put the content. An existing file is replaced.
+     * @return {@code false} if the object is too large for the cache; the target is not written and the caller has
+     * to download the object itself
+     */
+    public boolean fetch(final AmazonS3 amazonS3, final String bucket, final String key,
+                         final Path target) throws IOException {
+        final String name = name(bucket, key);
+        if (tooLarge.contains(name)) {
+            return false;
+        }
+        final Entry cached = lookup(name);
+        final GetObjectRequest request = new GetObjectRequest(bucket, key);
+        if (cached != null) {
+            request.withNonmatchingETagConstraint(cached.eTag);
+        }
+        final S3Object object = amazonS3.getObject(request);
+        if (object == null && cached != null) {
+            try {
+                link(cached, target);
+                Metrics.globalRegistry.counter("s3.cache.disk.requests", "result", "hit").increment();
+                Metrics.globalRegistry.counter("s3.cache.disk.bytes", "result", "hit").increment(cached.size);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Evicted since the lookup, read it again
+                return fetch(amazonS3, bucket, key, target);
+            }
+        }
+        if (object == null) {
+            throw new IOException(String.format("No content for %s in %s", key, bucket));
+        }
+        try {
+            if (object.getObjectMetadata().getContentLength() > maxObjectSize) {
+                tooLarge.add(name);
+                object.getObjectContent().abort();
+                return false;
+            }
+            final Entry entry = publish(name, bucket, key, object);
+            Metrics.globalRegistry.counter("s3.cache.disk.requests", "result", "miss").increment();
+            Metrics.globalRegistry.counter("s3.cache.disk.bytes", "result", "miss").increment(entry.size);
+            link(entry, target);
+            return true;
+        } finally {
+            object.close();
+        }
+    }
+
+    private Entry lookup(final String name) {
+        lock.lock();
+        try {
+            final Entry entry = entries.get(name);
+            if (entry != null) {
+                entry.hits++;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the object to temporary files and rename them into place, then make room for it.
+     */
+    private Entry publish(final String name, final String bucket, final String key,
+                          final S3Object object) throws IOException {
+        final String unique = "." + UUID.randomUUID() + TEMP;
+        final Path dataTemp = directory.resolve(name + DATA + unique);
+        final Path metaTemp = directory.resolve(name + META + unique);
+        try {
+            try (InputStream in = object.getObjectContent()) {
+                Files.copy(in, dataTemp);
+            }
+            final Entry entry = new Entry(name, bucket, key, object.getObjectMetadata().getETag(),
+                    Files.size(dataTemp));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(metaTemp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(bucket);
+                out.writeUTF(key);
+                out.writeUTF(entry.eTag);
+                out.writeLong(entry.size);
+            }
+            lock.lock();
+            try {
+                Files.move(dataTemp, dataFile(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(metaTemp, metaFile(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                final Entry replaced = entries.put(name, entry);
+                size.addAndGet(entry.size - (replaced == null ? 0 : replaced.size));
+                evict(entry);
+            } finally {
+                lock.unlock();
+            }
+            return entry;
+        } finally {
+            Files.deleteIfExists(dataTemp);
+            Files.deleteIfExists(metaTemp);
+        }
+    }
+
+    /**
+     * Evict entries until the cache is within its quota. Called with the lock held.
+     */
+    private void evict(final Entry keep) throws IOException {
+        while (size.get() > quotaBytes && entries.size() > 1) {
+            Entry victim = null;
+            if (policy == Policy.LFU) {
+                for (final Entry candidate : entries.values()) {
+                    if (candidate != keep && (victim == null || candidate.hits < victim.hits)) {
+                        victim = candidate;
+                    }
+                }
+            } else {
+                final Iterator<Entry> eldest = entries.values().iterator();
+                victim = eldest.next();
+                if (victim == keep) {
+                    victim = eldest.next();
+                }
+            }
+            entries.remove(victim.name);
+            size.addAndGet(-victim.size);
+            Files.deleteIfExists(metaFile(victim.name));
+            Files.deleteIfExists(dataFile(victim.name));
+            Metrics.globalRegistry.counter("s3.cache.disk.evictions").increment();
+        }
+    }
+
+    private void link(final Entry entry, final Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, dataFile(entry.name));
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            // Another file system, or links not allowed
+            Files.copy(dataFile(entry.name), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Rebuild the index from the meta files, oldest first so that the recency order survives a restart.
+     */
+    private void rebuild() throws IOException {
+        final List<Path> metas = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(TEMP)) {
+                    Files.deleteIfExists(file);
+                } else if (fileName.endsWith(META)) {
+                    metas.add(file);
+                }
+            }
+        }
+        metas.sort(Comparator.comparingLong(DiskObjectCache::lastModified));
+        for (final Path meta : metas) {
+            final String fileName = meta.getFileName().toString();
+            final String name = fileName.substring(0, fileName.length() - META.length());
+            final Entry entry = readMeta(name, meta);
+            if (entry == null || !Files.isRegularFile(dataFile(name)) || Files.size(dataFile(name)) != entry.size) {
+                Files.deleteIfExists(meta);
+                Files.deleteIfExists(dataFile(name));
+                continue;
+            }
+            entries.put(name, entry);
+            size.addAndGet(entry.size);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DATA)) {
+            for (final Path data : files) {
+                final String fileName = data.getFileName().toString();
+                if (!entries.containsKey(fileName.substring(0, fileName.length() - DATA.length()))) {
+                    Files.deleteIfExists(data);
+                }
+            }
+        }
+        evict(null);
+        this.getlogger().info(String.format("%s rebuild: %d objects, %d bytes in %s", CLASS_NAME, entries.size(),
+                size.get(), directory));
+    }
+
+    private Entry readMeta(final String name, final Path meta) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            return new Entry(name, in.readUTF(), in.readUTF(), in.readUTF(), in.readLong());
+        } catch (IOException e) {
+            this.getlogger().warn(String.format("%s readMeta: Dropping %s: %s", CLASS_NAME, meta, e));
+            return null;
+        }
+    }
+
+    private static long lastModified(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path dataFile(final String name) {
+        return directory.resolve(name + DATA);
+    }
+
+    private Path metaFile(final String name) {
+        return directory.resolve(name + META);
+    }
+
+    private static String name(final String bucket, final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((bucket + "\n" + key).getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final String bucket;
+        private final String key;
+        private final String eTag;
+        private final long size;
+        private long hits;
+
+        private Entry(final String name, final String bucket, final String key, final String eTag, final long size) {
+            this.name = name;
+            this.bucket = bucket;
+            this.key = key;
+            this.eTag = eTag;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(DiskObjectCache.class);
+    }
+}
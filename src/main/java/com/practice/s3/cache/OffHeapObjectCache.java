@@ -0,0 +1,377 @@
+package com.practice.s3.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link OffHeapObjectCache} keeps the content of small, often read objects in direct buffers, outside of the
+ * heap, so that hot configuration and lookup files are served from memory without adding to the garbage
+ * collector's work.
+ * <p>
+ * Every environment has its own partition with its own byte limit, so one environment cannot push the files of
+ * another out. A partition follows W-TinyLFU: new entries go to a small LRU window (1% of the partition); an
+ * entry leaving the window only enters the main area, a segmented LRU with probation and protected segments, if
+ * it has been requested more often than the entry it would push out. The request frequencies come from a
+ * count-min sketch whose counters are halved periodically so that old popularity fades.
+ * <p>
+ * An entry carries the ETag of its content and the time it was last validated. Within the staleness window it is
+ * served as it is; after that the caller revalidates it with a conditional GET and reports the outcome with
+ * {@link #validated(Entry)} or a new {@link #put}. A put carries the {@link #generation()} taken before its GET and
+ * is dropped if an object was invalidated since, so content read before a write never outlives it.
+ * <p>
+ * Metrics: {@code s3.cache.memory.requests} tagged {@code result} hit, stale or miss, {@code s3.cache.memory.evictions},
+ * {@code s3.cache.memory.rejections} and the {@code s3.cache.memory.size} gauge tagged {@code env}.
+ */
+public class OffHeapObjectCache {
+    private static final int MAX_TOO_LARGE = 10000;
+
+    private final long staleAfterMillis;
+    private final long maxObjectSize;
+    private final ToLongFunction<String> limits;
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final RecentKeys tooLarge = new RecentKeys(MAX_TOO_LARGE);
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param staleAfterMillis How long an entry is served without revalidation
+     * @param maxObjectSize    The largest object that is cached
+     * @param limits           The byte limit of the partition of an environment
+     */
+    public OffHeapObjectCache(final long staleAfterMillis, final long maxObjectSize,
+                              final ToLongFunction<String> limits) {
+        this.staleAfterMillis = staleAfterMillis;
+        this.maxObjectSize = maxObjectSize;
+        this.limits = limits;
+    }
+
+    public boolean isCacheable(final long size) {
+        return size <= maxObjectSize;
+    }
+
+    /**
+     * @return The entry of the object, or {@code null} if it is not cached
+     */
+    public Entry get(final String env, final String bucket, final String key) {
+        final Entry entry = partition(env).get(bucket + "/" + key);
+        Metrics.globalRegistry.counter("s3.cache.memory.requests", "result",
+                entry == null ? "miss" : entry.isFresh() ? "hit" : "stale").increment();
+        return entry;
+    }
+
+    /**
+     * @return The count of invalidations so far, to take before the GET whose content is {@link #put}
+     */
+    public long generation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Cache the content of an object, replacing what was cached for it, unless an object was invalidated since
+     * {@code generation} was taken.
+     */
+    public void put(final String env, final String bucket, final String key, final String eTag,
+                    final byte[] content, final long generation) {
+        if (content.length > maxObjectSize || invalidations.get() != generation) {
+            return;
+        }
+        final String name = bucket + "/" + key;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        final Partition partition = partition(env);
+        partition.put(new Entry(name, eTag, buffer.asReadOnlyBuffer()));
+        // An invalidation between the check and the put drops what was just put
+        if (invalidations.get() != generation) {
+            partition.remove(name);
+        }
+    }
+
+    /**
+     * A conditional GET found the entry unchanged.
+     */
+    public void validated(final Entry entry) {
+        entry.validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Drop an object from every partition, after this service wrote or deleted it.
+     */
+    public void invalidate(final String bucket, final String key) {
+        final String name = bucket + "/" + key;
+        invalidations.incrementAndGet();
+        tooLarge.remove(name);
+        for (final Partition partition : partitions.values()) {
+            partition.remove(name);
+        }
+    }
+
+    /**
+     * Remember an object found too large, so that its next reads skip the cache without asking S3 for its size.
+     */
+    public void markTooLarge(final String bucket, final String key) {
+        tooLarge.add(bucket + "/" + key);
+    }
+
+    public boolean isTooLarge(final String bucket, final String key) {
+        return tooLarge.contains(bucket + "/" + key);
+    }
+
+    private Partition partition(final String env) {
+        return partitions.computeIfAbsent(env, name -> new Partition(name, limits.applyAsLong(name)));
+    }
+
+    /**
+     * Cached content. The buffer is shared and must not be modified; read it through {@link #getContent()}.
+     */
+    public final class Entry {
+        private final String name;
+        private final String eTag;
+        private final ByteBuffer content;
+        private volatile long validatedAt;
+
+        private Entry(final String name, final String eTag, final ByteBuffer content) {
+            this.name = name;
+            this.eTag = eTag;
+            this.content = content;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return A view of the content with its own position
+         */
+        public ByteBuffer getContent() {
+            return content.duplicate();
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() - validatedAt < staleAfterMillis;
+        }
+
+        private long size() {
+            return content.capacity();
+        }
+    }
+
+    /**
+     * The W-TinyLFU partition of one environment. The segments are in LRU order, least recent first.
+     */
+    private static final class Partition {
+        private final long windowMax;
+        private final long mainMax;
+        private final long protectedMax;
+        private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+        private final FrequencySketch sketch;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicLong size = new AtomicLong();
+        private final String env;
+        private long windowBytes;
+        private long probationBytes;
+        private long protectedBytes;
+
+        private Partition(final String env, final long maxBytes) {
+            this.env = env;
+            this.windowMax = Math.max(1, maxBytes / 100);
+            this.mainMax = Math.max(0, maxBytes - windowMax);
+            this.protectedMax = mainMax * 4 / 5;
+            this.sketch = new FrequencySketch(maxBytes);
+            Gauge.builder("s3.cache.memory.size", size, AtomicLong::get).tag("env", env)
+                    .register(Metrics.globalRegistry);
+        }
+
+        private Entry get(final String name) {
+            lock.lock();
+            try {
+                sketch.increment(name);
+                Entry entry = window.remove(name);
+                if (entry != null) {
+                    window.put(name, entry);
+                    return entry;
+                }
+                entry = protectedSegment.remove(name);
+                if (entry != null) {
+                    protectedSegment.put(name, entry);
+                    return entry;
+                }
+                entry = probation.remove(name);
+                if (entry != null) {
+                    probationBytes -= entry.size();
+                    protectedSegment.put(name, entry);
+                    protectedBytes += entry.size();
+                    demoteProtected();
+                }
+                return entry;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(final Entry entry) {
+            if (entry.size() > mainMax) {
+                return;
+            }
+            lock.lock();
+            try {
+                sketch.increment(entry.name);
+                removeLocked(entry.name);
+                window.put(entry.name, entry);
+                windowBytes += entry.size();
+                while (windowBytes > windowMax && !window.isEmpty()) {
+                    final Iterator<Entry> eldest = window.values().iterator();
+                    final Entry candidate = eldest.next();
+                    eldest.remove();
+                    windowBytes -= candidate.size();
+                    admit(candidate);
+                }
+                size.set(windowBytes + probationBytes + protectedBytes);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void remove(final String name) {
+            lock.lock();
+            try {
+                removeLocked(name);
+                size.set(windowBytes + probationBytes + protectedBytes);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeLocked(final String name) {
+            Entry entry = window.remove(name);
+            if (entry != null) {
+                windowBytes -= entry.size();
+                return;
+            }
+            entry = probation.remove(name);
+            if (entry != null) {
+                probationBytes -= entry.size();
+                return;
+            }
+            entry = protectedSegment.remove(name);
+            if (entry != null) {
+                protectedBytes -= entry.size();
+            }
+        }
+
+        /**
+         * Let an entry leaving the window into the main area if it is requested more often than every entry it
+         * pushes out.
+         */
+        private void admit(final Entry candidate) {
+            final int candidateFrequency = sketch.frequency(candidate.name);
+            while (probationBytes + protectedBytes + candidate.size() > mainMax) {
+                final LinkedHashMap<String, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+                final Iterator<Entry> eldest = segment.values().iterator();
+                final Entry victim = eldest.next();
+                if (candidateFrequency <= sketch.frequency(victim.name)) {
+                    Metrics.globalRegistry.counter("s3.cache.memory.rejections", "env", env).increment();
+                    return;
+                }
+                eldest.remove();
+                if (segment == probation) {
+                    probationBytes -= victim.size();
+                } else {
+                    protectedBytes -= victim.size();
+                }
+                Metrics.globalRegistry.counter("s3.cache.memory.evictions", "env", env).increment();
+            }
+            probation.put(candidate.name, candidate);
+            probationBytes += candidate.size();
+        }
+
+        /**
+         * Move the least recent protected entries back to probation while the protected segment is too large.
+         */
+        private void demoteProtected() {
+            while (protectedBytes > protectedMax && !protectedSegment.isEmpty()) {
+                final Iterator<Entry> eldest = protectedSegment.values().iterator();
+                final Entry demoted = eldest.next();
+                eldest.remove();
+                protectedBytes -= demoted.size();
+                probation.put(demoted.name, demoted);
+                probationBytes += demoted.size();
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of the request frequencies: four rows of counters capped at 15. Once the number of
+     * increments reaches ten times the width of a row all counters are halved.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        /**
+         * @param maxBytes The partition size, from which the number of entries is estimated at 4 KB each
+         */
+        private FrequencySketch(final long maxBytes) {
+            final int width = Integer.highestOneBit((int) Math.min(1 << 20, Math.max(1024, maxBytes / 4096)) * 2 - 1);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new byte[width];
+            }
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        private void increment(final String name) {
+            final int hash = spread(name.hashCode());
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                final int index = index(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (final byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] = (byte) (row[j] >>> 1);
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        private int frequency(final String name) {
+            final int hash = spread(name.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                frequency = Math.min(frequency, rows[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(final int hash, final int row) {
+            final int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(final int hash) {
+            final int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 15);
+        }
+    }
+}
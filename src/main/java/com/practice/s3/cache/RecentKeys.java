@@ -0,0 +1,50 @@
+package com.practice.s3.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded set of keys that forgets the least recently used ones. Guarded by a {@link ReentrantLock} rather than a
+ * monitor so that a virtual thread waiting for it does not pin its carrier thread.
+ */
+final class RecentKeys {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Boolean> keys;
+
+    RecentKeys(final int maxKeys) {
+        this.keys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    void add(final String key) {
+        lock.lock();
+        try {
+            keys.put(key, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean contains(final String key) {
+        lock.lock();
+        try {
+            return keys.get(key) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(final String key) {
+        lock.lock();
+        try {
+            keys.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.practice.s3.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The content of a downloaded object that several readers share: a buffer for small objects, on the heap or in the
+ * memory cache, or a temporary file for large ones. Every reader owns one reference and gives it back by closing the stream it opened, or by calling
+ * {@link #release()} if it never opens one. The file is deleted when the last reference is gone.
+ */
+public final class SharedContent {
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final Path file;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SharedContent(final byte[] bytes, final ByteBuffer buffer, final Path file) {
+        this.bytes = bytes;
+        this.buffer = buffer;
+        this.file = file;
+    }
+
+    public static SharedContent ofBytes(final byte[] bytes) {
+        return new SharedContent(bytes, null, null);
+    }
+
+    /**
+     * @param buffer Content that is not modified, read by every reader from its own duplicate
+     */
+    public static SharedContent ofBuffer(final ByteBuffer buffer) {
+        return new SharedContent(null, buffer, null);
+    }
+
+    /**
+     * @param file A temporary file, deleted with the last reference
+     */
+    public static SharedContent ofFile(final Path file) {
+        return new SharedContent(null, null, file);
+    }
+
+    /**
+     * Add references so that {@code participants} readers own one each, the one held since creation included.
+     */
+    public void share(final int participants) {
+        references.addAndGet(participants - 1);
+    }
+
+    public boolean isFile() {
+        return file != null;
+    }
+
+    /**
+     * Open the content for one reader. Closing the stream releases the reader's reference.
+     */
+    public InputStream open() throws IOException {
+        if (buffer != null) {
+            release();
+            return new BufferInputStream(buffer.duplicate());
+        }
+        if (file == null) {
+            release();
+            return new ByteArrayInputStream(bytes);
+        }
+        final InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+        final AtomicBoolean closed = new AtomicBoolean();
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (closed.compareAndSet(false, true)) {
+                        release();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Give a reference back without reading.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                this.getlogger().error(String.format("SharedContent: cannot delete %s: %s", file, e));
+            }
+        }
+    }
+
+    /**
+     * Reads a buffer without copying it to the heap first.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] target, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(SharedContent.class);
+    }
+}
@@ -0,0 +1,122 @@
+package com.practice.s3.cache;
+
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * {@link SingleFlight} collapses concurrent identical calls into one. The first caller of a key runs the call; the
+ * callers that arrive while it runs wait for it and get the same result, or the same exception. A call that
+ * arrives after the result was handed out runs again. A write calls {@link #detach} for the keys it changes, so
+ * that a call arriving after the write runs again instead of joining one that may have read the old state.
+ * <p>
+ * Results that hold resources, such as a {@link SharedContent}, are reference counted: every participant owns one
+ * reference. Before the result is handed out the share function is called with the number of participants, and a
+ * participant that gives up waiting has its reference released for it once the result arrives.
+ * <p>
+ * Callers that joined a call in flight are counted in {@code s3.client.singleflight.shared}, tagged with the name.
+ *
+ * @param <K> The key of a call
+ * @param <V> The result of a call
+ */
+public class SingleFlight<K, V> {
+    private final String name;
+    private final ObjIntConsumer<V> share;
+    private final Consumer<V> release;
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * A call that may throw.
+     */
+    @FunctionalInterface
+    public interface Call<V> {
+        V call() throws Exception;
+    }
+
+    /**
+     * For results that can be handed to any number of callers as they are.
+     */
+    public SingleFlight(final String name) {
+        this(name, (value, participants) -> { }, value -> { });
+    }
+
+    /**
+     * @param name    Tags the metrics
+     * @param share   Called with a result of the call and the number of participants, including the caller that ran
+     *                the call, before the result is handed out. The result already holds one reference.
+     * @param release Releases the reference of a participant that gave up waiting
+     */
+    public SingleFlight(final String name, final ObjIntConsumer<V> share, final Consumer<V> release) {
+        this.name = name;
+        this.share = share;
+        this.release = release;
+    }
+
+    public V execute(final K key, final Call<V> call) throws Exception {
+        final boolean[] leader = {false};
+        final Flight<V> flight = flights.compute(key, (k, existing) -> {
+            final Flight<V> joined = existing == null ? new Flight<>() : existing;
+            leader[0] = existing == null;
+            joined.participants.incrementAndGet();
+            return joined;
+        });
+        if (!leader[0]) {
+            Metrics.globalRegistry.counter("s3.client.singleflight.shared", "name", name).increment();
+            return await(flight);
+        }
+        final V value;
+        try {
+            value = call.call();
+        } catch (Exception | Error e) {
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        // Once the flight is out of the map, detached or not, nobody can join it any more
+        flights.remove(key, flight);
+        final int participants = flight.participants.get();
+        if (value != null && participants > 1) {
+            share.accept(value, participants);
+        }
+        flight.result.complete(value);
+        return value;
+    }
+
+    /**
+     * Let the calls in flight for the matching keys finish for the callers that already joined them, but make later
+     * callers start a new call.
+     */
+    public void detach(final Predicate<K> keys) {
+        flights.keySet().removeIf(keys);
+    }
+
+    private V await(final Flight<V> flight) throws Exception {
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            flight.result.thenAccept(value -> {
+                if (value != null) {
+                    release.accept(value);
+                }
+            });
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final AtomicInteger participants = new AtomicInteger();
+    }
+}
@@ -0,0 +1,235 @@
+package com.practice.s3.client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link S3CircuitBreaker} stops sending requests to S3 for an environment while S3 is failing for it, so that
+ * callers fail fast instead of holding their threads through timeouts and retries.
+ * <ul>
+ *     <li>{@code CLOSED}: requests pass. When, over the window, at least the minimum number of requests completed
+ *     and the share of them that failed with a matching error reaches the failure rate, the breaker opens.</li>
+ *     <li>{@code OPEN}: requests are refused with an {@link SdkClientException} until the open duration is over.</li>
+ *     <li>{@code HALF_OPEN}: one probe request passes, the others are refused. The breaker closes if the probe does
+ *     not fail with a matching error and opens again otherwise.</li>
+ * </ul>
+ * A matching error is a 503 or 504 from S3, or an error whose message contains one of the configured fragments
+ * ({@code gist.aws.exceptions.503} and {@code gist.aws.exceptions.504}) or whose class is named by one of them.
+ * Requests and failures are counted once per call, after the SDK retries.
+ * <p>
+ * There is one breaker per environment, shared by the clients built for it over time. Its state is exported as the
+ * {@code s3.client.circuit.state} gauge (0 closed, 1 half open, 2 open).
+ */
+public class S3CircuitBreaker extends RequestHandler2 {
+    private static final String CLASS_NAME = S3CircuitBreaker.class.getSimpleName();
+    private static final HandlerContextKey<Boolean> PROBE = new HandlerContextKey<>("S3CircuitBreakerProbe");
+    private static final Map<String, S3CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String env;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private volatile Settings settings;
+    private volatile WindowedCounter window;
+    private volatile long stateChangedAt;
+
+    /**
+     * @param env      The environment of the client, used as the {@code env} tag
+     * @param settings The thresholds. They replace those of an existing breaker of the environment.
+     * @return The breaker of the environment
+     */
+    public static S3CircuitBreaker forEnvironment(final String env, final Settings settings) {
+        final S3CircuitBreaker breaker = BREAKERS.computeIfAbsent(env, name -> new S3CircuitBreaker(name, settings));
+        breaker.update(settings);
+        return breaker;
+    }
+
+    /**
+     * @return The state of every breaker by environment
+     */
+    public static Map<String, State> getStates() {
+        final Map<String, State> states = new TreeMap<>();
+        for (final S3CircuitBreaker breaker : BREAKERS.values()) {
+            states.put(breaker.env, breaker.getState());
+        }
+        return states;
+    }
+
+    private S3CircuitBreaker(final String env, final Settings settings) {
+        this.env = env;
+        this.settings = settings;
+        this.window = new WindowedCounter(settings.windowMillis);
+        Gauge.builder("s3.client.circuit.state", state, s -> s.get().ordinal()).tag("env", env)
+                .register(Metrics.globalRegistry);
+    }
+
+    private void update(final Settings next) {
+        if (next.windowMillis != settings.windowMillis) {
+            window = new WindowedCounter(next.windowMillis);
+        }
+        settings = next;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return {@code false} while the breaker refuses requests, so that retries stop as well
+     */
+    public boolean isCallPermitted() {
+        return !settings.enabled || state.get() == State.CLOSED;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(final AmazonWebServiceRequest request) {
+        final Settings current = settings;
+        if (!current.enabled) {
+            return request;
+        }
+        final State observed = state.get();
+        if (observed == State.CLOSED) {
+            return request;
+        }
+        final long now = System.currentTimeMillis();
+        // A half open breaker whose probe never reported back lets another probe through after the open duration
+        if (now - stateChangedAt >= current.openMillis && state.compareAndSet(observed, State.HALF_OPEN)) {
+            stateChangedAt = now;
+            this.getlogger().info(String.format("%s beforeExecution: Circuit of %s is half open, sending a probe",
+                    CLASS_NAME, env));
+            request.addHandlerContext(PROBE, Boolean.TRUE);
+            return request;
+        }
+        throw new SdkClientException(String.format("S3 circuit of environment %s is %s, request refused", env,
+                observed == State.OPEN ? "open" : "half open"));
+    }
+
+    @Override
+    public void afterResponse(final Request<?> request, final Response<?> response) {
+        record(request, false);
+    }
+
+    @Override
+    public void afterError(final Request<?> request, final Response<?> response, final Exception e) {
+        record(request, settings.matches(e));
+    }
+
+    private void record(final Request<?> request, final boolean failure) {
+        final Settings current = settings;
+        if (!current.enabled) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getHandlerContext(PROBE))) {
+            transition(State.HALF_OPEN, failure ? State.OPEN : State.CLOSED);
+            return;
+        }
+        window.add(1, failure ? 1 : 0);
+        if (failure && state.get() == State.CLOSED) {
+            final long[] sums = window.sums();
+            if (sums[0] >= current.minimumRequests && sums[1] * 100 >= sums[0] * current.failureRatePercent) {
+                transition(State.CLOSED, State.OPEN);
+            }
+        }
+    }
+
+    private void transition(final State from, final State to) {
+        if (state.compareAndSet(from, to)) {
+            stateChangedAt = System.currentTimeMillis();
+            window.reset();
+            this.getlogger().warn(String.format("%s transition: Circuit of %s went from %s to %s", CLASS_NAME, env,
+                    from, to));
+        }
+    }
+
+    /**
+     * The thresholds of a breaker.
+     */
+    public static final class Settings {
+        private final boolean enabled;
+        private final int failureRatePercent;
+        private final int minimumRequests;
+        private final long windowMillis;
+        private final long openMillis;
+        private final List<String> errors;
+
+        /**
+         * @param enabled            {@code false} lets every request pass
+         * @param failureRatePercent The share of failed requests in the window that opens the breaker
+         * @param minimumRequests    The requests the window needs before the breaker can open
+         * @param windowMillis       The length of the window
+         * @param openMillis         How long the breaker stays open before it sends a probe
+         * @param errors             Message fragments or class names of the errors that count as failures
+         */
+        public Settings(final boolean enabled, final int failureRatePercent, final int minimumRequests,
+                        final long windowMillis, final long openMillis, final String[]... errors) {
+            this.enabled = enabled;
+            this.failureRatePercent = failureRatePercent;
+            this.minimumRequests = minimumRequests;
+            this.windowMillis = windowMillis;
+            this.openMillis = openMillis;
+            final List<String> fragments = new ArrayList<>();
+            for (final String[] group : errors) {
+                if (group != null) {
+                    for (final String error : group) {
+                        if (error != null && !error.trim().isEmpty()) {
+                            fragments.add(error.trim());
+                        }
+                    }
+                }
+            }
+            this.errors = Collections.unmodifiableList(fragments);
+        }
+
+        boolean matches(final Exception e) {
+            if (e instanceof AmazonServiceException) {
+                final int status = ((AmazonServiceException) e).getStatusCode();
+                if (status == 503 || status == 504) {
+                    return true;
+                }
+            }
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                final String message = cause.getMessage();
+                for (final String error : errors) {
+                    if (cause.getClass().getSimpleName().equals(error)
+                            || (message != null && message.contains(error))) {
+                        return true;
+                    }
+                }
+                if (cause.getCause() == cause) {
+                    break;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3CircuitBreaker.class);
+    }
+}
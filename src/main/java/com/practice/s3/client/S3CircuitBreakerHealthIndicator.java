@@ -0,0 +1,22 @@
+package com.practice.s3.client;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Reports the state of the S3 circuit breaker of every environment under {@code /actuator/health}. An open breaker
+ * does not take the instance down: the other environments and the endpoints that do not reach S3 still work, and a
+ * restart would not close the breaker any sooner.
+ */
+@Component("s3CircuitBreakers")
+public class S3CircuitBreakerHealthIndicator implements HealthIndicator {
+
+    @Override
+    public Health health() {
+        final Map<String, S3CircuitBreaker.State> states = S3CircuitBreaker.getStates();
+        return Health.up().withDetails(states).build();
+    }
+}
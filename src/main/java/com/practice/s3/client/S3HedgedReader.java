@@ -0,0 +1,179 @@
+package com.practice.s3.client;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.SdkClientException;
+import com.practicecom.practice.utill.VirtualThreads;
+
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link S3HedgedReader} cuts the tail latency of small reads. A request that has not answered within the 95th
+ * percentile of the recent latencies of its operation is sent a second time, and whichever answers first is used.
+ * The other one is cancelled, and its result is discarded if it still arrives.
+ * <p>
+ * Hedges are capped by a budget, a percentage of the requests over the last ten seconds, so that a slow S3 does not
+ * get twice the load. The delay never goes below the minimum delay, and is 100 ms until twenty latencies of the
+ * operation are known.
+ * <p>
+ * Hedges sent are counted in {@code s3.client.hedge.sent} and hedges that answered first in
+ * {@code s3.client.hedge.won}, both tagged with the operation.
+ */
+public class S3HedgedReader {
+    private static final long BUDGET_WINDOW_MILLIS = 10000;
+    private static final long INITIAL_DELAY_MILLIS = 100;
+
+    private final long minimumDelayMillis;
+    private final int budgetPercent;
+    private final WindowedCounter budget = new WindowedCounter(BUDGET_WINDOW_MILLIS);
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * @param minimumDelayMillis The shortest wait before a hedge is sent
+     * @param budgetPercent      Hedges allowed as a percentage of the recent requests
+     * @param virtualThreads     Run the attempts on virtual threads, if the JDK has them
+     */
+    public S3HedgedReader(final long minimumDelayMillis, final int budgetPercent, final boolean virtualThreads) {
+        this.minimumDelayMillis = Math.max(1, minimumDelayMillis);
+        this.budgetPercent = budgetPercent;
+        this.executor = virtualThreads && VirtualThreads.isSupported()
+                ? VirtualThreads.newThreadPerTaskExecutor("s3-hedge-")
+                : Executors.newCachedThreadPool(r -> {
+                    final Thread thread = new Thread(r, "s3-hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Run a request, hedged if it is slow.
+     *
+     * @param operation The operation, used to keep the latencies apart and to tag the metrics
+     * @param request   The request. It runs on a pool thread and must be safe to send twice.
+     * @param discard   Releases the result of an attempt that lost the race, for example by aborting its stream
+     * @return The result of the attempt that answered first
+     */
+    public <T> T execute(final String operation, final Supplier<T> request, final Consumer<T> discard) {
+        final LatencyTracker tracker = latencies.computeIfAbsent(operation, o -> new LatencyTracker());
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger attempts = new AtomicInteger(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Future<?>> running = new CopyOnWriteArrayList<>();
+        budget.add(1, 0);
+        running.add(executor.submit(() -> attempt(operation, tracker, request, discard, false, result, attempts, failures)));
+        try {
+            try {
+                return result.get(tracker.getDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (!result.isDone() && tryHedge()) {
+                    attempts.incrementAndGet();
+                    Metrics.globalRegistry.counter("s3.client.hedge.sent", "operation", operation).increment();
+                    running.add(executor.submit(
+                            () -> attempt(operation, tracker, request, discard, true, result, attempts, failures)));
+                }
+                return result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for " + operation, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SdkClientException(operation + " failed", e.getCause());
+        } finally {
+            for (final Future<?> attempt : running) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    private <T> void attempt(final String operation, final LatencyTracker tracker, final Supplier<T> request,
+                             final Consumer<T> discard, final boolean hedge, final CompletableFuture<T> result,
+                             final AtomicInteger attempts, final AtomicInteger failures) {
+        final long start = System.nanoTime();
+        try {
+            final T value = request.get();
+            tracker.record(System.nanoTime() - start);
+            if (!result.complete(value)) {
+                discard.accept(value);
+            } else if (hedge) {
+                Metrics.globalRegistry.counter("s3.client.hedge.won", "operation", operation).increment();
+            }
+        } catch (RuntimeException e) {
+            if (failures.incrementAndGet() >= attempts.get()) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private boolean tryHedge() {
+        final long[] sums = budget.sums();
+        if (sums[1] * 100 >= sums[0] * budgetPercent) {
+            return false;
+        }
+        budget.add(0, 1);
+        return true;
+    }
+
+    /**
+     * The 95th percentile of the last latencies of an operation, recomputed at most once per second.
+     */
+    private final class LatencyTracker {
+        private static final int SAMPLES = 512;
+        private static final int MINIMUM_SAMPLES = 20;
+
+        private final long[] samples = new long[SAMPLES];
+        private final ReentrantLock lock = new ReentrantLock();
+        private int count;
+        private int next;
+        private volatile long delayMillis = INITIAL_DELAY_MILLIS;
+        private volatile long computedAt;
+
+        private void record(final long nanos) {
+            lock.lock();
+            try {
+                samples[next] = nanos;
+                next = (next + 1) % SAMPLES;
+                count = Math.min(count + 1, SAMPLES);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long getDelayMillis() {
+            final long now = System.currentTimeMillis();
+            if (now - computedAt >= 1000 && lock.tryLock()) {
+                try {
+                    computedAt = now;
+                    if (count >= MINIMUM_SAMPLES) {
+                        final long[] sorted = Arrays.copyOf(samples, count);
+                        Arrays.sort(sorted);
+                        final long p95 = TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(count * 0.95) - 1]);
+                        delayMillis = Math.max(minimumDelayMillis, p95);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return delayMillis;
+        }
+    }
+}
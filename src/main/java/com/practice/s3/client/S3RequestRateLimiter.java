@@ -0,0 +1,296 @@
+package com.practice.s3.client;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AbstractPutObjectRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteVersionRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link S3RequestRateLimiter} keeps the requests sent to one prefix of a bucket under the rates S3 supports per
+ * prefix, so that bulk moves, deletes and polling do not run into 503 SlowDown. It is a request handler shared by
+ * all the S3 clients, because the limits belong to the bucket and not to the client.
+ * <p>
+ * Requests are keyed by bucket and top level prefix (the key up to its first {@code /}; keys without one share the
+ * root of the bucket) and split in reads (GET, HEAD, LIST) and writes (PUT, COPY, POST, DELETE); every key and kind
+ * has its own token bucket. A request that finds no token waits for one on the calling thread instead of failing. A
+ * multi object delete takes one token per key. Requests the limiter cannot key, such as bucket operations, pass untouched.
+ * <p>
+ * The rate of a bucket adapts: every SlowDown halves it, at most once per second and not below the minimum rate,
+ * and successful requests raise it again by the recovery rate per second up to the configured rate. Waits are
+ * recorded in {@code s3.client.ratelimit.wait} and SlowDown responses counted in {@code s3.client.ratelimit.slowdown}.
+ */
+public class S3RequestRateLimiter extends RequestHandler2 {
+    private static final int MAX_BUCKETS = 10000;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double readRate;
+    private final double writeRate;
+    private final double minimumRate;
+    private final double recoveryRate;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param readRate     GET, HEAD and LIST requests per second and prefix
+     * @param writeRate    PUT, COPY, POST and DELETE requests per second and prefix
+     * @param minimumRate  The rate a SlowDown never lowers a bucket below
+     * @param recoveryRate How much the rate of a lowered bucket grows per second while requests succeed
+     */
+    public S3RequestRateLimiter(final double readRate, final double writeRate, final double minimumRate,
+                                final double recoveryRate) {
+        this.readRate = readRate;
+        this.writeRate = writeRate;
+        this.minimumRate = Math.min(minimumRate, Math.min(readRate, writeRate));
+        this.recoveryRate = recoveryRate;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(final AmazonWebServiceRequest request) {
+        final TokenBucket bucket = bucketOf(request);
+        if (bucket != null) {
+            final int permits = request instanceof DeleteObjectsRequest
+                    ? Math.max(1, ((DeleteObjectsRequest) request).getKeys().size()) : 1;
+            final long waitNanos = bucket.reserve(permits);
+            if (waitNanos > 0) {
+                Metrics.globalRegistry.timer("s3.client.ratelimit.wait", "kind", bucket.kind)
+                        .record(waitNanos, TimeUnit.NANOSECONDS);
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Interrupted while waiting for the S3 request rate limit", e);
+                }
+            }
+        }
+        return request;
+    }
+
+    @Override
+    public void afterAttempt(final HandlerAfterAttemptContext context) {
+        final Exception exception = context.getException();
+        if (exception instanceof AmazonServiceException
+                && "SlowDown".equals(((AmazonServiceException) exception).getErrorCode())) {
+            final TokenBucket bucket = bucketOf(context.getRequest().getOriginalRequest());
+            if (bucket != null) {
+                Metrics.globalRegistry.counter("s3.client.ratelimit.slowdown", "kind", bucket.kind).increment();
+                bucket.decrease();
+            }
+        }
+    }
+
+    @Override
+    public void afterResponse(final Request<?> request, final Response<?> response) {
+        final TokenBucket bucket = bucketOf(request.getOriginalRequest());
+        if (bucket != null) {
+            bucket.increase();
+        }
+    }
+
+    /**
+     * @return The token bucket the request draws from, or {@code null} if it is not limited
+     */
+    private TokenBucket bucketOf(final AmazonWebServiceRequest request) {
+        final String bucketName;
+        final String key;
+        final boolean write;
+        if (request instanceof GetObjectRequest) {
+            bucketName = ((GetObjectRequest) request).getBucketName();
+            key = ((GetObjectRequest) request).getKey();
+            write = false;
+        } else if (request instanceof GetObjectMetadataRequest) {
+            bucketName = ((GetObjectMetadataRequest) request).getBucketName();
+            key = ((GetObjectMetadataRequest) request).getKey();
+            write = false;
+        } else if (request instanceof ListObjectsRequest) {
+            bucketName = ((ListObjectsRequest) request).getBucketName();
+            key = ((ListObjectsRequest) request).getPrefix();
+            write = false;
+        } else if (request instanceof ListObjectsV2Request) {
+            bucketName = ((ListObjectsV2Request) request).getBucketName();
+            key = ((ListObjectsV2Request) request).getPrefix();
+            write = false;
+        } else if (request instanceof ListVersionsRequest) {
+            bucketName = ((ListVersionsRequest) request).getBucketName();
+            key = ((ListVersionsRequest) request).getPrefix();
+            write = false;
+        } else if (request instanceof AbstractPutObjectRequest) {
+            bucketName = ((AbstractPutObjectRequest) request).getBucketName();
+            key = ((AbstractPutObjectRequest) request).getKey();
+            write = true;
+        } else if (request instanceof CopyObjectRequest) {
+            bucketName = ((CopyObjectRequest) request).getDestinationBucketName();
+            key = ((CopyObjectRequest) request).getDestinationKey();
+            write = true;
+        } else if (request instanceof CopyPartRequest) {
+            bucketName = ((CopyPartRequest) request).getDestinationBucketName();
+            key = ((CopyPartRequest) request).getDestinationKey();
+            write = true;
+        } else if (request instanceof UploadPartRequest) {
+            bucketName = ((UploadPartRequest) request).getBucketName();
+            key = ((UploadPartRequest) request).getKey();
+            write = true;
+        } else if (request instanceof InitiateMultipartUploadRequest) {
+            bucketName = ((InitiateMultipartUploadRequest) request).getBucketName();
+            key = ((InitiateMultipartUploadRequest) request).getKey();
+            write = true;
+        } else if (request instanceof CompleteMultipartUploadRequest) {
+            bucketName = ((CompleteMultipartUploadRequest) request).getBucketName();
+            key = ((CompleteMultipartUploadRequest) request).getKey();
+            write = true;
+        } else if (request instanceof AbortMultipartUploadRequest) {
+            bucketName = ((AbortMultipartUploadRequest) request).getBucketName();
+            key = ((AbortMultipartUploadRequest) request).getKey();
+            write = true;
+        } else if (request instanceof DeleteObjectRequest) {
+            bucketName = ((DeleteObjectRequest) request).getBucketName();
+            key = ((DeleteObjectRequest) request).getKey();
+            write = true;
+        } else if (request instanceof DeleteVersionRequest) {
+            bucketName = ((DeleteVersionRequest) request).getBucketName();
+            key = ((DeleteVersionRequest) request).getKey();
+            write = true;
+        } else if (request instanceof DeleteObjectsRequest) {
+            final DeleteObjectsRequest delete = (DeleteObjectsRequest) request;
+            bucketName = delete.getBucketName();
+            key = delete.getKeys().isEmpty() ? "" : delete.getKeys().get(0).getKey();
+            write = true;
+        } else {
+            return null;
+        }
+        if (bucketName == null) {
+            return null;
+        }
+        final String name = (write ? "W|" : "R|") + bucketName + "|" + topLevelPrefix(key);
+        TokenBucket bucket = buckets.get(name);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) {
+                evictIdle();
+            }
+            bucket = buckets.computeIfAbsent(name,
+                    n -> new TokenBucket(write ? "write" : "read", write ? writeRate : readRate));
+        }
+        return bucket;
+    }
+
+    private static String topLevelPrefix(final String key) {
+        if (key == null) {
+            return "";
+        }
+        final int slash = key.indexOf('/');
+        return slash < 0 ? "" : key.substring(0, slash);
+    }
+
+    private void evictIdle() {
+        final long now = System.nanoTime();
+        for (final Iterator<TokenBucket> it = buckets.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastUsedNanos > IDLE_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    private final class TokenBucket {
+        private final String kind;
+        private final double maximumRate;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile double rate;
+        private double tokens;
+        private long refilledNanos;
+        private long adjustedNanos;
+        private long decreasedNanos;
+        private volatile long lastUsedNanos;
+
+        private TokenBucket(final String kind, final double maximumRate) {
+            final long now = System.nanoTime();
+            this.kind = kind;
+            this.maximumRate = maximumRate;
+            this.rate = maximumRate;
+            this.tokens = maximumRate;
+            this.refilledNanos = now;
+            this.adjustedNanos = now;
+            this.decreasedNanos = now - DECREASE_INTERVAL_NANOS;
+            this.lastUsedNanos = now;
+        }
+
+        /**
+         * Take the permits, going into debt if there are not enough tokens.
+         *
+         * @return How long the caller has to wait before its permits are covered
+         */
+        private long reserve(final int permits) {
+            lock.lock();
+            try {
+                final long now = System.nanoTime();
+                lastUsedNanos = now;
+                refill(now);
+                tokens -= permits;
+                return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void decrease() {
+            lock.lock();
+            try {
+                final long now = System.nanoTime();
+                if (now - decreasedNanos >= DECREASE_INTERVAL_NANOS) {
+                    refill(now);
+                    rate = Math.max(minimumRate, rate / 2);
+                    tokens = Math.min(tokens, 0);
+                    decreasedNanos = now;
+                    adjustedNanos = now;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void increase() {
+            if (rate >= maximumRate) {
+                return;
+            }
+            lock.lock();
+            try {
+                final long now = System.nanoTime();
+                refill(now);
+                rate = Math.min(maximumRate,
+                        rate + recoveryRate * (now - adjustedNanos) / TimeUnit.SECONDS.toNanos(1));
+                adjustedNanos = now;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(final long now) {
+            tokens = Math.min(rate, tokens + rate * (now - refilledNanos) / TimeUnit.SECONDS.toNanos(1));
+            refilledNanos = now;
+        }
+    }
+}
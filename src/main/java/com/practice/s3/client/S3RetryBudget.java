@@ -0,0 +1,82 @@
+package com.practice.s3.client;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.RequestHandler2;
+
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link S3RetryBudget} caps the retries of an environment to a share of its recent requests. While S3 is healthy
+ * the budget is never reached; during a brownout it keeps the retries from multiplying the load on S3 and the time
+ * callers wait. A minimum number of retries per window is always allowed so that a client with little traffic can
+ * still retry.
+ * <p>
+ * There is one budget per environment, shared by the clients built for it over time. Refused retries are counted
+ * in {@code s3.client.retry.refused}.
+ */
+public class S3RetryBudget extends RequestHandler2 {
+    private static final Map<String, S3RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private final String env;
+    private volatile int percent;
+    private volatile int minimumRetries;
+    private volatile long windowMillis;
+    private volatile WindowedCounter window;
+
+    /**
+     * @param env            The environment of the client, used as the {@code env} tag
+     * @param percent        Retries allowed as a percentage of the requests in the window
+     * @param minimumRetries Retries allowed in the window whatever the requests
+     * @param windowMillis   The length of the window
+     * @return The budget of the environment
+     */
+    public static S3RetryBudget forEnvironment(final String env, final int percent, final int minimumRetries,
+                                               final long windowMillis) {
+        final S3RetryBudget budget = BUDGETS.computeIfAbsent(env,
+                name -> new S3RetryBudget(name, percent, minimumRetries, windowMillis));
+        budget.update(percent, minimumRetries, windowMillis);
+        return budget;
+    }
+
+    private S3RetryBudget(final String env, final int percent, final int minimumRetries, final long windowMillis) {
+        this.env = env;
+        this.percent = percent;
+        this.minimumRetries = minimumRetries;
+        this.windowMillis = windowMillis;
+        this.window = new WindowedCounter(windowMillis);
+    }
+
+    private void update(final int percent, final int minimumRetries, final long windowMillis) {
+        if (windowMillis != this.windowMillis) {
+            this.window = new WindowedCounter(windowMillis);
+            this.windowMillis = windowMillis;
+        }
+        this.percent = percent;
+        this.minimumRetries = minimumRetries;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(final AmazonWebServiceRequest request) {
+        window.add(1, 0);
+        return request;
+    }
+
+    /**
+     * Take one retry from the budget.
+     *
+     * @return {@code false} if the budget is spent and the request must not be retried
+     */
+    public boolean tryRetry() {
+        final WindowedCounter current = window;
+        final long[] sums = current.sums();
+        if (sums[1] >= Math.max(minimumRetries, sums[0] * percent / 100)) {
+            Metrics.globalRegistry.counter("s3.client.retry.refused", "env", env).increment();
+            return false;
+        }
+        current.add(0, 1);
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.practice.s3.client;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds the retry policy of the S3 clients. The SDK decides whether an error can be retried at all; on top of
+ * that a retry needs a closed circuit breaker and a retry left in the budget of the environment. The delay between
+ * attempts is a decorrelated jitter: a random value between the base delay and three times the previous delay,
+ * capped by the maximum delay, so the retries of many callers spread out instead of arriving together.
+ */
+public final class S3RetryPolicy {
+
+    private S3RetryPolicy() {
+    }
+
+    /**
+     * @param breaker         The circuit breaker of the environment
+     * @param budget          The retry budget of the environment
+     * @param maxErrorRetry   The retries of one request at most
+     * @param baseDelayMillis The smallest delay between attempts
+     * @param maxDelayMillis  The largest delay between attempts
+     */
+    public static RetryPolicy create(final S3CircuitBreaker breaker, final S3RetryBudget budget,
+                                     final int maxErrorRetry, final long baseDelayMillis,
+                                     final long maxDelayMillis) {
+        final RetryPolicy.RetryCondition condition = (request, exception, retriesAttempted) ->
+                PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, exception, retriesAttempted)
+                        && breaker.isCallPermitted()
+                        && budget.tryRetry();
+        return new RetryPolicy(condition, new DecorrelatedJitterBackoff(baseDelayMillis, maxDelayMillis),
+                maxErrorRetry, true);
+    }
+
+    /**
+     * Decorrelated jitter backoff. The SDK retries a request on the thread that sent it, so the previous delay of
+     * the request is kept per thread and restarts with the first retry.
+     */
+    static final class DecorrelatedJitterBackoff implements RetryPolicy.BackoffStrategy {
+        private final long baseDelayMillis;
+        private final long maxDelayMillis;
+        private final ThreadLocal<long[]> previousDelay = ThreadLocal.withInitial(() -> new long[1]);
+
+        DecorrelatedJitterBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+            this.baseDelayMillis = Math.max(1, baseDelayMillis);
+            this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        }
+
+        @Override
+        public long delayBeforeNextRetry(final AmazonWebServiceRequest request, final AmazonClientException exception,
+                                         final int retriesAttempted) {
+            final long[] previous = previousDelay.get();
+            if (retriesAttempted == 0 || previous[0] < baseDelayMillis) {
+                previous[0] = baseDelayMillis;
+            }
+            final long upper = Math.min(maxDelayMillis, previous[0] * 3);
+            final long delay = upper > baseDelayMillis
+                    ? ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1)
+                    : baseDelayMillis;
+            previous[0] = delay;
+            return delay;
+        }
+    }
+}
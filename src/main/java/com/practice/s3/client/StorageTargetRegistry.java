@@ -0,0 +1,163 @@
+package com.practice.s3.client;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.practice.constants.EnvironmentContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@link StorageTargetRegistry} holds the S3 client and transfer manager of every storage target (an environment
+ * such as QA or a configured tenant bucket). A target's client is built on first use and shared afterwards. When
+ * the resolved settings of a target change, typically after a configuration refresh, the next lookup builds a
+ * new client; the old one keeps serving the requests that already hold it and is shut down after the retire
+ * delay, together with what its factory acquired for it, such as a shared STS credential provider.
+ */
+public class StorageTargetRegistry implements Closeable {
+    private static final String CLASS_NAME = StorageTargetRegistry.class.getSimpleName();
+
+    private final Function<String, EnvironmentContext> contexts;
+    private final Function<EnvironmentContext, AmazonS3> clientFactory;
+    private final Function<AmazonS3, TransferManager> transferManagerFactory;
+    private final Consumer<AmazonS3> clientReleaser;
+    private final long retireDelayMillis;
+    private final ConcurrentHashMap<String, StorageTarget> targets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retirer;
+
+    /**
+     * @param contexts               Resolves an environment string to the settings of its target
+     * @param clientFactory          Builds the client of a target. It may return {@code null} if the client cannot
+     *                               be built; the next lookup then tries again.
+     * @param transferManagerFactory Builds the transfer manager over a client
+     * @param clientReleaser         Releases what the client factory acquired for a client, once it is shut down
+     * @param retireDelayMillis      How long a replaced client is kept before it is shut down
+     */
+    public StorageTargetRegistry(final Function<String, EnvironmentContext> contexts,
+                                 final Function<EnvironmentContext, AmazonS3> clientFactory,
+                                 final Function<AmazonS3, TransferManager> transferManagerFactory,
+                                 final Consumer<AmazonS3> clientReleaser,
+                                 final long retireDelayMillis) {
+        this.contexts = contexts;
+        this.clientFactory = clientFactory;
+        this.transferManagerFactory = transferManagerFactory;
+        this.clientReleaser = clientReleaser;
+        this.retireDelayMillis = retireDelayMillis;
+        this.retirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "s3-target-retire");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return The client of the environment's target, or {@code null} if it cannot be built
+     */
+    public AmazonS3 getClient(final String env) {
+        final StorageTarget target = target(env);
+        return target == null ? null : target.client;
+    }
+
+    /**
+     * @return The transfer manager of the environment's target, or {@code null} if its client cannot be built
+     */
+    public TransferManager getTransferManager(final String env) {
+        final StorageTarget target = target(env);
+        return target == null ? null : target.transferManager;
+    }
+
+    /**
+     * @return The settings of the targets whose clients have been built
+     */
+    public Set<EnvironmentContext> getActiveTargets() {
+        final Set<EnvironmentContext> active = new HashSet<>();
+        for (final StorageTarget target : targets.values()) {
+            active.add(target.context);
+        }
+        return active;
+    }
+
+    @Override
+    public void close() {
+        retirer.shutdownNow();
+        for (final StorageTarget target : targets.values()) {
+            shutdown(target);
+        }
+        targets.clear();
+    }
+
+    private StorageTarget target(final String env) {
+        final EnvironmentContext context = contexts.apply(env);
+        final StorageTarget current = targets.get(context.getName());
+        if (current != null && current.context.equals(context)) {
+            return current;
+        }
+        final StorageTarget[] replaced = {null};
+        final StorageTarget target = targets.compute(context.getName(), (name, existing) -> {
+            if (existing != null && existing.context.equals(context)) {
+                return existing;
+            }
+            final AmazonS3 client = clientFactory.apply(context);
+            if (client == null) {
+                return existing;
+            }
+            replaced[0] = existing;
+            this.getlogger().info(String.format("%s target: Built the client of %s for bucket %s", CLASS_NAME,
+                    name, context.getBucketName()));
+            return new StorageTarget(context, client, transferManagerFactory.apply(client));
+        });
+        if (replaced[0] != null) {
+            retire(replaced[0]);
+        }
+        return target;
+    }
+
+    private void retire(final StorageTarget target) {
+        this.getlogger().info(String.format("%s retire: Settings of %s changed, shutting the old client down in %d ms",
+                CLASS_NAME, target.context.getName(), retireDelayMillis));
+        retirer.schedule(() -> shutdown(target), retireDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shut the transfer manager down together with its client, then release the client.
+     */
+    private void shutdown(final StorageTarget target) {
+        try {
+            target.transferManager.shutdownNow(true);
+        } finally {
+            clientReleaser.accept(target.client);
+        }
+    }
+
+    private static final class StorageTarget {
+        private final EnvironmentContext context;
+        private final AmazonS3 client;
+        private final TransferManager transferManager;
+
+        private StorageTarget(final EnvironmentContext context, final AmazonS3 client,
+                              final TransferManager transferManager) {
+            this.context = context;
+            this.client = client;
+            this.transferManager = transferManager;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(StorageTargetRegistry.class);
+    }
+}
@@ -0,0 +1,72 @@
+package com.practice.s3.client;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Two counters summed over a sliding time window, for example requests and failures. The window is split in ten
+ * buckets; a bucket is cleared when time comes back to it, so the sums cover the last window give or take one
+ * bucket.
+ */
+final class WindowedCounter {
+    private static final int BUCKETS = 10;
+
+    private final long bucketMillis;
+    private final long[] epochs = new long[BUCKETS];
+    private final long[] firsts = new long[BUCKETS];
+    private final long[] seconds = new long[BUCKETS];
+    private final ReentrantLock lock = new ReentrantLock();
+
+    WindowedCounter(final long windowMillis) {
+        this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+    }
+
+    void add(final long first, final long second) {
+        final long epoch = System.currentTimeMillis() / bucketMillis;
+        final int index = (int) (epoch % BUCKETS);
+        lock.lock();
+        try {
+            if (epochs[index] != epoch) {
+                epochs[index] = epoch;
+                firsts[index] = 0;
+                seconds[index] = 0;
+            }
+            firsts[index] += first;
+            seconds[index] += second;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The sums of the first and the second counter over the window
+     */
+    long[] sums() {
+        final long epoch = System.currentTimeMillis() / bucketMillis;
+        final long[] sums = new long[2];
+        lock.lock();
+        try {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (epoch - epochs[i] < BUCKETS) {
+                    sums[0] += firsts[i];
+                    sums[1] += seconds[i];
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return sums;
+    }
+
+    void reset() {
+        lock.lock();
+        try {
+            for (int i = 0; i < BUCKETS; i++) {
+                epochs[i] = 0;
+                firsts[i] = 0;
+                seconds[i] = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
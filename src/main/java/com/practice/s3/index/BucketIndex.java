@@ -0,0 +1,496 @@
+package com.practice.s3.index;
+
+import com.practice.model.S3ObjectRecord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The index of a single bucket. The entries are held in a sorted map so that a folder listing is a range scan
+ * over the prefix. Every change is appended to a log file next to a snapshot file; when the log grows past the
+ * compaction threshold the snapshot is rewritten and the log truncated.
+ * <p>
+ * Every put and remove made by this service stamps its key with a new generation. A reconciliation takes the
+ * generation when it starts and applies what it listed only to keys that were not changed since, through
+ * {@link #reconcilePut} and {@link #reconcileRemove}; a page listed before a local write or delete must not undo it.
+ * <p>
+ * A reconciliation pass may be spread over several runs: every page it applies is followed by a checkpoint of the
+ * last key listed, and the next run resumes after it. Finishing a pass appends a reconciled record to the log
+ * rather than rewriting the snapshot.
+ * <p>
+ * All entries are held on the heap, at roughly 300 bytes plus the key length each (the skip list node, the
+ * record, its key, ETag and storage class strings); 500,000 entries with 100 character keys come to about 200 MB.
+ * A bucket that grows past {@code maxEntries} is dropped from the index, its files are deleted, and its listings
+ * go to S3 until the service restarts.
+ * <p>
+ * File layout: {@code <bucket>.snapshot} starts with {@link #VERSIONED_MAGIC}, {@link #VERSION}, the time of the
+ * last completed reconciliation, and the start time and last key of the pass in progress ({@code 0} and an empty
+ * key when none is), then one put record per key. Snapshots written before the version started with
+ * {@link #MAGIC} and the reconciliation time only. {@code <bucket>.log} holds put, delete, checkpoint and
+ * reconciled records in the order they were applied. A torn record at the end of the log (crash while appending)
+ * is ignored on load.
+ */
+class BucketIndex implements Closeable {
+    private static final int MAGIC = 0x53334958;
+    private static final int VERSIONED_MAGIC = 0x53334956;
+    private static final int VERSION = 2;
+    private static final byte PUT = 'P';
+    private static final byte DELETE = 'D';
+    private static final byte CHECKPOINT = 'C';
+    private static final byte RECONCILED = 'R';
+
+    private final String bucketName;
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final long compactionThreshold;
+    private final int maxEntries;
+    private final NavigableMap<String, S3ObjectRecord> entries = new ConcurrentSkipListMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * The generation of the last local change of a key, kept while a reconciliation may still need it
+     */
+    private final Map<String, Long> localChanges = new ConcurrentHashMap<>();
+    private final ReentrantLock logLock = new ReentrantLock();
+    private DataOutputStream log;
+    private long logRecords;
+    private volatile long reconciledAt;
+    private volatile boolean overflowed;
+    /**
+     * The start time of the reconciliation pass in progress, {@code 0} if none is
+     */
+    private long passStart;
+    /**
+     * The last key the pass in progress applied, {@code null} if it has not applied a page yet
+     */
+    private String passCursor;
+
+    BucketIndex(final String bucketName, final Path indexDirectory, final long compactionThreshold,
+                final int maxEntries) {
+        this.bucketName = bucketName;
+        this.snapshotFile = indexDirectory.resolve(bucketName + ".snapshot");
+        this.logFile = indexDirectory.resolve(bucketName + ".log");
+        this.compactionThreshold = compactionThreshold;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Load the snapshot and replay the log. Must be called once before the index is used.
+     */
+    void load() throws IOException {
+        logLock.lock();
+        try {
+            if (Files.exists(snapshotFile)) {
+                try (DataInputStream in = open(snapshotFile)) {
+                    final int magic = in.readInt();
+                    if (magic == VERSIONED_MAGIC) {
+                        final int version = in.readInt();
+                        if (version != VERSION) {
+                            throw new IOException("Unsupported index snapshot version " + version + ": " + snapshotFile);
+                        }
+                        reconciledAt = in.readLong();
+                        passStart = in.readLong();
+                        final String cursor = in.readUTF();
+                        passCursor = cursor.isEmpty() ? null : cursor;
+                    } else if (magic == MAGIC) {
+                        reconciledAt = in.readLong();
+                    } else {
+                        throw new IOException("Not an index snapshot: " + snapshotFile);
+                    }
+                    replay(in);
+                }
+            }
+            if (Files.exists(logFile)) {
+                try (DataInputStream in = open(logFile)) {
+                    logRecords = replay(in);
+                }
+            }
+            if (entries.size() > maxEntries) {
+                overflow();
+                return;
+            }
+            log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            this.getlogger().info(String.format("BucketIndex: loaded %d entries for bucket %s, reconciled at %d",
+                    entries.size(), bucketName, reconciledAt));
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    boolean isReady() {
+        return !overflowed && reconciledAt > 0;
+    }
+
+    /**
+     * @return {@code true} if the bucket outgrew {@code maxEntries} and is no longer indexed
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    long getReconciledAt() {
+        return reconciledAt;
+    }
+
+    /**
+     * @return The start time of the reconciliation pass in progress, {@code 0} if none is
+     */
+    long getPassStart() {
+        return passStart;
+    }
+
+    /**
+     * @return The key the pass in progress resumes after, {@code null} to start from the first key
+     */
+    String getPassCursor() {
+        return passCursor;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    S3ObjectRecord get(final String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * All the entries whose key starts with the given prefix, in key order.
+     */
+    List<S3ObjectRecord> scan(final String prefix) {
+        final Map<String, S3ObjectRecord> range = prefix == null || prefix.isEmpty()
+                ? entries
+                : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        return new ArrayList<>(range.values());
+    }
+
+    /**
+     * Entries with keys in {@code (fromExclusive, toInclusive]}. A {@code null} lower bound means from the start.
+     */
+    Collection<S3ObjectRecord> range(final String fromExclusive, final String toInclusive) {
+        final Map<String, S3ObjectRecord> range = fromExclusive == null
+                ? entries.headMap(toInclusive, true)
+                : entries.subMap(fromExclusive, false, toInclusive, true);
+        return Collections.unmodifiableCollection(new ArrayList<>(range.values()));
+    }
+
+    /**
+     * Entries with keys strictly after the given key. A {@code null} key means all entries.
+     */
+    Collection<S3ObjectRecord> tail(final String fromExclusive) {
+        final Map<String, S3ObjectRecord> range = fromExclusive == null ? entries : entries.tailMap(fromExclusive, false);
+        return Collections.unmodifiableCollection(new ArrayList<>(range.values()));
+    }
+
+    /**
+     * @return The current generation, to pass to {@link #reconcilePut}, {@link #reconcileRemove} and
+     * {@link #forgetChangesBefore}
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Apply a put made by this service.
+     */
+    void put(final S3ObjectRecord record) throws IOException {
+        logLock.lock();
+        try {
+            if (overflowed) {
+                return;
+            }
+            localChanges.put(record.getKey(), generation.incrementAndGet());
+            applyPut(record);
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Apply a delete made by this service.
+     */
+    void remove(final String key) throws IOException {
+        logLock.lock();
+        try {
+            if (overflowed) {
+                return;
+            }
+            localChanges.put(key, generation.incrementAndGet());
+            applyRemove(key);
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Apply a record listed by a reconciliation, unless this service changed the key after the scan started.
+     *
+     * @param scanGeneration The {@link #generation()} taken when the scan started
+     * @return {@code true} if the record was applied
+     */
+    boolean reconcilePut(final S3ObjectRecord record, final long scanGeneration) throws IOException {
+        logLock.lock();
+        try {
+            if (overflowed || changedSince(record.getKey(), scanGeneration)) {
+                return false;
+            }
+            return applyPut(record);
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a key a reconciliation did not find, unless this service changed it after the scan started.
+     *
+     * @param scanGeneration The {@link #generation()} taken when the scan started
+     * @return {@code true} if the key was removed
+     */
+    boolean reconcileRemove(final String key, final long scanGeneration) throws IOException {
+        logLock.lock();
+        try {
+            return !overflowed && !changedSince(key, scanGeneration) && applyRemove(key);
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Drop the local changes no reconciliation started at or after {@code scanGeneration} needs.
+     */
+    void forgetChangesBefore(final long scanGeneration) {
+        localChanges.values().removeIf(changed -> changed <= scanGeneration);
+    }
+
+    /**
+     * Record how far the reconciliation pass that started at {@code start} got, so that the next run resumes after
+     * {@code cursor} instead of walking the bucket from the first key again.
+     */
+    void checkpoint(final long start, final String cursor) throws IOException {
+        logLock.lock();
+        try {
+            if (overflowed) {
+                return;
+            }
+            passStart = start;
+            passCursor = cursor;
+            log.writeByte(CHECKPOINT);
+            log.writeLong(start);
+            log.writeUTF(cursor);
+            afterAppend();
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Mark a reconciliation pass as finished: everything that existed in S3 at {@code time} has been listed.
+     */
+    void markReconciled(final long time) throws IOException {
+        logLock.lock();
+        try {
+            if (overflowed) {
+                return;
+            }
+            reconciledAt = time;
+            passStart = 0;
+            passCursor = null;
+            log.writeByte(RECONCILED);
+            log.writeLong(time);
+            afterAppend();
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        logLock.lock();
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } finally {
+            logLock.unlock();
+        }
+    }
+
+    private boolean changedSince(final String key, final long scanGeneration) {
+        final Long changed = localChanges.get(key);
+        return changed != null && changed > scanGeneration;
+    }
+
+    /**
+     * Callers hold {@link #logLock}.
+     *
+     * @return {@code false} if the put made the bucket overflow
+     */
+    private boolean applyPut(final S3ObjectRecord record) throws IOException {
+        entries.put(record.getKey(), record);
+        if (entries.size() > maxEntries) {
+            overflow();
+            return false;
+        }
+        writePut(log, record);
+        afterAppend();
+        return true;
+    }
+
+    /**
+     * Stop indexing the bucket: free the entries and delete its files. Callers hold {@link #logLock}.
+     */
+    private void overflow() throws IOException {
+        overflowed = true;
+        entries.clear();
+        localChanges.clear();
+        reconciledAt = 0;
+        passStart = 0;
+        passCursor = null;
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(logFile);
+        this.getlogger().warn(String.format("BucketIndex: bucket %s has more than %d objects, it is no longer indexed "
+                + "and is listed from S3 (gist.aws.s3.index.max.entries)", bucketName, maxEntries));
+    }
+
+    /**
+     * Callers hold {@link #logLock}.
+     *
+     * @return {@code true} if the key was indexed
+     */
+    private boolean applyRemove(final String key) throws IOException {
+        if (entries.remove(key) == null) {
+            return false;
+        }
+        log.writeByte(DELETE);
+        log.writeUTF(key);
+        afterAppend();
+        return true;
+    }
+
+    private void afterAppend() throws IOException {
+        log.flush();
+        logRecords++;
+        if (logRecords >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the snapshot from the in memory entries and start an empty log. Callers hold {@link #logLock}.
+     */
+    private void compact() throws IOException {
+        final Path tempSnapshot = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempSnapshot)))) {
+            out.writeInt(VERSIONED_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(reconciledAt);
+            out.writeLong(passStart);
+            out.writeUTF(passCursor == null ? "" : passCursor);
+            for (final S3ObjectRecord record : entries.values()) {
+                writePut(out, record);
+            }
+        }
+        Files.move(tempSnapshot, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (log != null) {
+            log.close();
+        }
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+        logRecords = 0;
+        this.getlogger().info(String.format("BucketIndex: compacted %d entries for bucket %s", entries.size(), bucketName));
+    }
+
+    private long replay(final DataInputStream in) throws IOException {
+        long records = 0;
+        try {
+            while (true) {
+                final byte op = in.readByte();
+                if (op == PUT) {
+                    final S3ObjectRecord record = readPut(in);
+                    entries.put(record.getKey(), record);
+                } else if (op == DELETE) {
+                    entries.remove(in.readUTF());
+                } else if (op == CHECKPOINT) {
+                    final long start = in.readLong();
+                    final String cursor = in.readUTF();
+                    passStart = start;
+                    passCursor = cursor;
+                } else if (op == RECONCILED) {
+                    reconciledAt = in.readLong();
+                    passStart = 0;
+                    passCursor = null;
+                } else {
+                    this.getlogger().warn(String.format("BucketIndex: unknown record %s in %s, ignoring the rest",
+                            op, bucketName));
+                    break;
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            // End of file or a torn last record
+        }
+        return records;
+    }
+
+    private static DataInputStream open(final Path path) throws IOException {
+        final InputStream in = Files.newInputStream(path);
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+
+    private static void writePut(final DataOutputStream out, final S3ObjectRecord record) throws IOException {
+        out.writeByte(PUT);
+        out.writeUTF(record.getKey());
+        out.writeLong(record.getSize());
+        out.writeLong(record.getLastModified());
+        out.writeUTF(record.getETag());
+        out.writeUTF(record.getStorageClass());
+        out.writeBoolean(record.isVersioned());
+    }
+
+    private static S3ObjectRecord readPut(final DataInputStream in) throws IOException {
+        final String key = in.readUTF();
+        final long size = in.readLong();
+        final long lastModified = in.readLong();
+        final String eTag = in.readUTF();
+        final String storageClass = in.readUTF();
+        final boolean versioned = in.readBoolean();
+        return new S3ObjectRecord(key, size, lastModified, eTag, storageClass, versioned);
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(BucketIndex.class);
+    }
+}
@@ -0,0 +1,249 @@
+package com.practice.s3.index;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.BucketVersioningConfiguration;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.practice.model.S3ObjectRecord;
+import com.practicecom.practice.utill.TimeIt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link S3MetadataIndex} is an on-disk index of the objects in one or more buckets. It lets the listing calls
+ * answer a folder listing from a local prefix range scan instead of going to S3.
+ * <p>
+ * The index is kept current in two ways: the writes and deletes done by this service are applied as they
+ * happen, and {@link #reconcile(String, AmazonS3)} periodically walks the bucket page by page and applies the
+ * differences. A bucket is only served from the index after its first reconciliation pass has completed.
+ * <p>
+ * The entries of a bucket are held on the heap, see {@link BucketIndex} for the cost; a bucket with more than
+ * {@code maxEntries} objects is not indexed.
+ */
+public class S3MetadataIndex implements Closeable {
+    private static final String CLASS_NAME = S3MetadataIndex.class.getSimpleName();
+
+    private final Path indexDirectory;
+    private final long compactionThreshold;
+    private final int maxEntries;
+    private final int reconcilePages;
+    private final Map<String, BucketIndex> buckets = new ConcurrentHashMap<>();
+    private final Set<String> reconciling = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param indexDirectory      The directory the snapshot and log files are kept in.
+     * @param compactionThreshold The number of log records after which the snapshot is rewritten.
+     * @param maxEntries          The number of objects above which a bucket is no longer indexed.
+     * @param reconcilePages      The number of listing pages a reconciliation run walks before it stops.
+     */
+    public S3MetadataIndex(final Path indexDirectory, final long compactionThreshold, final int maxEntries,
+                           final int reconcilePages) throws IOException {
+        this.indexDirectory = Files.createDirectories(indexDirectory);
+        this.compactionThreshold = compactionThreshold;
+        this.maxEntries = maxEntries;
+        this.reconcilePages = reconcilePages;
+    }
+
+    /**
+     * @return {@code true} if the bucket has been reconciled at least once and can answer listings.
+     */
+    public boolean isReady(final String bucketName) {
+        final BucketIndex bucketIndex = bucket(bucketName);
+        return bucketIndex != null && bucketIndex.isReady();
+    }
+
+    /**
+     * List the indexed objects under a prefix.
+     *
+     * @return The records in key order, or no value if the bucket is not ready to be served from the index.
+     */
+    public Optional<List<S3ObjectRecord>> scan(final String bucketName, final String prefix) {
+        final BucketIndex bucketIndex = bucket(bucketName);
+        if (bucketIndex == null || !bucketIndex.isReady()) {
+            return Optional.empty();
+        }
+        return Optional.of(bucketIndex.scan(prefix));
+    }
+
+    public Optional<S3ObjectRecord> get(final String bucketName, final String key) {
+        final BucketIndex bucketIndex = bucket(bucketName);
+        return bucketIndex == null ? Optional.empty() : Optional.ofNullable(bucketIndex.get(key));
+    }
+
+    public void put(final String bucketName, final S3ObjectRecord record) {
+        final BucketIndex bucketIndex = bucket(bucketName);
+        if (bucketIndex != null) {
+            try {
+                bucketIndex.put(record);
+            } catch (IOException e) {
+                this.getlogger().error(String.format("%s put: Cannot index %s in bucket %s: %s",
+                        CLASS_NAME, record.getKey(), bucketName, e));
+            }
+        }
+    }
+
+    public void remove(final String bucketName, final String key) {
+        final BucketIndex bucketIndex = bucket(bucketName);
+        if (bucketIndex != null) {
+            try {
+                bucketIndex.remove(key);
+            } catch (IOException e) {
+                this.getlogger().error(String.format("%s remove: Cannot remove %s from bucket %s: %s",
+                        CLASS_NAME, key, bucketName, e));
+            }
+        }
+    }
+
+    public void removeAll(final String bucketName, final Collection<String> keys) {
+        for (final String key : keys) {
+            remove(bucketName, key);
+        }
+    }
+
+    /**
+     * Walk the bucket and apply the differences to the index. Listing pages come back in key order, so
+     * every indexed key that falls between the last key of the previous page and the last key of this page but
+     * is not on the page no longer exists in S3 and is removed. Keys this service wrote or deleted after the scan
+     * started are left alone: the page may have been listed before the change.
+     * <p>
+     * A run walks at most {@code reconcilePages} pages and checkpoints the last key of every page; the next run,
+     * or the first one after a failure or a restart, resumes after it. The pass is complete, and the bucket ready,
+     * when the last page has been applied.
+     *
+     * @param bucketName The bucket to reconcile
+     * @param amazonS3   The client to list the bucket with
+     */
+    public void reconcile(final String bucketName, final AmazonS3 amazonS3) {
+        final String methodName = " | reconcile | ";
+        final BucketIndex bucketIndex = bucket(bucketName);
+        if (bucketIndex == null || amazonS3 == null || bucketIndex.isOverflowed()) {
+            return;
+        }
+        if (!reconciling.add(bucketName)) {
+            this.getlogger().info(String.format("%s %s Reconciliation of %s already running", CLASS_NAME, methodName, bucketName));
+            return;
+        }
+        final TimeIt timeIt = new TimeIt(methodName, "", "", "");
+        timeIt.start();
+        try {
+            final long passStart = bucketIndex.getPassStart() > 0 ? bucketIndex.getPassStart() : System.currentTimeMillis();
+            final long scanGeneration = bucketIndex.generation();
+            final boolean versioned = BucketVersioningConfiguration.ENABLED.equals(
+                    amazonS3.getBucketVersioningConfiguration(bucketName).getStatus());
+            String previousLastKey = bucketIndex.getPassCursor();
+            final ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
+                    .withStartAfter(previousLastKey);
+            long seen = 0;
+            long updated = 0;
+            long removed = 0;
+            int pages = 0;
+            ListObjectsV2Result result;
+            do {
+                result = amazonS3.listObjectsV2(request);
+                final List<S3ObjectSummary> page = result.getObjectSummaries();
+                final Set<String> pageKeys = new HashSet<>();
+                for (final S3ObjectSummary summary : page) {
+                    final S3ObjectRecord record = S3ObjectRecord.from(summary, versioned);
+                    pageKeys.add(record.getKey());
+                    final S3ObjectRecord existing = bucketIndex.get(record.getKey());
+                    if ((!record.sameContent(existing) || existing.isVersioned() != versioned)
+                            && bucketIndex.reconcilePut(record, scanGeneration)) {
+                        updated++;
+                    }
+                }
+                seen += page.size();
+                final String lastKey = page.isEmpty() ? null : page.get(page.size() - 1).getKey();
+                final Collection<S3ObjectRecord> covered = result.isTruncated()
+                        ? (lastKey == null ? Collections.<S3ObjectRecord>emptyList() : bucketIndex.range(previousLastKey, lastKey))
+                        : bucketIndex.tail(previousLastKey);
+                for (final S3ObjectRecord record : covered) {
+                    if (!pageKeys.contains(record.getKey())
+                            && bucketIndex.reconcileRemove(record.getKey(), scanGeneration)) {
+                        removed++;
+                    }
+                }
+                if (lastKey != null) {
+                    previousLastKey = lastKey;
+                    if (result.isTruncated()) {
+                        bucketIndex.checkpoint(passStart, lastKey);
+                    }
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+                pages++;
+            } while (result.isTruncated() && pages < reconcilePages && !bucketIndex.isOverflowed());
+            bucketIndex.forgetChangesBefore(scanGeneration);
+            final boolean complete = !result.isTruncated() && !bucketIndex.isOverflowed();
+            if (complete) {
+                bucketIndex.markReconciled(passStart);
+            }
+            final String msg = String.format("%s %s %s bucket %s: %d objects seen, %d updated, %d removed",
+                    CLASS_NAME, methodName, complete ? "Reconciled"
+                            : bucketIndex.isOverflowed() ? "Stopped indexing" : "Partially reconciled (resumes next run)",
+                    bucketName, seen, updated, removed);
+            timeIt.setMessage(msg);
+            this.getlogger().info(msg);
+        } catch (Exception e) {
+            this.getlogger().error(String.format("%s %s Reconciliation of %s failed: %s", CLASS_NAME, methodName, bucketName, e));
+        } finally {
+            reconciling.remove(bucketName);
+            timeIt.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (final BucketIndex bucketIndex : buckets.values()) {
+            try {
+                bucketIndex.close();
+            } catch (IOException e) {
+                this.getlogger().error(String.format("%s close: %s", CLASS_NAME, e));
+            }
+        }
+        buckets.clear();
+    }
+
+    /**
+     * Get the index of a bucket, loading it from disk the first time.
+     *
+     * @return The bucket index or {@code null} if it could not be loaded
+     */
+    private BucketIndex bucket(final String bucketName) {
+        if (bucketName == null || bucketName.isEmpty()) {
+            return null;
+        }
+        return buckets.computeIfAbsent(bucketName, name -> {
+            final BucketIndex bucketIndex = new BucketIndex(name, indexDirectory, compactionThreshold, maxEntries);
+            try {
+                bucketIndex.load();
+                return bucketIndex;
+            } catch (IOException e) {
+                this.getlogger().error(String.format("%s Cannot load index of bucket %s: %s", CLASS_NAME, name, e));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3MetadataIndex.class);
+    }
+}
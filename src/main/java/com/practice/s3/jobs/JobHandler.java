@@ -0,0 +1,23 @@
+package com.practice.s3.jobs;
+
+import com.practice.constants.FileSystemOptionKeys;
+import com.practice.exception.FileTransferException;
+import com.practice.model.JobRecord;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Runs one type of background job. Handlers must be safe to run again for a job that was interrupted by a
+ * restart, since unfinished jobs are run again from the start.
+ */
+@FunctionalInterface
+public interface JobHandler {
+    /**
+     * @param job     The job to run. The payload is the JSON of the original request body.
+     * @param options The environment, correlation id and the {@link JobProgress} of the job
+     * @return The result message of the operation
+     */
+    Optional<String> run(JobRecord job, Map<FileSystemOptionKeys, Object> options) throws FileTransferException, IOException;
+}
@@ -0,0 +1,321 @@
+package com.practice.s3.jobs;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.practice.constants.FileSystemOptionKeys;
+import com.practice.constants.JobStatus;
+import com.practice.constants.JobType;
+import com.practice.exception.AWSConnectionException;
+import com.practice.exception.FileTransferException;
+import com.practice.model.JobRecord;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * {@link JobManager} runs long delete, move and copy operations in the background on a bounded pool and keeps
+ * their state in a job store: one JSON file per job under the store directory. Progress is written to the store
+ * as the job runs, so the job status survives a restart, and jobs that had not finished are run again by
+ * {@link #recover()}. Finished jobs are removed from the store after the retention period.
+ * <p>
+ * The payload is stored without its passwords: every field whose name contains "password" is dropped, so a job
+ * runs with the defaults of those fields, which the S3 operations do not use.
+ */
+public class JobManager implements Closeable {
+    private static final String CLASS_NAME = JobManager.class.getSimpleName();
+    private static final String JOB_FILE_SUFFIX = ".json";
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .addMixIn(JobRecord.class, StoredJobRecord.class);
+
+    private final Path storeDirectory;
+    private final long retentionMillis;
+    private final ThreadPoolExecutor executor;
+    private final Map<JobType, JobHandler> handlers = new EnumMap<>(JobType.class);
+    private final Map<String, JobProgress> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param storeDirectory  The directory the job files are kept in
+     * @param threads         Number of jobs run at the same time
+     * @param queueCapacity   Number of jobs that can wait for a thread. Submissions beyond that are refused.
+     * @param retentionMillis How long finished jobs are kept
+     */
+    public JobManager(final Path storeDirectory, final int threads, final int queueCapacity,
+                      final long retentionMillis) throws IOException {
+        this.storeDirectory = Files.createDirectories(storeDirectory);
+        this.retentionMillis = retentionMillis;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+            final Thread thread = new Thread(r, "s3-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void register(final JobType type, final JobHandler handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Store a new job and queue it.
+     *
+     * @param type          The job type. A handler must be registered for it.
+     * @param payload       The request body of the operation, stored as JSON
+     * @param options       The environment and correlation id of the request
+     * @param entityId      Entity id to log
+     * @param connectorName Connector name to log
+     * @return The queued job
+     * @throws AWSConnectionException With status 503 if the job queue is full
+     */
+    public JobRecord submit(final JobType type,
+                            final Object payload,
+                            final Map<FileSystemOptionKeys, Object> options,
+                            final String entityId,
+                            final String connectorName) throws FileTransferException {
+        if (!handlers.containsKey(type)) {
+            throw new FileTransferException(String.format("Jobs of type %s are not supported", type));
+        }
+        final JobRecord job;
+        try {
+            job = new JobRecord(UUID.randomUUID().toString(), type,
+                    mapper.writeValueAsString(redact(mapper.valueToTree(payload))));
+        } catch (IOException e) {
+            throw new FileTransferException(String.format("Cannot store job payload: %s", e.getMessage()));
+        }
+        job.setEnv((String) options.getOrDefault(FileSystemOptionKeys.ENVIRONMENT, ""));
+        job.setCorrelationId((String) options.getOrDefault(FileSystemOptionKeys.CORRELATION_ID, ""));
+        job.setEntityId(entityId == null ? "" : entityId);
+        job.setConnectorName(connectorName == null ? "" : connectorName);
+        job.setSubmittedAt(System.currentTimeMillis());
+        purgeExpired();
+        try {
+            enqueue(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            delete(job.getId());
+            throw new AWSConnectionException(SERVICE_UNAVAILABLE.value(), "Job queue is full. Try again later.");
+        }
+        return snapshot(job.getId()).orElse(job);
+    }
+
+    /**
+     * @return A copy of the current state of the job, or no value if the job is unknown or expired
+     */
+    public Optional<JobRecord> get(final String id) {
+        return snapshot(id);
+    }
+
+    /**
+     * Load the job store. Finished jobs are kept for the status API; queued and running jobs are run again.
+     */
+    public void recover() {
+        int resumed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory, "*" + JOB_FILE_SUFFIX)) {
+            for (final Path file : files) {
+                try {
+                    final JobRecord job = mapper.readValue(file.toFile(), JobRecord.class);
+                    // Jobs stored before passwords were removed from the payload
+                    if (job.getPayload() != null && !job.getPayload().isEmpty()) {
+                        job.setPayload(mapper.writeValueAsString(redact(mapper.readTree(job.getPayload()))));
+                    }
+                    if (job.getStatus().isFinished()) {
+                        jobs.put(job.getId(), new JobProgress(job, this::store));
+                        store(job);
+                    } else {
+                        resume(job);
+                        resumed++;
+                    }
+                } catch (IOException e) {
+                    this.getlogger().error(String.format("%s recover: Cannot recover job %s: %s", CLASS_NAME, file, e));
+                }
+            }
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s recover: Cannot read the job store %s: %s", CLASS_NAME, storeDirectory, e));
+        }
+        purgeExpired();
+        this.getlogger().info(String.format("%s recover: %d jobs loaded, %d resumed", CLASS_NAME, jobs.size(), resumed));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run an unfinished job again from the start, with its counts reset. A job that does not fit in the queue is
+     * failed rather than left queued.
+     */
+    private void resume(final JobRecord job) {
+        job.setStatus(JobStatus.QUEUED);
+        job.setStartedAt(0);
+        job.setProcessed(0);
+        job.setFailed(0);
+        job.setErrors(new ArrayList<>());
+        try {
+            enqueue(job);
+        } catch (RejectedExecutionException e) {
+            this.getlogger().error(String.format("%s recover: Cannot resume job %s: %s", CLASS_NAME, job.getId(), e));
+            job.setStatus(JobStatus.FAILED);
+            job.setResult("The job could not be resumed after a restart: the job queue is full");
+            job.setFinishedAt(System.currentTimeMillis());
+            store(job);
+        }
+    }
+
+    private void enqueue(final JobRecord job) {
+        final JobProgress progress = new JobProgress(job, this::store);
+        jobs.put(job.getId(), progress);
+        store(job);
+        executor.execute(() -> run(job, progress));
+    }
+
+    private void run(final JobRecord job, final JobProgress progress) {
+        final String methodName = " | run | ";
+        progress.withLock(() -> {
+            job.setStatus(JobStatus.RUNNING);
+            job.setStartedAt(System.currentTimeMillis());
+            store(job);
+            return null;
+        });
+        this.getlogger().info(String.format("%s %s Start job %s of type %s", CLASS_NAME, methodName, job.getId(), job.getType()),
+                job.getCorrelationId(), job.getEntityId(), job.getConnectorName());
+        final Map<FileSystemOptionKeys, Object> options = new EnumMap<>(FileSystemOptionKeys.class);
+        options.put(FileSystemOptionKeys.ENVIRONMENT, job.getEnv());
+        options.put(FileSystemOptionKeys.CORRELATION_ID, job.getCorrelationId());
+        options.put(FileSystemOptionKeys.JOB_PROGRESS, progress);
+        JobStatus status;
+        String result;
+        try {
+            final Optional<String> res = handlers.get(job.getType()).run(job, options);
+            final long failed = progress.withLock(job::getFailed);
+            status = !res.isPresent() ? JobStatus.FAILED
+                    : failed > 0 ? JobStatus.PARTIALLY_SUCCEEDED : JobStatus.SUCCEEDED;
+            result = res.orElse("The operation did not complete");
+        } catch (FileTransferException | IOException e) {
+            status = JobStatus.FAILED;
+            result = e.getMessage();
+        } catch (Exception e) {
+            status = JobStatus.FAILED;
+            result = String.format("Unexpected error: %s", e);
+        }
+        final JobStatus finalStatus = status;
+        final String finalResult = result;
+        progress.withLock(() -> {
+            job.setStatus(finalStatus);
+            job.setResult(finalResult);
+            job.setFinishedAt(System.currentTimeMillis());
+            store(job);
+            return null;
+        });
+        this.getlogger().info(String.format("%s %s End job %s with status %s: %s", CLASS_NAME, methodName, job.getId(),
+                finalStatus, finalResult), job.getCorrelationId(), job.getEntityId(), job.getConnectorName());
+    }
+
+    private Optional<JobRecord> snapshot(final String id) {
+        final JobProgress progress = id == null ? null : jobs.get(id);
+        if (progress == null) {
+            return Optional.empty();
+        }
+        return Optional.of(progress.withLock(() -> mapper.convertValue(progress.getJob(), JobRecord.class)));
+    }
+
+    /**
+     * Write the job file. A temporary file is moved over the old one so a crash never leaves a partial file.
+     * Callers hold the lock of the job.
+     */
+    private void store(final JobRecord job) {
+        final Path file = storeDirectory.resolve(job.getId() + JOB_FILE_SUFFIX);
+        final Path tempFile = storeDirectory.resolve(job.getId() + JOB_FILE_SUFFIX + ".tmp");
+        try {
+            mapper.writeValue(tempFile.toFile(), job);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s store: Cannot checkpoint job %s: %s", CLASS_NAME, job.getId(), e));
+        }
+    }
+
+    private void delete(final String id) {
+        try {
+            Files.deleteIfExists(storeDirectory.resolve(id + JOB_FILE_SUFFIX));
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s delete: Cannot delete job %s: %s", CLASS_NAME, id, e));
+        }
+    }
+
+    private void purgeExpired() {
+        final long expiredBefore = System.currentTimeMillis() - retentionMillis;
+        jobs.entrySet().removeIf(entry -> {
+            final boolean expired = entry.getValue().withLock(() -> {
+                final JobRecord job = entry.getValue().getJob();
+                return job.getStatus().isFinished() && job.getFinishedAt() < expiredBefore;
+            });
+            if (expired) {
+                delete(entry.getKey());
+            }
+            return expired;
+        });
+    }
+
+    /**
+     * Drop the password fields of a payload, at any depth.
+     */
+    private static JsonNode redact(final JsonNode node) {
+        if (node instanceof ObjectNode) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getKey().toLowerCase(Locale.ROOT).contains("password")) {
+                    fields.remove();
+                } else {
+                    redact(field.getValue());
+                }
+            }
+        } else if (node != null && node.isArray()) {
+            for (final JsonNode element : node) {
+                redact(element);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Keeps the payload, which the API leaves out, in the job files.
+     */
+    private abstract static class StoredJobRecord {
+        @JsonProperty
+        abstract String getPayload();
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(JobManager.class);
+    }
+}
@@ -0,0 +1,103 @@
+package com.practice.s3.jobs;
+
+import com.practice.model.JobRecord;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Progress sink handed to a running job through {@link com.practice.constants.FileSystemOptionKeys#JOB_PROGRESS}.
+ * The counts are written to the job store at most once every {@link #CHECKPOINT_INTERVAL_MILLIS}. The methods may
+ * be called from several threads.
+ */
+public class JobProgress {
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final JobRecord job;
+    private final Consumer<JobRecord> checkpoint;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastCheckpoint;
+
+    JobProgress(final JobRecord job, final Consumer<JobRecord> checkpoint) {
+        this.job = job;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @param count Number of keys completed
+     */
+    public void processed(final long count) {
+        lock.lock();
+        try {
+            job.setProcessed(job.getProcessed() + count);
+            checkpoint();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key   The key that could not be processed
+     * @param error Why
+     */
+    public void failed(final String key, final String error) {
+        lock.lock();
+        try {
+            job.setFailed(job.getFailed() + 1);
+            addError(String.format("%s: %s", key, error));
+            checkpoint();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param count  Number of keys that could not be processed
+     * @param errors Descriptions of some or all of the failures
+     */
+    public void failed(final long count, final List<String> errors) {
+        lock.lock();
+        try {
+            job.setFailed(job.getFailed() + count);
+            for (final String error : errors) {
+                addError(error);
+            }
+            checkpoint();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    JobRecord getJob() {
+        return job;
+    }
+
+    /**
+     * Run the action with the job locked against concurrent progress updates.
+     */
+    <T> T withLock(final Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addError(final String error) {
+        if (job.getErrors().size() < MAX_REPORTED_ERRORS) {
+            job.getErrors().add(error);
+        }
+    }
+
+    private void checkpoint() {
+        final long now = System.currentTimeMillis();
+        if (now - lastCheckpoint >= CHECKPOINT_INTERVAL_MILLIS) {
+            lastCheckpoint = now;
+            checkpoint.accept(job);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.practice.s3.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers whether a bucket exists so that the listing calls do not check it with S3 on every request. A bucket
+ * that exists is remembered for the positive TTL, a missing bucket for the (usually shorter) negative TTL.
+ * A failed check is not remembered.
+ */
+class BucketExistenceCache {
+    private final long existsTtlMillis;
+    private final long missingTtlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    BucketExistenceCache(final long existsTtlMillis, final long missingTtlMillis) {
+        this.existsTtlMillis = existsTtlMillis;
+        this.missingTtlMillis = missingTtlMillis;
+    }
+
+    /**
+     * @param bucketName The bucket to check
+     * @param amazonS3   The client to check the bucket with when the cached answer is missing or expired
+     * @return {@code true} if the bucket exists
+     */
+    boolean exists(final String bucketName, final AmazonS3 amazonS3) {
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(bucketName);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.exists;
+        }
+        final boolean exists = amazonS3.doesBucketExistV2(bucketName);
+        final long ttl = exists ? existsTtlMillis : missingTtlMillis;
+        if (ttl > 0) {
+            entries.put(bucketName, new Entry(exists, now + ttl));
+        }
+        if (!exists) {
+            this.getlogger().warn(String.format("BucketExistenceCache: bucket %s does not exist", bucketName));
+        }
+        return exists;
+    }
+
+    void invalidate(final String bucketName) {
+        entries.remove(bucketName);
+    }
+
+    private static final class Entry {
+        private final boolean exists;
+        private final long expiresAt;
+
+        private Entry(final boolean exists, final long expiresAt) {
+            this.exists = exists;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(BucketExistenceCache.class);
+    }
+}
@@ -3,13 +3,17 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.practice.constants.FileSystemOptionKeys;
+import com.practice.constants.JobType;
 import com.practice.exception.FileTransferException;
 import com.practice.model.CreateDirectoryPayload;
 import com.practice.model.DeleteFolderPayLoad;
 import com.practice.model.FileObjectProxy;
 import com.practice.model.FileOperationResponse;
+import com.practice.model.JobRecord;
 import com.practice.model.MoveFilePayload;
 import com.practice.model.Pair;
+import com.practice.model.S3ObjectRecord;
+import com.practice.model.SpoolReceipt;
 
 import java.util.List;
 import java.util.Map;
@@ -23,6 +27,10 @@ public interface FileTransferService {
             String entityId, String connectorName) throws FileTransferException;
     Optional<List<String>> listFiles(final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
             String entityId, String connectorName) throws FileTransferException;
+    Optional<List<S3ObjectRecord>> listFilesDetailed(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+            String entityId, String connectorName) throws FileTransferException;
+    Optional<S3ObjectRecord> statFile(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+            String entityId, String connectorName) throws FileTransferException;
     Optional<FileOperationResponse> renameFile(final String fullFileName, final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
                                         String entityId, String connectorName) throws FileTransferException;
     Optional<String> createDirectory(final CreateDirectoryPayload createDirectoryPayload, final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
@@ -37,11 +45,17 @@ public interface FileTransferService {
                                         String entityId, String connectorName) throws FileTransferException;
     Optional<FileOperationResponse> setRemoteFileStreamV2(final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
                                         String entityId, String connectorName) throws FileTransferException;
+    Optional<SpoolReceipt> spoolRemoteFileStream(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                        String entityId, String connectorName) throws FileTransferException;
+    Optional<SpoolReceipt> getSpoolReceipt(final String id);
     Optional<String> moveFilesV1(final MoveFilePayload moveFilePayload, final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
                                         String entityId, String connectorName) throws FileTransferException;
     Optional<String> moveFilesV2(final MoveFilePayload moveFilePayload, final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
                                         String entityId, String connectorName) throws FileTransferException;
     Optional<String> copyFilesV1(final MoveFilePayload moveFilePayload, final Map<FileSystemOptionKeys, Object> optionsObjectMap,
                                  String entityId, String connectorName) throws FileTransferException;
+    Optional<JobRecord> submitJob(final JobType type, final Object payload, final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                  String entityId, String connectorName) throws FileTransferException;
+    Optional<JobRecord> getJob(final String id);
     String testFileOperations(final String env);
 }
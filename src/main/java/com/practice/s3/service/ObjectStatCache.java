@@ -0,0 +1,94 @@
+package com.practice.s3.service;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.practice.model.S3ObjectRecord;
+
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+
+/**
+ * Remembers the metadata of objects so that the flows that only need the existence, size or ETag of a key do not
+ * send a HEAD for it every time. The metadata of an object is remembered for the positive TTL, a missing key for
+ * the (usually shorter) negative TTL. A failed HEAD is not remembered.
+ * <p>
+ * Keys written or deleted by this service are dropped, and a HEAD that ran while one of them was dropped is not
+ * remembered, so the cache never outlives a change made through this service. Changes made by others are seen once
+ * the TTL is over. Lookups are counted in {@code s3.cache.stat.requests} tagged {@code result} hit or miss.
+ */
+class ObjectStatCache {
+    private final long existsTtlMillis;
+    private final long missingTtlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    ObjectStatCache(final long existsTtlMillis, final long missingTtlMillis, final int maxEntries) {
+        this.existsTtlMillis = existsTtlMillis;
+        this.missingTtlMillis = missingTtlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param amazonS3 The client to send the HEAD with when the cached answer is missing or expired
+     * @return The object, or {@code null} if there is no such key
+     */
+    S3ObjectRecord stat(final AmazonS3 amazonS3, final String bucketName, final String key) {
+        final String name = bucketName + "/" + key;
+        final long now = System.currentTimeMillis();
+        final Entry cached = entries.get(name);
+        if (cached != null && cached.expiresAt > now) {
+            Metrics.globalRegistry.counter("s3.cache.stat.requests", "result", "hit").increment();
+            return cached.record;
+        }
+        Metrics.globalRegistry.counter("s3.cache.stat.requests", "result", "miss").increment();
+        final long generation = invalidations.get();
+        S3ObjectRecord record;
+        try {
+            record = S3ObjectRecord.from(key, amazonS3.getObjectMetadata(bucketName, key));
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() != NOT_FOUND.value()) {
+                throw e;
+            }
+            record = null;
+        }
+        final long ttl = record != null ? existsTtlMillis : missingTtlMillis;
+        if (ttl > 0 && invalidations.get() == generation) {
+            if (entries.size() >= maxEntries) {
+                entries.values().removeIf(entry -> entry.expiresAt <= now);
+            }
+            if (entries.size() < maxEntries) {
+                final Entry entry = new Entry(record, now + ttl);
+                entries.put(name, entry);
+                // A write or delete between the check and the put drops what was just put
+                if (invalidations.get() != generation) {
+                    entries.remove(name, entry);
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Forget a key written or deleted by this service.
+     */
+    void invalidate(final String bucketName, final String key) {
+        invalidations.incrementAndGet();
+        entries.remove(bucketName + "/" + key);
+    }
+
+    private static final class Entry {
+        private final S3ObjectRecord record;
+        private final long expiresAt;
+
+        private Entry(final S3ObjectRecord record, final long expiresAt) {
+            this.record = record;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.practice.s3.service;
 import com.newrelic.api.agent.Trace;
 import com.practice.constants.ErrorConstants;
 import com.practice.constants.FileSystemOptionKeys;
+import com.practice.constants.JobType;
 import com.practice.exception.CannotFetchRemoteFileException;
 import com.practice.exception.FileTransferException;
 import com.practice.exception.InvalidFileNamePatternException;
@@ -11,8 +12,11 @@ import com.practice.model.CreateDirectoryPayload;
 import com.practice.model.DeleteFolderPayLoad;
 import com.practice.model.FileObjectProxy;
 import com.practice.model.FileOperationResponse;
+import com.practice.model.JobRecord;
 import com.practice.model.MoveFilePayload;
 import com.practice.model.Pair;
+import com.practice.model.S3ObjectRecord;
+import com.practice.model.SpoolReceipt;
 
 import ch.qos.logback.classic.Logger;
 
@@ -142,9 +146,56 @@ public class S3FileTransferServiceImpl implements FileTransferService {
     }
 
     /**
-     * Rename a give file if present.
+     * This method is used to list the remote files along with their size, last modified time, ETag and storage
+     * class. The {@link com.practice.model.ListingFilter} in the options, if any, is applied on the server side.
+     * @param optionsObjectMap The list of options that is needed for this method to work.
+     * @param entityId The entity id if available. This is used for logging.
+     * @param connectorName The connector name if available. This is used for logging
+     * @return {@link List} of {@link S3ObjectRecord} with keys relative to the remote directory.
+     * @throws GISTFileTransferExceptions The exception if anything goes wrong in the process
+     */
+    @Trace
+    @Override
+    public Optional<List<S3ObjectRecord>> listFilesDetailed(
+            final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+            String entityId, String connectorName) throws FileTransferException {
+
+        final Optional<List<S3ObjectRecord>> records = s3OperationsManager.listObjectRecords(optionsObjectMap, false, entityId, connectorName);
+        final String remoteDir = (String)optionsObjectMap.get(FileSystemOptionKeys.REMOTE_DIR);
+        List<S3ObjectRecord> fileList = new ArrayList<>();
+        if(records.isPresent()) {
+            for (final S3ObjectRecord record: records.get()) {
+                final String objName = s3OperationsManager.normalizeFileName(record.getKey().substring(remoteDir.length()));
+                if(!objName.equalsIgnoreCase("")) {
+                    fileList.add(new S3ObjectRecord(objName, record.getSize(), record.getLastModified(),
+                            record.getETag(), record.getStorageClass(), record.isVersioned()));
+                }
+            }
+        } else {
+            logger.warn(ErrorConstants.FOLDER_EMPTY);
+        }
+        return Optional.of(fileList);
+    }
+
+    /**
+     * Get the size, ETag and modified time of a file without reading it.
+     * @param optionsObjectMap The folder in REMOTE_DIR and the file name in FILE_NAME
+     * @param entityId
+     * @param connectorName
+     * @return
+     * @throws GISTFileTransferExceptions
+     */
+    @Trace
+    @Override
+    public Optional<S3ObjectRecord> statFile(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                             String entityId, String connectorName) throws FileTransferException {
+        return s3OperationsManager.statFile(optionsObjectMap, entityId, connectorName);
+    }
+
+    /**
+     * Rename a give file or folder if present.
      * @param fullFileName
-     * @param optionsObjectMap
+     * @param optionsObjectMap The new name in TO_DESTINATION and the OVERWRITE flag
      * @param entityId
      * @param connectorName
      * @return
@@ -155,7 +206,7 @@ public class S3FileTransferServiceImpl implements FileTransferService {
     public Optional<FileOperationResponse> renameFile(
             final String fullFileName, Map<FileSystemOptionKeys, Object> optionsObjectMap, 
             String entityId, String connectorName) throws FileTransferException {
-        return Optional.empty();
+        return s3OperationsManager.renameFile(fullFileName, optionsObjectMap, entityId, connectorName);
     }
 
     /**
@@ -285,6 +336,42 @@ public class S3FileTransferServiceImpl implements FileTransferService {
     public Optional<FileOperationResponse> setRemoteFileStreamV2(
             final Map<FileSystemOptionKeys, Object> optionsObjectMap, 
             String entityId, String connectorName) throws FileTransferException {
+        validateStoreTarget(optionsObjectMap);
+        return s3OperationsManager.setFileStream(optionsObjectMap, entityId, connectorName);
+    }
+
+    /**
+     * Put the file in the write-behind spool. It is uploaded in the background.
+     * @param optionsObjectMap
+     * @param entityId
+     * @param connectorName
+     * @return The receipt of the write
+     * @throws GISTFileTransferExceptions
+     */
+    @Trace
+    @Override
+    public Optional<SpoolReceipt> spoolRemoteFileStream(
+            final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+            String entityId, String connectorName) throws FileTransferException {
+        validateStoreTarget(optionsObjectMap);
+        return s3OperationsManager.spoolFileStream(optionsObjectMap, entityId, connectorName);
+    }
+
+    /**
+     * Get the state of a write accepted by the write-behind spool.
+     * @param id The receipt id
+     * @return The receipt, or no value if the write is not known
+     */
+    @Override
+    public Optional<SpoolReceipt> getSpoolReceipt(final String id) {
+        return s3OperationsManager.getSpoolReceipt(id);
+    }
+
+    /**
+     * Normalize the separators of the folder and file name of a file to store, and check that neither is empty.
+     */
+    private void validateStoreTarget(final Map<FileSystemOptionKeys, Object> optionsObjectMap)
+            throws InvalidFileNamePatternException {
         final String remoteDir = ((String) optionsObjectMap.get(FileSystemOptionKeys.REMOTE_DIR))
                 .replace("\\", "/");
         final String fileName = ((String) optionsObjectMap.get(FileSystemOptionKeys.FILE_NAME))
@@ -296,8 +383,6 @@ public class S3FileTransferServiceImpl implements FileTransferService {
             throw new InvalidFileNamePatternException(
             		ErrorConstants.INVALID_FILE_NAME + ErrorConstants.DISPLAY_SPACE + remoteDir + "/" + fileName);
         }
-
-        return s3OperationsManager.setFileStream(optionsObjectMap, entityId, connectorName);
     }
 
     /**
@@ -351,6 +436,34 @@ public class S3FileTransferServiceImpl implements FileTransferService {
         return s3OperationsManager.moveFile(moveFilePayload, optionsObjectMap, entityId, connectorName, false);
     }
 
+    /**
+     * Run a delete, move or copy in the background.
+     * @param type The operation
+     * @param payload The request body of the operation
+     * @param optionsObjectMap
+     * @param entityId
+     * @param connectorName
+     * @return The queued job with its id
+     * @throws GISTFileTransferExceptions
+     */
+    @Trace
+    @Override
+    public Optional<JobRecord> submitJob(final JobType type, final Object payload,
+                                         final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                         String entityId, String connectorName) throws FileTransferException {
+        return s3OperationsManager.submitJob(type, payload, optionsObjectMap, entityId, connectorName);
+    }
+
+    /**
+     * Get the state of a background job.
+     * @param id The job id
+     * @return The job, or no value if the job is not known
+     */
+    @Override
+    public Optional<JobRecord> getJob(final String id) {
+        return s3OperationsManager.getJob(id);
+    }
+
     /**
      * Test certain features of the S3.
      * @param env
@@ -3,10 +3,12 @@ package com.practice.s3.service;
 import com.amazonaws.*;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
 import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.internal.Mimetypes;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.transfer.Download;
 import com.amazonaws.services.s3.transfer.TransferManager;
@@ -17,21 +19,53 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.newrelic.api.agent.Trace;
 import com.practice.constants.ConfigurationConsts;
+import com.practice.constants.EnvironmentContext;
 import com.practice.constants.FileSystemOptionKeys;
+import com.practice.constants.JobType;
+import com.practice.constants.ListingConsistency;
 import com.practice.exception.AWSConnectionException;
+import com.practice.exception.AlreadyExistsException;
 import com.practice.exception.CannotFetchRemoteFileException;
 import com.practice.exception.FileTransferException;
+import com.practice.exception.RemoteFileNotFoundException;
 import com.practice.exception.RemoteFolderNameWrongException;
 import com.practice.exception.RootDirectoryDoesNotExistException;
 import com.practice.model.CreateDirectoryPayload;
 import com.practice.model.DeleteFolderPayLoad;
+import com.practice.model.DeleteReport;
 import com.practice.model.FileObjectProxy;
 import com.practice.model.FileOperationResponse;
+import com.practice.model.JobRecord;
+import com.practice.model.ListingFilter;
 import com.practice.model.MoveFilePayload;
+import com.practice.model.S3ObjectRecord;
+import com.practice.model.SpoolReceipt;
+import com.practice.model.TransferReport;
+import com.practice.s3.cache.DiskObjectCache;
+import com.practice.s3.cache.OffHeapObjectCache;
+import com.practice.s3.cache.SharedContent;
+import com.practice.s3.cache.SingleFlight;
+import com.practice.s3.client.S3CircuitBreaker;
+import com.practice.s3.client.S3HedgedReader;
+import com.practice.s3.client.S3RequestRateLimiter;
+import com.practice.s3.client.S3RetryBudget;
+import com.practice.s3.client.S3RetryPolicy;
+import com.practice.s3.client.StorageTargetRegistry;
+import com.practice.s3.index.S3MetadataIndex;
+import com.practice.s3.jobs.JobManager;
+import com.practice.s3.jobs.JobProgress;
+import com.practice.s3.transfer.MoveJournal;
+import com.practice.s3.transfer.S3BatchDeleter;
+import com.practice.s3.transfer.S3CopyEngine;
+import com.practice.s3.transfer.S3MultipartCopier;
+import com.practice.s3.transfer.S3StreamCopier;
+import com.practice.s3.transfer.WriteBehindSpool;
 import com.practicecom.practice.utill.TimeIt;
 import com.practicecom.practice.utill.Validation;
+import com.practicecom.practice.utill.VirtualThreads;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.Consts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,18 +83,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-import static com.amazonaws.retry.PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY;
 import static java.nio.file.Files.createTempFile;
 import static org.springframework.http.HttpStatus.*;
 import static com.practice.constants.ConfigurationConsts.*;
-import static com.amazonaws.retry.PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY;
-import static com.amazonaws.retry.PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION;
 import static com.practice.constants.FileSystemOptionKeys.*;
 import static com.practice.constants.ContentMimeType.*;
-import static com.practicecom.practice.utill.FileSystemUtils.readFileToString;
 import static com.practicecom.practice.utill.FileSystemUtils.writeContentsToFile;
 /**
  * {@link S3OperationsManager} AWS S3 operations manager. This class does all the operations needed for AWS S3
@@ -76,29 +113,95 @@ public class S3OperationsManager {
     private static final ObjectMapper mapper = new ObjectMapper();
     private static final String SEPERATOR = "/";
     private static final char SEPERATOR_CHAR = '/';
-
     /**
-     * The S3 client used to operate on the S3 buckets. This is the default client.
+     * How long a move or rename waits for the write-behind uploads of its sources
      */
-    private final AmazonS3 s3ClientDefault;
-    private final TransferManager s3TransferManagerDefault;
+    private static final long SPOOL_FLUSH_TIMEOUT_MILLIS = 30_000L;
 
     /**
-     * The S3 client used to operate on the S3 buckets. This client points to QA
+     * The S3 clients and transfer managers of the environments and storage targets, built on first use
      */
-    private final AmazonS3 s3ClientQa;
-    private final TransferManager s3TransferManagerQa;
+    private final StorageTargetRegistry storageTargets;
 
     /**
-     * The S3 client used to operate on the S3 buckets. This client points to Production
+     * The shared STS credential provider each client of {@link #storageTargets} holds, released when it is retired
      */
-    private final AmazonS3 s3ClientProduction;
-    private final TransferManager s3TransferManagerProduction;
+    private final Map<AmazonS3, STSRefreshCredentialsProvider> clientCredentials = new ConcurrentHashMap<>();
 
     private final ConfigurationConsts consts;
     
     private final ExceptionHandler exceptionHandler;
 
+    /**
+     * Local index of the bucket contents. This is {@code null} if the index is not enabled.
+     */
+    private final S3MetadataIndex metadataIndex;
+    private final ScheduledExecutorService indexReconciler;
+
+    private final BucketExistenceCache bucketExistenceCache;
+
+    /**
+     * Existence, size and ETag of the keys looked up, kept coherent with the writes and deletes of this service
+     */
+    private final ObjectStatCache statCache;
+
+    /**
+     * Runs the batched delete requests of {@link #removeDir(DeleteFolderPayLoad, Map, String, String)}
+     */
+    private final ExecutorService deleteExecutor;
+
+    /**
+     * Runs the copies of {@link #moveFile(MoveFilePayload, Map, String, String, boolean)}
+     */
+    private final ExecutorService copyExecutor;
+
+    /**
+     * Runs the part copies of large objects. Kept apart from {@link #copyExecutor} whose threads wait for them.
+     */
+    private final ExecutorService copyPartExecutor;
+
+    /**
+     * Runs delete, move and copy requests in the background. This is {@code null} if the job store cannot be opened.
+     */
+    private final JobManager jobManager;
+
+    /**
+     * Accepts stored files before they are uploaded, or {@code null} if write-behind is disabled or the spool
+     * cannot be opened
+     */
+    private final WriteBehindSpool spool;
+
+    /**
+     * Per prefix request rate limit shared by the clients of all environments, or {@code null} if disabled
+     */
+    private final S3RequestRateLimiter rateLimiter;
+
+    /**
+     * Hedges the reads of small files, or {@code null} if disabled
+     */
+    private final S3HedgedReader hedgedReader;
+
+    /**
+     * Local copies of the files read, or {@code null} if disabled
+     */
+    private final DiskObjectCache diskCache;
+
+    /**
+     * Off-heap copies of the small files read, or {@code null} if disabled
+     */
+    private final OffHeapObjectCache memoryCache;
+
+    /**
+     * Collapses concurrent reads of the same file, keyed by environment, bucket and key
+     */
+    private final SingleFlight<List<String>, SharedContent> readFlights =
+            new SingleFlight<>("get", SharedContent::share, SharedContent::release);
+
+    /**
+     * Collapses concurrent listings of the same prefix, keyed by environment, bucket and prefix
+     */
+    private final SingleFlight<List<String>, List<S3ObjectSummary>> listFlights = new SingleFlight<>("list");
+
     /**
      * Constructs a new S3OperationsManager, which creates a temporary token based S3 client
      * This uses arn to assume a role and operate on behalf of that role.
@@ -108,15 +211,339 @@ public class S3OperationsManager {
     public S3OperationsManager(final ConfigurationConsts consts, final ExceptionHandler exceptionHandler) {
         this.consts = consts;
         this.exceptionHandler = exceptionHandler;
+        this.bucketExistenceCache = new BucketExistenceCache(consts.getAwsS3BucketExistsTtl(),
+                consts.getAwsS3BucketMissingTtl());
+        this.statCache = new ObjectStatCache(consts.getAwsS3StatExistsTtl(), consts.getAwsS3StatMissingTtl(),
+                consts.getAwsS3StatMaxEntries());
+        this.deleteExecutor = Executors.newFixedThreadPool(Math.max(1, consts.getAwsS3DeleteParallelism()), r -> {
+            final Thread thread = new Thread(r, "s3-batch-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.copyExecutor = Executors.newFixedThreadPool(Math.max(1, consts.getAwsS3CopyMaxConcurrency()), r -> {
+            final Thread thread = new Thread(r, "s3-copy");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.copyPartExecutor = Executors.newFixedThreadPool(Math.max(1, consts.getAwsS3CopyPartConcurrency()), r -> {
+            final Thread thread = new Thread(r, "s3-copy-part");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        rateLimiter = consts.isAwsS3RateLimitEnabled()
+                ? new S3RequestRateLimiter(consts.getAwsS3RateLimitReadRate(), consts.getAwsS3RateLimitWriteRate(),
+                consts.getAwsS3RateLimitMinimumRate(), consts.getAwsS3RateLimitRecoveryRate())
+                : null;
+        hedgedReader = consts.isAwsS3HedgeEnabled()
+                ? new S3HedgedReader(consts.getAwsS3HedgeMinimumDelay(), consts.getAwsS3HedgeBudgetPercent(),
+                consts.isVirtualThreadsEnabled())
+                : null;
+        diskCache = consts.isDiskCacheEnabled() ? createDiskCache() : null;
+        memoryCache = consts.isMemoryCacheEnabled()
+                ? new OffHeapObjectCache(consts.getMemoryCacheStaleAfter(),
+                consts.getAwsS3MaxFileSizeToTransferInMemory(), consts::getMemoryCacheMaxBytes)
+                : null;
+        storageTargets = new StorageTargetRegistry(consts::getEnvironmentContext, this::createS3Client,
+                this::createS3TransferManager, this::releaseS3Client, consts.getStorageRetireDelay());
+
+        metadataIndex = consts.isAwsS3IndexEnabled() ? createMetadataIndex() : null;
+        if (metadataIndex != null) {
+            indexReconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "s3-index-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            indexReconciler.scheduleWithFixedDelay(this::reconcileMetadataIndex, 0,
+                    consts.getAwsS3IndexReconcileInterval(), TimeUnit.MILLISECONDS);
+        } else {
+            indexReconciler = null;
+        }
+
+        if (consts.isAwsS3MoveJournalEnabled()) {
+            // Before the jobs resume, so a resumed move does not race the recovery of its own journal
+            recoverMoveJournals();
+        }
+        spool = consts.isAwsS3WriteBehindEnabled() ? createSpool() : null;
+        jobManager = createJobManager();
+    }
+
+    /**
+     * Open the write-behind spool and queue the writes a previous run left in it.
+     */
+    private WriteBehindSpool createSpool() {
+        try {
+            final WriteBehindSpool writeBehindSpool = new WriteBehindSpool(
+                    Paths.get(consts.getFileOperationTempDir(), ".spool"), consts.getAwsS3WriteBehindMaxBytes(),
+                    consts.getAwsS3WriteBehindThreads(), this::uploadSpooled);
+            writeBehindSpool.recover();
+            return writeBehindSpool;
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s createSpool: Write-behind disabled: %s", CLASS_NAME, e));
+            return null;
+        }
+    }
+
+    private String uploadSpooled(final String env, final String bname, final String key,
+                                 final Path file, final ObjectMetadata metadata) throws InterruptedException {
+        final UploadResult uploadResult = getAwsTransferManager(env)
+                .upload(new PutObjectRequest(bname, key, file.toFile()).withMetadata(metadata))
+                .waitForUploadResult();
+        indexPut(bname, key, file.toFile().length(), uploadResult.getETag());
+        return uploadResult.getETag();
+    }
+
+    private DiskObjectCache createDiskCache() {
+        try {
+            return new DiskObjectCache(Paths.get(consts.getFileOperationTempDir(), ".cache"),
+                    consts.getDiskCacheQuota(), consts.getDiskCacheMaxObjectSize(),
+                    DiskObjectCache.Policy.valueOf(consts.getDiskCachePolicy().trim().toUpperCase()));
+        } catch (IOException | IllegalArgumentException e) {
+            this.getlogger().error(String.format("%s createDiskCache: Disk cache disabled: %s", CLASS_NAME, e));
+            return null;
+        }
+    }
+
+    private Path getMoveJournalDirectory() {
+        return Paths.get(consts.getFileOperationTempDir(), ".journal");
+    }
+
+    /**
+     * Finish the moves that were interrupted by a crash or a restart, from their journals.
+     */
+    private void recoverMoveJournals() {
+        final List<Path> journals;
+        try {
+            journals = MoveJournal.list(getMoveJournalDirectory());
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s recoverMoveJournals: Cannot read the move journals: %s", CLASS_NAME, e));
+            return;
+        }
+        for (final Path journal : journals) {
+            recoverMove(journal);
+        }
+        if (!journals.isEmpty()) {
+            this.getlogger().info(String.format("%s recoverMoveJournals: %d interrupted moves recovered", CLASS_NAME, journals.size()));
+        }
+    }
+
+    /**
+     * Bring an unfinished move to a consistent state. If the copy phase did not complete the move is rolled back:
+     * the destinations of the copies journaled as done are deleted and the sources are left untouched. A copy that
+     * was sent but not journaled as done may or may not have landed; its destination is only deleted if it has the
+     * ETag and size of the source, so a destination that existed before the move and was not replaced is kept.
+     * Otherwise the move is rolled forward: the copied sources that were not deleted yet are deleted. The journal is
+     * removed when this succeeds and kept for the next startup when it does not.
+     *
+     * @param journalFile The journal of the move
+     * @return {@code true} if the move is now consistent
+     */
+    private boolean recoverMove(final Path journalFile) {
+        final String methodName = " | recoverMove | ";
+        try {
+            final MoveJournal.State state = MoveJournal.read(journalFile);
+            final DeleteReport report;
+            if (state.isCopyComplete()) {
+                final Set<String> pending = state.getPendingDeletes();
+                report = deleteMatchingObjects(getAwsClient(state.getEnv()), state.getBucket(), state.getPrefix(),
+                        key -> pending.contains(key) || pending.contains(normalizeFileName(key)), null, new long[]{0},
+                        state.getEnv(), "", "", "");
+            } else {
+                final AmazonS3 sourceS3 = getAwsClient(state.getEnv());
+                final AmazonS3 destinationS3 = getAwsClient(state.getDestinationEnv());
+                final S3BatchDeleter deleter = new S3BatchDeleter(destinationS3,
+                        state.getDestinationBucket(), deleteExecutor, consts.getAwsS3DeleteParallelism(),
+                        keys -> indexRemove(state.getDestinationBucket(), keys));
+                final List<String> destinations = state.getRollBackDeletes((sourceKey, destinationKey) -> isCopyOf(
+                        sourceS3, state.getBucket(), sourceKey, destinationS3, state.getDestinationBucket(), destinationKey));
+                for (final String destination : destinations) {
+                    deleter.add(destination);
+                }
+                final int kept = state.getPlanned().size() - destinations.size();
+                report = deleter.finish();
+                if (kept > 0) {
+                    this.getlogger().info(String.format("%s %s Move journal %s: %d destinations of unfinished copies "
+                            + "kept", CLASS_NAME, methodName, journalFile.getFileName(), kept));
+                }
+            }
+            this.getlogger().info(String.format("%s %s Move journal %s rolled %s, %d deleted, %d failed", CLASS_NAME,
+                    methodName, journalFile.getFileName(), state.isCopyComplete() ? "forward" : "back",
+                    report.getDeleted(), report.getFailed()));
+            if (report.getFailed() == 0) {
+                Files.deleteIfExists(journalFile);
+                return true;
+            }
+        } catch (IOException | AmazonClientException e) {
+            this.getlogger().error(String.format("%s %s Cannot recover move journal %s: %s", CLASS_NAME, methodName,
+                    journalFile.getFileName(), e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Open the job store under the file operation directory, register the job handlers and resume the jobs that
+     * were not finished when the service stopped.
+     *
+     * @return The job manager or {@code null} if the job store cannot be created
+     */
+    private JobManager createJobManager() {
+        final JobManager manager;
+        try {
+            manager = new JobManager(Paths.get(consts.getFileOperationTempDir(), ".jobs"),
+                    consts.getJobsThreads(), consts.getJobsQueueCapacity(), consts.getJobsRetention());
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s createJobManager: Cannot create the job store: %s", CLASS_NAME, e));
+            return null;
+        }
+        manager.register(JobType.DELETE, (job, options) -> removeDir(
+                mapper.readValue(job.getPayload(), DeleteFolderPayLoad.class), options, job.getEntityId(), job.getConnectorName()));
+        manager.register(JobType.MOVE, (job, options) -> moveFile(
+                mapper.readValue(job.getPayload(), MoveFilePayload.class), options, job.getEntityId(), job.getConnectorName(), true));
+        manager.register(JobType.COPY, (job, options) -> moveFile(
+                mapper.readValue(job.getPayload(), MoveFilePayload.class), options, job.getEntityId(), job.getConnectorName(), false));
+        manager.recover();
+        return manager;
+    }
+
+    /**
+     * Queue a delete, move or copy to run in the background.
+     *
+     * @param type             The operation
+     * @param payload          The request body of the operation
+     * @param optionsObjectMap The environment and correlation id
+     * @param entityId         Entity id to log
+     * @param connectorName    Connector name to log
+     * @return The queued job
+     * @throws GISTFileTransferExceptions If jobs are not available or the job queue is full
+     */
+    public Optional<JobRecord> submitJob(final JobType type,
+                                         final Object payload,
+                                         final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                         final String entityId,
+                                         final String connectorName) throws FileTransferException {
+        if (jobManager == null) {
+            throw new FileTransferException("Background jobs are not available");
+        }
+        return Optional.of(jobManager.submit(type, payload, optionsObjectMap, entityId, connectorName));
+    }
+
+    public Optional<JobRecord> getJob(final String id) {
+        return jobManager == null ? Optional.empty() : jobManager.get(id);
+    }
+
+    /**
+     * Open the metadata index under the file operation directory.
+     *
+     * @return The index or {@code null} if it cannot be created. Listings then always go to S3.
+     */
+    private S3MetadataIndex createMetadataIndex() {
+        try {
+            return new S3MetadataIndex(Paths.get(consts.getFileOperationTempDir(), ".s3index"),
+                    consts.getAwsS3IndexCompactionThreshold(), consts.getAwsS3IndexMaxEntries(),
+                    consts.getAwsS3IndexReconcilePages());
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s createMetadataIndex: Cannot create the metadata index: %s", CLASS_NAME, e));
+            return null;
+        }
+    }
+
+    /**
+     * Reconcile the metadata index of the bucket of every target in use with S3. Targets whose client was never
+     * built are skipped until they are used.
+     */
+    private void reconcileMetadataIndex() {
+        final Set<String> reconciled = new HashSet<>();
+        for (final EnvironmentContext target : storageTargets.getActiveTargets()) {
+            final AmazonS3 amazonS3 = getAwsClient(target.getName());
+            if (amazonS3 != null && reconciled.add(target.getBucketName())) {
+                metadataIndex.reconcile(target.getBucketName(), amazonS3);
+            }
+        }
+    }
+
+    /**
+     * Record an object written by this service in the metadata index, and drop what the stat and memory caches knew
+     * of it.
+     */
+    private void indexPut(final String bname, final String key, final long size, final String eTag) {
+        invalidateCaches(bname, key);
+        if (metadataIndex != null) {
+            metadataIndex.put(bname, new S3ObjectRecord(key, size, System.currentTimeMillis(), eTag, "", false));
+        }
+    }
+
+    /**
+     * Remove objects deleted by this service from the metadata index, the stat cache and the memory cache.
+     */
+    private void indexRemove(final String bname, final Collection<String> keys) {
+        for (final String key : keys) {
+            invalidateCaches(bname, key);
+        }
+        if (metadataIndex != null) {
+            metadataIndex.removeAll(bname, keys);
+        }
+    }
+
+    /**
+     * Drop what the stat and memory caches knew of a key that is changing, and detach the reads of the key and the
+     * listings of its parent prefixes in flight, so that later callers do not join a call that saw the old state.
+     */
+    private void invalidateCaches(final String bname, final String key) {
+        statCache.invalidate(bname, key);
+        if (memoryCache != null) {
+            memoryCache.invalidate(bname, key);
+        }
+        readFlights.detach(flight -> flight.get(1).equals(bname) && flight.get(2).equals(key));
+        listFlights.detach(flight -> flight.get(1).equals(bname) && key.startsWith(flight.get(2)));
+    }
 
-        s3ClientDefault = createS3Client(DEFAULT);
-        s3TransferManagerDefault = createS3TransferManager(DEFAULT);
+    /**
+     * Before a direct write or delete of keys, supersede their queued write-behind uploads and wait for the ones in
+     * progress, so that an older spooled write neither lands after the direct one nor is read instead of it.
+     */
+    private void supersedeSpooled(final String bname, final Predicate<String> keys) throws FileTransferException {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.supersede(bname, keys);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileTransferException("Interrupted while waiting for a write-behind upload");
+        }
+    }
 
-        s3ClientQa = createS3Client(QA);
-        s3TransferManagerQa = createS3TransferManager(QA);
+    /**
+     * Before keys are moved or renamed, wait until their write-behind uploads are done, so that the latest content
+     * is what gets moved.
+     *
+     * @throws FileTransferException {@link AWSConnectionException} with 503 if they are not done in time
+     */
+    private void flushSpooled(final String bname, final Predicate<String> keys) throws FileTransferException {
+        if (spool == null) {
+            return;
+        }
+        try {
+            if (!spool.flush(bname, keys, SPOOL_FLUSH_TIMEOUT_MILLIS)) {
+                throw new AWSConnectionException(SERVICE_UNAVAILABLE.value(),
+                        "Write-behind uploads of the files are still pending, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileTransferException("Interrupted while waiting for a write-behind upload");
+        }
+    }
 
-        s3ClientProduction = createS3Client(PRODUCTION);
-        s3TransferManagerProduction = createS3TransferManager(PRODUCTION);
+    /**
+     * @return The metadata a file stored through {@link #setFileStream} or {@link #spoolFileStream} gets: the content
+     * type guessed from its name
+     */
+    private static ObjectMetadata storedFileMetadata(final String key) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(Mimetypes.getInstance().getMimetype(key));
+        return metadata;
     }
 
     /***
@@ -126,71 +553,70 @@ public class S3OperationsManager {
      */
     @Trace
     private AmazonS3 getAwsClient(final String env) {
-        AmazonS3 awsClient;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                awsClient = s3ClientQa;
-                break;
-            case PRODUCTION:
-                awsClient = s3ClientProduction;
-                break;
-            default:
-                awsClient = s3ClientDefault;
-                break;
-        }
-        return awsClient;
+        return storageTargets.getClient(env);
     }
 
     @Trace
     private TransferManager getAwsTransferManager(final String env) {
-        TransferManager transferManager;
-        switch (env.trim().toUpperCase()) {
-            case QA:
-                transferManager = s3TransferManagerQa;
-                break;
-            case PRODUCTION:
-                transferManager = s3TransferManagerProduction;
-                break;
-            default:
-                transferManager = s3TransferManagerDefault;
-                break;
-        }
-        return transferManager;
+        return storageTargets.getTransferManager(env);
     }
 
     /**
      *
-     * @param env Environment for which the manager should be created
+     * @param amazonS3 The client of the environment for which the manager should be created
      * @return {@link TransferManager}
      */
-    private TransferManager createS3TransferManager(final String env) {
+    private TransferManager createS3TransferManager(final AmazonS3 amazonS3) {
         return TransferManagerBuilder.standard()
-                .withS3Client(getAwsClient(env))
+                .withS3Client(amazonS3)
                 .withDisableParallelDownloads(false)
                 .withMinimumUploadPartSize(consts.getAwsS3MinimumPartsize())
                 .withMultipartCopyPartSize(consts.getAwsS3MinimumPartsize())
-                .withExecutorFactory(() -> Executors.newFixedThreadPool(consts.getAwsS3MaxUploadthreads()))
+                .withExecutorFactory(this::createTransferExecutor)
                 .build();
     }
 
+    /**
+     * The pool a {@link TransferManager} runs its parts on, of virtual threads in the virtual thread mode. Its size
+     * still bounds the parts of a transfer in flight.
+     */
+    private ExecutorService createTransferExecutor() {
+        return VirtualThreads.newFixedThreadPool(consts.isVirtualThreadsEnabled(), consts.getAwsS3MaxUploadthreads(),
+                "s3-transfer-");
+    }
+
+    /**
+     * Release the STS credential provider of a client retired by {@link #storageTargets}.
+     */
+    private void releaseS3Client(final AmazonS3 amazonS3) {
+        final STSRefreshCredentialsProvider credentials = clientCredentials.remove(amazonS3);
+        if (credentials != null) {
+            STSSessionRegistry.release(credentials);
+        }
+    }
+
     /**
      * Constructs a new {@link AmazonS3} object. This object is inorder used to do operations on S3
      *
-     * @param env The environment for the client. It can be either Qa or production. If this value is empty or null then
-     *            the default client is created.
+     * @param context The settings of the environment or storage target for the client
      * @return {@link AmazonS3}
      */
-    private AmazonS3 createS3Client(final String env) {
+    private AmazonS3 createS3Client(final EnvironmentContext context) {
         final String methodName = " | createS3Client | ";
         TimeIt timeIt = new TimeIt(methodName, "", "", "");
         AmazonS3 amazonS3 = null;
         try {
             timeIt.start();
             System.setProperty("java.net.useSystemProxies", "true");
-            final RetryPolicy retryPolicy = new RetryPolicy(DEFAULT_RETRY_CONDITION,
-                    DEFAULT_BACKOFF_STRATEGY,
-                    consts.getAwsMaxRetries(),
-                    true);
+            final S3CircuitBreaker circuitBreaker = S3CircuitBreaker.forEnvironment(context.getName(),
+                    new S3CircuitBreaker.Settings(consts.isAwsCircuitEnabled(), consts.getAwsCircuitFailureRate(),
+                            consts.getAwsCircuitMinimumRequests(), consts.getAwsCircuitWindow(),
+                            consts.getAwsCircuitOpenDuration(), consts.getGistAWSExceptions503(),
+                            consts.getGistAWSExceptions504()));
+            final S3RetryBudget retryBudget = S3RetryBudget.forEnvironment(context.getName(),
+                    consts.getAwsRetryBudgetPercent(), consts.getAwsRetryBudgetMinimum(), consts.getAwsCircuitWindow());
+            final RetryPolicy retryPolicy = S3RetryPolicy.create(circuitBreaker, retryBudget,
+                    consts.getAwsMaxRetries(), consts.getAwsRetryBaseDelay(), consts.getAwsRetryMaxDelay());
 
             final ClientConfiguration clientConfiguration = new ClientConfiguration()
 //                    .withRequestTimeout(consts.getAwsS3ClientRequestTimeout())
@@ -202,7 +628,19 @@ public class S3OperationsManager {
                     .withRetryPolicy(retryPolicy)
                     .withMaxConsecutiveRetriesBeforeThrottling(consts.getMaxConsecutiveRetriesBeforeThrottling())
 //                    .withMaxConsecutiveRetriesBeforeThrottling(200)
-                    .withConnectionTTL(consts.getAwsS3ClientConnectionTtl());
+                    .withConnectionTTL(consts.getAwsS3ClientConnectionTtl())
+                    .withMaxConnections(context.getMaxConnections())
+                    .withTcpKeepAlive(consts.isAwsS3ClientTcpKeepAlive())
+                    .withValidateAfterInactivityMillis(consts.getAwsS3ClientValidateAfterInactivity())
+                    .withConnectionMaxIdleMillis(consts.getAwsS3ClientConnectionMaxIdle())
+                    .withReaper(consts.isAwsS3ClientUseReaper());
+            if (context.getSocketSendBufferSize() > 0 || context.getSocketReceiveBufferSize() > 0) {
+                clientConfiguration.setSocketBufferSizeHints(context.getSocketSendBufferSize(),
+                        context.getSocketReceiveBufferSize());
+            }
+            this.getlogger().info(String.format("%s %s Env %s: pool size %d, socket buffers %d/%d", CLASS_NAME,
+                    methodName, context.getName(), context.getMaxConnections(), context.getSocketSendBufferSize(),
+                    context.getSocketReceiveBufferSize()));
 
             if (consts.getConcurProxyHost() != null && !consts.getConcurProxyHost().isEmpty()) {
                 clientConfiguration.setProxyHost(consts.getConcurProxyHost().trim());
@@ -220,12 +658,25 @@ public class S3OperationsManager {
                 this.getlogger().info("getS3Client: No non-proxy set for S3 Client");
             }
 
-            final AWSCredentials basicAWSCredentials = new BasicAWSCredentials(consts.getKid(env), consts.getAkey(env));
-            amazonS3 = AmazonS3ClientBuilder.standard()
-                    .withCredentials(new STSRefreshCredentialsProvider(basicAWSCredentials, consts.getAwsArn(env), clientConfiguration))
-                    .withRegion(consts.getAwsBucketRegion(env))
-                    .withClientConfiguration(clientConfiguration)
-                    .build();
+            final AWSCredentials basicAWSCredentials = new BasicAWSCredentials(context.getKid(), context.getAkey());
+            final STSRefreshCredentialsProvider credentials = STSSessionRegistry.forRole(basicAWSCredentials,
+                    context.getArn(), consts.isAwsStsRegionalEndpoint() ? context.getBucketRegion() : null,
+                    consts.getAwsStsSessionDuration(), clientConfiguration);
+            try {
+                amazonS3 = AmazonS3ClientBuilder.standard()
+                        .withCredentials(credentials)
+                        .withRegion(context.getBucketRegion())
+                        .withClientConfiguration(clientConfiguration)
+                        .withMetricsCollector(S3PoolMetricCollector.forEnvironment(context.getName(), context.getMaxConnections()))
+                        .withRequestHandlers(rateLimiter == null
+                                ? new RequestHandler2[]{circuitBreaker, retryBudget}
+                                : new RequestHandler2[]{circuitBreaker, rateLimiter, retryBudget})
+                        .build();
+            } catch (RuntimeException e) {
+                STSSessionRegistry.release(credentials);
+                throw e;
+            }
+            clientCredentials.put(amazonS3, credentials);
             this.getlogger().info("getS3Client: S3 client built");
         } catch (Exception e) {
             this.getlogger().error("getS3Client: Exception: %s", e);
@@ -234,6 +685,170 @@ public class S3OperationsManager {
         return amazonS3;
     }
 
+    /**
+     * Fetch a file for {@link #getFileInputStream}. Concurrent reads of the same file share one fetch through
+     * {@link #readFlights}. Small files are served from the memory cache when it is enabled. Otherwise, with the
+     * disk cache enabled the file comes from the disk cache, and hedged reads are not used. Small files come back in
+     * memory. Larger ones come back as a temporary file that is deleted when the last reader closes it.
+     *
+     * @return The content, or {@code null} if the transfer manager did not start the download
+     */
+    private SharedContent fetchFile(final String env, final String bname, final String remoteDir,
+                                    final String fullFileName, final String correlationId, final String entityId,
+                                    final String connectorName) throws IOException, InterruptedException {
+        final String methodName = " | fetchFile | ";
+        if (memoryCache != null && !memoryCache.isTooLarge(bname, fullFileName)) {
+            final SharedContent cached = readSmallFileCached(env, bname, fullFileName, correlationId, entityId,
+                    connectorName);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (hedgedReader != null && diskCache == null) {
+            try {
+                final byte[] content = readSmallFileHedged(env, bname, fullFileName, correlationId, entityId,
+                        connectorName);
+                if (content != null) {
+                    return SharedContent.ofBytes(content);
+                }
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() == NOT_FOUND.value()) {
+                    throw e;
+                }
+                this.getlogger().error(String.format("%s %s: hedged read failed, downloading instead: %s", CLASS_NAME,
+                        methodName, e), correlationId, entityId, connectorName);
+            } catch (SdkClientException | IOException e) {
+                this.getlogger().error(String.format("%s %s: hedged read failed, downloading instead: %s", CLASS_NAME,
+                        methodName, e), correlationId, entityId, connectorName);
+            }
+        }
+        final Path localFilePath = Files.createDirectories(Paths.get(consts.getFileOperationTempDir(), remoteDir));
+        final Long timestamp = Instant.now().toEpochMilli();
+        final Path path = createTempFile(localFilePath, consts.getAwsTempDownloadfilePrefix(),
+                timestamp.toString() + ".download");
+        boolean keepFile = false;
+        try {
+            if (diskCache == null || !diskCache.fetch(getAwsClient(env), bname, fullFileName, path)) {
+                final Download download = getAwsTransferManager(env).download(bname, fullFileName, path.toFile());
+                if (download == null) {
+                    final String msg = String.format("Unknown error in downloading file %s in for env %s", fullFileName, env);
+                    this.getlogger().error(String.format("%s %s %s", CLASS_NAME, methodName, msg), correlationId, entityId, connectorName);
+                    return null;
+                }
+                download.waitForCompletion();
+                final String msg =
+                        String.format("%s %s Successfully downloaded file %s in for env %s and completion description %s and content length %s",
+                        CLASS_NAME, methodName, fullFileName, env, download.getDescription(),
+                        download.getProgress().getBytesTransferred());
+                this.getlogger().info(msg, correlationId, entityId, connectorName);
+            }
+            if (Files.size(path) > consts.getAwsS3MaxFileSizeToTransferInMemory()) {
+                keepFile = true;
+                return SharedContent.ofFile(path);
+            }
+            return SharedContent.ofBytes(Files.readAllBytes(path));
+        } finally {
+            if (!keepFile) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Read a small file through the memory cache. A fresh entry is served as it is, a stale one is revalidated with
+     * a GET conditional on its ETag, and a file that is not cached is read with a GET pinned to the ETag its stat
+     * reports, so that the ETag recorded is never newer than the content.
+     *
+     * @return The content, or {@code null} if the file is missing, too large for the cache or changed since its stat
+     */
+    private SharedContent readSmallFileCached(final String env, final String bname, final String fullFileName,
+                                              final String correlationId, final String entityId,
+                                              final String connectorName) throws IOException {
+        final String partition = consts.getEnvironmentContext(env).getName();
+        final OffHeapObjectCache.Entry cached = memoryCache.get(partition, bname, fullFileName);
+        if (cached != null && cached.isFresh()) {
+            return SharedContent.ofBuffer(cached.getContent());
+        }
+        final AmazonS3 amazonS3 = getAwsClient(env);
+        final GetObjectRequest request = new GetObjectRequest(bname, fullFileName);
+        final long generation = memoryCache.generation();
+        try {
+            if (cached != null) {
+                request.withNonmatchingETagConstraint(cached.getETag());
+            } else {
+                final S3ObjectRecord record = statCache.stat(amazonS3, bname, fullFileName);
+                if (record == null) {
+                    return null;
+                }
+                if (!memoryCache.isCacheable(record.getSize())) {
+                    memoryCache.markTooLarge(bname, fullFileName);
+                    return null;
+                }
+                request.withMatchingETagConstraint(record.getETag());
+            }
+            try (S3Object object = amazonS3.getObject(request)) {
+                if (object == null) {
+                    if (cached == null) {
+                        statCache.invalidate(bname, fullFileName);
+                        return null;
+                    }
+                    memoryCache.validated(cached);
+                    return SharedContent.ofBuffer(cached.getContent());
+                }
+                if (!memoryCache.isCacheable(object.getObjectMetadata().getContentLength())) {
+                    object.getObjectContent().abort();
+                    memoryCache.invalidate(bname, fullFileName);
+                    memoryCache.markTooLarge(bname, fullFileName);
+                    return null;
+                }
+                final byte[] content = IOUtils.toByteArray(object.getObjectContent());
+                memoryCache.put(partition, bname, fullFileName, object.getObjectMetadata().getETag(), content,
+                        generation);
+                this.getlogger().info(String.format("%s readSmallFileCached: Cached %s for env %s, %d bytes",
+                        CLASS_NAME, fullFileName, env, content.length), correlationId, entityId, connectorName);
+                return SharedContent.ofBytes(content);
+            }
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == NOT_FOUND.value()) {
+                memoryCache.invalidate(bname, fullFileName);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read a file of at most {@code gist.aws.s3.hedge.maxObjectSize} bytes into memory with hedged HEAD and GET
+     * requests. The GET is pinned to the ETag of the HEAD.
+     *
+     * @return The content, or {@code null} if the file is larger or changed between the two requests
+     */
+    private byte[] readSmallFileHedged(final String env, final String bname, final String fullFileName,
+                                       final String correlationId, final String entityId,
+                                       final String connectorName) throws IOException {
+        final AmazonS3 amazonS3 = getAwsClient(env);
+        final ObjectMetadata metadata = hedgedReader.execute("head",
+                () -> amazonS3.getObjectMetadata(bname, fullFileName), ignored -> { });
+        if (metadata.getContentLength() > consts.getAwsS3HedgeMaxObjectSize()) {
+            return null;
+        }
+        final GetObjectRequest request = new GetObjectRequest(bname, fullFileName)
+                .withMatchingETagConstraint(metadata.getETag());
+        final byte[] content;
+        try (S3Object object = hedgedReader.execute("get", () -> amazonS3.getObject(request), loser -> {
+            if (loser != null) {
+                loser.getObjectContent().abort();
+            }
+        })) {
+            if (object == null) {
+                return null;
+            }
+            content = IOUtils.toByteArray(object.getObjectContent());
+        }
+        this.getlogger().info(String.format("%s readSmallFileHedged: Read %s for env %s, %d bytes", CLASS_NAME,
+                fullFileName, env, content.length), correlationId, entityId, connectorName);
+        return content;
+    }
+
     /**
      * Normalize the file name so that it adheres to S3 standard.
      *
@@ -298,15 +913,15 @@ public class S3OperationsManager {
         timeIt.start();
         Optional<Path> pathOptional = Optional.empty();
         try {
-            final long partSize = 10 * 1024 * 1024;
-            final TransferManager tm = TransferManagerBuilder.standard()
-                    .withS3Client(getAwsClient(env))
-                    .withDisableParallelDownloads(false)
-                    .withMinimumUploadPartSize(partSize)
-                    .withExecutorFactory(() -> Executors.newFixedThreadPool(consts.getAwsS3MaxUploadthreads()))
-                    .build();
+            if (diskCache != null && diskCache.fetch(getAwsClient(env), consts.getAwsBucketName(env), remoteFileName,
+                    locaFilePath)) {
+                this.getlogger().info(String.format("downloadFile: fullFileName: %s, size: %s, from the disk cache",
+                        localFile, localFile.length()), correlationId, entityId, connectorName);
+                timeIt.stop();
+                return Optional.of(locaFilePath);
+            }
             final Download download =
-                    tm.download(consts.getAwsBucketName(env), remoteFileName, localFile);
+                    getAwsTransferManager(env).download(consts.getAwsBucketName(env), remoteFileName, localFile);
             download.waitForCompletion();
             pathOptional = Optional.of(localFile.toPath());
             this.getlogger().info(String.format("downloadFile: fullFileName: %s, size: %s", localFile, localFile.length()), correlationId, entityId, connectorName);
@@ -375,27 +990,24 @@ public class S3OperationsManager {
         final String methodName = " | uploadFile | ";
         FileOperationResponse fileOperationResponse = null;
         final String env = normalizeFileName((String) optionsObjectMap.get(ENVIRONMENT));
-        final TransferManager tm = TransferManagerBuilder.standard()
-                .withDisableParallelDownloads(false)
-                .withExecutorFactory(() -> Executors.newFixedThreadPool(consts.getAwsS3MaxUploadthreads()))
-                .withS3Client(getAwsClient(env))
-                .build();
         final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
         final String userDirectory = normalizeFileName((String) optionsObjectMap.get(REMOTE_DIR));
         final TimeIt timeIt = new TimeIt( methodName, correlationId, "", "");
         timeIt.start();
         final String fullFileName = joinPaths(userDirectory, multipartFile.getOriginalFilename());
+        supersedeSpooled(consts.getAwsBucketName(env), fullFileName::equals);
         try {
             final ObjectMetadata objectMetadata = new ObjectMetadata();
             objectMetadata.setContentLength(multipartFile.getSize());
             objectMetadata.setContentType(multipartFile.getContentType());
             final Upload upload =
-                    tm.upload(consts.getAwsBucketName(env), fullFileName, multipartFile.getInputStream(), objectMetadata);
+                    getAwsTransferManager(env).upload(consts.getAwsBucketName(env), fullFileName, multipartFile.getInputStream(), objectMetadata);
             final UploadResult uploadResult = upload.waitForUploadResult();
             if (upload.isDone()) {
                 multipartFile.getInputStream().close();
             }
 
+            indexPut(uploadResult.getBucketName(), uploadResult.getKey(), multipartFile.getSize(), uploadResult.getETag());
             fileOperationResponse = new FileOperationResponse(uploadResult.getKey(), multipartFile.getSize());
         } catch (ClientExecutionTimeoutException e) {
             final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
@@ -470,17 +1082,43 @@ public class S3OperationsManager {
                                                     String entityId,
                                                     String connectorName)
             throws FileTransferException {
+        return listObjectRecords(optionsObjectMap, includeFolder, entityId, connectorName)
+                .map(records -> records.stream().map(S3ObjectRecord::getKey).collect(Collectors.toList()));
+    }
+
+    /**
+     * List the objects in the particular folder in S3 with their size, last modified time, ETag and storage class.
+     * Besides the regular expression this applies the {@link ListingFilter} in the options, if there is one, and
+     * sorts the result in its order. Without a filter the objects come back in key order.
+     *
+     * @param optionsObjectMap Different options needed. This has the remote directory to list files from, the regular
+     *                         expression and the optional {@link ListingFilter} to filter the listed files
+     * @param includeFolder    If this is true then display folders too, else only files are gathered
+     * @param entityId         The entity id to log
+     * @param connectorName    The connector name to log
+     * @return List of the matching objects with their keys normalized
+     * @throws GISTFileTransferExceptions
+     */
+    @Trace
+    public Optional<List<S3ObjectRecord>> listObjectRecords(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                                            final boolean includeFolder,
+                                                            String entityId,
+                                                            String connectorName)
+            throws FileTransferException {
         final String methodName = " | listFilesInFolder | ";
         final String remoteDir = (String) optionsObjectMap.get(REMOTE_DIR);
         final String env = (String) optionsObjectMap.get(ENVIRONMENT);
         final String regularExpression = (String) optionsObjectMap.get(REGULAR_EXPRESSION);
         final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
         final String bname = consts.getAwsBucketName(env);
-        final String startMsg = String.format("%s %s Start with remote dir %s, env %s", CLASS_NAME, methodName, remoteDir, env);
+        final ListingConsistency consistency = ListingConsistency.from(optionsObjectMap.get(CONSISTENCY));
+        final ListingFilter listingFilter = (ListingFilter) optionsObjectMap.get(LISTING_FILTER);
+        final String startMsg = String.format("%s %s Start with remote dir %s, env %s, consistency %s",
+                CLASS_NAME, methodName, remoteDir, env, consistency);
         this.getlogger().info(startMsg, correlationId, entityId, connectorName);
         final TimeIt timeIt = new TimeIt(methodName, correlationId, entityId, connectorName);
         timeIt.start();
-        final List<String> fileList = new ArrayList<>();
+        final List<S3ObjectRecord> fileList = new ArrayList<>();
         final AmazonS3 amazonS3 = getAwsClient(env);
         try {
             if (amazonS3 == null) {
@@ -494,29 +1132,32 @@ public class S3OperationsManager {
                         CLASS_NAME, methodName, remoteDir, env);
                 this.getlogger().info(msg, correlationId, entityId, connectorName);
             }
-            if (amazonS3.doesBucketExistV2(bname)) {
+            final Pattern filePattern = Pattern.compile(regularExpression);
+            final Optional<List<S3ObjectRecord>> indexed = consistency == ListingConsistency.INDEX && metadataIndex != null
+                    ? metadataIndex.scan(bname, remoteDir)
+                    : Optional.empty();
+            if (indexed.isPresent()) {
+                this.getlogger().info(String.format("%s %s Answering from the metadata index with %d candidates",
+                        CLASS_NAME, methodName, indexed.get().size()), correlationId, entityId, connectorName);
+                for (final S3ObjectRecord record : indexed.get()) {
+                    addListedFile(fileList, record, includeFolder, filePattern, listingFilter);
+                }
+            } else if (bucketExistenceCache.exists(bname, amazonS3)) {
+                if (consistency == ListingConsistency.INDEX) {
+                    this.getlogger().warn(String.format("%s %s Metadata index not available for bucket %s. Listing from S3",
+                            CLASS_NAME, methodName, bname), correlationId, entityId, connectorName);
+                }
                 this.getlogger().info("listFilesInFolder ListObjectsV2Result Bucket exists. Proceeding with listing files",
                         correlationId, entityId, connectorName);
-                final ListObjectsV2Result result = amazonS3.listObjectsV2(bname, remoteDir);
-                this.getlogger().info(
-                        "listFilesInFolder ListObjectsV2Result prefix: " + result.getPrefix() + " ; common prefix: " +
-                                result.getCommonPrefixes().toString() + " ;getStartAfter: " + result.getStartAfter(),
-                        correlationId, entityId, connectorName);
-                final List<S3ObjectSummary> objects = result.getObjectSummaries();
-                final Pattern filePattern = Pattern.compile(regularExpression);
+                final List<S3ObjectSummary> objects = listFlights.execute(
+                        Arrays.asList(consts.getEnvironmentContext(env).getName(), bname, remoteDir),
+                        () -> listObjects(amazonS3, bname, remoteDir));
                 this.getlogger().info(String.format("%s %s Found %d objects", CLASS_NAME, methodName, objects.size()),
                         correlationId, entityId, connectorName);
                 for (final S3ObjectSummary os : objects) {
-                    final String objName = normalizeFileName(os.getKey());
-                    this.getlogger().info(String.format("* %s, Size: %s, ETag: %s", objName, os.getSize(), os.getETag()),
+                    this.getlogger().info(String.format("* %s, Size: %s, ETag: %s", os.getKey(), os.getSize(), os.getETag()),
                             correlationId, entityId, connectorName);
-                    if (!objName.equalsIgnoreCase("") && (includeFolder || os.getSize() > 0)) {
-                        // Add the file object only if the name matches the pattern
-                        final String[] fileNameElements = objName.split(SEPERATOR);
-                        if (filePattern.matcher(fileNameElements[fileNameElements.length - 1]).matches()) {
-                            fileList.add(objName);
-                        }
-                    }
+                    addListedFile(fileList, S3ObjectRecord.from(os, false), includeFolder, filePattern, listingFilter);
                 }
             } else {
                 final String msg = String.format("Root directory %s does not exist in bucket %s",
@@ -524,6 +1165,9 @@ public class S3OperationsManager {
                 this.getlogger().error(String.format("%s %s %s", CLASS_NAME, methodName, msg), correlationId, entityId, connectorName);
                 throw new RootDirectoryDoesNotExistException(msg);
             }
+            if (listingFilter != null) {
+                fileList.sort(listingFilter.comparator());
+            }
         } catch (ClientExecutionTimeoutException e) {
             final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
             this.getlogger().error(msg, correlationId, entityId, connectorName);
@@ -565,23 +1209,110 @@ public class S3OperationsManager {
     }
 
     /**
-     * Create the remote directory on S3.
+     * List all the objects under a prefix. Concurrent listings of the same prefix share one listing through
+     * {@link #listFlights}, so the result is not modifiable. Every caller applies its own filters to it.
+     */
+    private List<S3ObjectSummary> listObjects(final AmazonS3 amazonS3, final String bname, final String prefix) {
+        final List<S3ObjectSummary> objects = new ArrayList<>();
+        forEachObjectPage(amazonS3, bname, prefix, objects::addAll);
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * List all the objects under a prefix page by page and hand every page to the consumer as it arrives.
      *
-     * @param createDirectoryPayload The {@link CreateDirectoryPayload} for capturing the payload for creating the
-     *                               directory
-     * @param optionsObjectMap       Various options that will be needed by this method
-     * @param entityId               Entity id to log
-     * @param connectorName          Connector name to log
-     * @return IF success the created directory path
-     * @throws GISTFileTransferExceptions
+     * @param amazonS3     The client to list with
+     * @param bname        The bucket
+     * @param prefix       The prefix to list
+     * @param pageConsumer Called once per listing page, in key order
      */
-    @Trace
-    public Optional<String> createdDir(final CreateDirectoryPayload createDirectoryPayload,
-                                       final Map<FileSystemOptionKeys, Object> optionsObjectMap,
-                                       final String entityId,
-                                       final String connectorName) throws FileTransferException {
-        final String methodName = " | createdDir | ";
-        final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
+    private void forEachObjectPage(final AmazonS3 amazonS3, final String bname, final String prefix,
+                                   final Consumer<List<S3ObjectSummary>> pageConsumer) {
+        final ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bname)
+                .withPrefix(prefix);
+        ListObjectsV2Result result;
+        do {
+            result = amazonS3.listObjectsV2(request);
+            pageConsumer.accept(result.getObjectSummaries());
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+    }
+
+    /**
+     * List all the versions and delete markers under a prefix page by page and hand every page to the consumer as
+     * it arrives. The versions of a key are listed together, newest first.
+     *
+     * @param amazonS3     The client to list with
+     * @param bname        The bucket
+     * @param prefix       The prefix to list
+     * @param pageConsumer Called once per listing page, in key order
+     */
+    private void forEachVersionPage(final AmazonS3 amazonS3, final String bname, final String prefix,
+                                    final Consumer<List<S3VersionSummary>> pageConsumer) {
+        VersionListing versionListing = amazonS3.listVersions(new ListVersionsRequest()
+                .withBucketName(bname)
+                .withPrefix(prefix));
+        pageConsumer.accept(versionListing.getVersionSummaries());
+        while (versionListing.isTruncated()) {
+            versionListing = amazonS3.listNextBatchOfVersions(versionListing);
+            pageConsumer.accept(versionListing.getVersionSummaries());
+        }
+    }
+
+    /**
+     * Add a listed object to the listing result if it passes the folder check, the regular expression and the
+     * listing filter. The key in the added record is normalized.
+     */
+    private void addListedFile(final List<S3ObjectRecord> fileList, final S3ObjectRecord record,
+                               final boolean includeFolder, final Pattern filePattern,
+                               final ListingFilter listingFilter) {
+        final String objName = normalizeFileName(record.getKey());
+        if (isListedFile(objName, record.getSize(), includeFolder, filePattern)
+                && (listingFilter == null || listingFilter.matches(record))) {
+            fileList.add(objName.equals(record.getKey()) ? record
+                    : new S3ObjectRecord(objName, record.getSize(), record.getLastModified(), record.getETag(),
+                    record.getStorageClass(), record.isVersioned()));
+        }
+    }
+
+    /**
+     * Decide if a listed object is returned by {@link #listObjectRecords(Map, boolean, String, String)}.
+     *
+     * @param objName       The normalized key of the object
+     * @param size          The size of the object. Folder markers have size 0.
+     * @param includeFolder If this is true then folders are accepted too
+     * @param filePattern   The pattern the last element of the key has to match
+     * @return {@code true} if the object is part of the listing
+     */
+    private boolean isListedFile(final String objName, final long size, final boolean includeFolder,
+                                 final Pattern filePattern) {
+        if (objName.equalsIgnoreCase("") || !(includeFolder || size > 0)) {
+            return false;
+        }
+        // Add the file object only if the name matches the pattern
+        final String[] fileNameElements = objName.split(SEPERATOR);
+        return filePattern.matcher(fileNameElements[fileNameElements.length - 1]).matches();
+    }
+
+    /**
+     * Create the remote directory on S3.
+     *
+     * @param createDirectoryPayload The {@link CreateDirectoryPayload} for capturing the payload for creating the
+     *                               directory
+     * @param optionsObjectMap       Various options that will be needed by this method
+     * @param entityId               Entity id to log
+     * @param connectorName          Connector name to log
+     * @return IF success the created directory path
+     * @throws GISTFileTransferExceptions
+     */
+    @Trace
+    public Optional<String> createdDir(final CreateDirectoryPayload createDirectoryPayload,
+                                       final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                       final String entityId,
+                                       final String connectorName) throws FileTransferException {
+        final String methodName = " | createdDir | ";
+        final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
         final String env = (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "");
         final String startMsg =
                 String.format("%s %s Start create of folder %s and path %s in env %s",
@@ -623,7 +1354,8 @@ public class S3OperationsManager {
             final String bname = consts.getAwsBucketName(env);
             putObjectRequest = new PutObjectRequest(bname,
                     remoteDir + SEPERATOR + createPath + SEPERATOR, emptyContent, metadata);
-            getAwsClient(env).putObject(putObjectRequest);
+            final PutObjectResult putObjectResult = getAwsClient(env).putObject(putObjectRequest);
+            indexPut(bname, putObjectRequest.getKey(), 0, putObjectResult.getETag());
             final String msg = String.format("%s %s Response %s ", CLASS_NAME, methodName, putObjectRequest.getKey());
             this.getlogger().info(msg, correlationId, entityId, connectorName);
         } catch (ClientExecutionTimeoutException e) {
@@ -697,105 +1429,83 @@ public class S3OperationsManager {
         this.getlogger().info(startMsg, correlationId, entityId, connectorName);
         final TimeIt timeIt = new TimeIt( methodName, correlationId, entityId, connectorName);
         timeIt.start();
-        final Optional<List<String>> fileListResult =
-                listFilesInFolder(optionsObjectMap, true, entityId, connectorName);
-        if (fileListResult.isPresent()) {
-            prettyPrintJson("listFilesInFolder: %s", fileListResult.get());
-            final List<String> fileListToDelete = fileListResult.get();
-            if (!fileListToDelete.isEmpty()) {
-                final String bname = consts.getAwsBucketName(env);
-                final AmazonS3 awsS3Client = getAwsClient(env);
-                try {
-                    // Check to ensure that the bucket is versioning-enabled.
-                    final String bucketVersionStatus =
-                            getAwsClient(env).getBucketVersioningConfiguration(bname).getStatus();
-                    String msg = String.format("%s %s Bucket %s, version info: %s in env: %s", CLASS_NAME, methodName,
-                            bname, bucketVersionStatus, env);
-                    this.getlogger().info(msg, correlationId, entityId, connectorName);
-
-                    DeleteObjectsRequest multiObjectDeleteRequest;
-                    /*
-                    / Following reasoning is used:
-                    / 1. If Versioning is not enabled in bucket then regular deletion is used in bucket
-                    / 2. If versioning is enabled but the key deleteAllVersions is false then also regular deletion is used,
-                    /    older versions are retained.
-                    / 3. IF versioning is enabled but retainOlderFileVersions is true delete all versions
-                    */
-                    if(!bucketVersionStatus.equals(BucketVersioningConfiguration.ENABLED)) {
-                        // Versioning not enabled
-                        multiObjectDeleteRequest = new DeleteObjectsRequest(bname)
-                                .withQuiet(false)
-                                .withKeys(fileListToDelete.toArray(new String[0]));
-                    } else {
-                        // Versioning is enabled
-                        final List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
-                        if(consts.getRetainOlderFileVersions()) {
-                            // retain older versions
-                            fileListToDelete
-                                    .parallelStream()
-                                    .forEachOrdered(k -> keys.add(new DeleteObjectsRequest.KeyVersion(k)));
-                        } else {
-                            // Delete all versions
-                            fileListToDelete
-                                    .parallelStream()
-                                    .map(k -> findAllVersionsToDelete(k, env, awsS3Client, entityId, connectorName, ""))
-                                    .forEach(keys::addAll);
-                        }
-                        multiObjectDeleteRequest =
-                                new DeleteObjectsRequest(bname)
-                                        .withKeys(keys)
-                                        .withQuiet(false);
-                    }
-                    // Delete objects and Verify that the objects were deleted successfully.
-                    final DeleteObjectsResult delObjRes = awsS3Client.deleteObjects(multiObjectDeleteRequest);
-                    final int deletedFiles = delObjRes.getDeletedObjects().size();
-
-                    result = Optional.of("Number of files deleted: " + deletedFiles);
-
-                    msg = String.format("%s %s Number of files to delete: %s, files deleted: %s", CLASS_NAME, methodName,
-                            deletedFiles, fileListToDelete);
-                    this.getlogger().info(msg, correlationId, entityId, connectorName);
-                } catch (ClientExecutionTimeoutException e) {
-                    final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                 
-                } catch (AmazonS3Exception e) {
-                    final String msg = String.format("%s %s: AmazonS3Exception %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                   
-                } catch (AmazonServiceException e) {
-                    final String msg = String.format("%s %s: AmazonServiceException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                   
-                } catch (SdkClientException e) {
-                    final String msg = String.format("%s %s: SdkClientException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                    
-                } catch (AmazonClientException e) {
-                    final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                  
-                } catch (HttpClientErrorException e) {
-                    final String msg = String.format("%s %s: HttpClientErrorException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                    
-                } catch (ResourceAccessException e) {
-                    final String msg = String.format("%s %s: ResourceAccessException %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                  
-                } catch (Exception e) {
-                    final String msg = String.format("%s %s: Exception %s", CLASS_NAME, methodName, e);
-                    this.getlogger().error(msg, correlationId, entityId, connectorName);
-                   
-                }
-            } else {
-                this.getlogger().error("removeDir: File list to delete empty");
-                throw new FileTransferException("Folder not found");
-            }
-        } else {
+        final String remoteDir = deleteFolderPayLoad.getDirectorName();
+        final String bname = consts.getAwsBucketName(env);
+        final AmazonS3 awsS3Client = getAwsClient(env);
+        if (awsS3Client == null) {
             this.getlogger().error("removeDir: Could not retrieve the list of files to delete.");
             throw new FileTransferException("Could not retrieve the list of files to delete.");
         }
+        final long[] matchedFiles = {0};
+        try {
+            if (!bucketExistenceCache.exists(bname, awsS3Client)) {
+                this.getlogger().error("removeDir: Could not retrieve the list of files to delete.");
+                throw new RootDirectoryDoesNotExistException(String.format("Root directory %s does not exist in bucket %s",
+                        remoteDir, bname));
+            }
+            final Pattern filePattern = Pattern.compile(deleteFolderPayLoad.getRegularExpressionString());
+            final String prefix = normalizeFileName(remoteDir);
+            supersedeSpooled(bname, key -> key.startsWith(prefix)
+                    && isListedFile(normalizeFileName(key), 0, true, filePattern));
+            final JobProgress progress = (JobProgress) optionsObjectMap.get(JOB_PROGRESS);
+            final DeleteReport report = deleteMatchingObjects(awsS3Client, bname, remoteDir,
+                    key -> isListedFile(normalizeFileName(key), 0, true, filePattern),
+                    progress == null ? null : keys -> progress.processed(keys.size()), matchedFiles,
+                    env, entityId, connectorName, correlationId);
+            if (progress != null && report.getFailed() > 0) {
+                progress.failed(report.getFailed(), report.getErrors());
+            }
+            if (matchedFiles[0] > 0) {
+                result = Optional.of(report.getFailed() == 0
+                        ? "Number of files deleted: " + report.getDeleted()
+                        : String.format("Number of files deleted: %d, failed: %d, errors: %s",
+                        report.getDeleted(), report.getFailed(), report.getErrors()));
+            }
+            final String msg = String.format("%s %s Number of files to delete: %s, files deleted: %s, failed: %s", CLASS_NAME, methodName,
+                    matchedFiles[0], report.getDeleted(), report.getFailed());
+            this.getlogger().info(msg, correlationId, entityId, connectorName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final String msg = String.format("%s %s: InterruptedException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (ClientExecutionTimeoutException e) {
+            final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (AmazonS3Exception e) {
+            final String msg = String.format("%s %s: AmazonS3Exception %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (AmazonServiceException e) {
+            final String msg = String.format("%s %s: AmazonServiceException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (SdkClientException e) {
+            final String msg = String.format("%s %s: SdkClientException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (AmazonClientException e) {
+            final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (HttpClientErrorException e) {
+            final String msg = String.format("%s %s: HttpClientErrorException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (ResourceAccessException e) {
+            final String msg = String.format("%s %s: ResourceAccessException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        } catch (Exception e) {
+            final String msg = String.format("%s %s: Exception %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+
+        }
+        if (matchedFiles[0] == 0) {
+            this.getlogger().error("removeDir: File list to delete empty");
+            throw new FileTransferException("Folder not found");
+        }
 
         final String endMsg =
                 String.format("%s %s End delete of folder %s in env %s",
@@ -805,67 +1515,88 @@ public class S3OperationsManager {
         return result;
     }
 
-    private Set<DeleteObjectsRequest.KeyVersion> findAllVersionsToDelete(final String fileName, final String env,
-                                                                          final AmazonS3 awsS3Client,
-                                                                          final String entityId,
-                                                                          final String connectorName,
-                                                                          final String correlationId) {
-        final Set<DeleteObjectsRequest.KeyVersion> result = new HashSet<>();
-        try {
-            Objects.requireNonNull(findAllVersionsOfAFile(fileName, env, awsS3Client, entityId, connectorName, correlationId))
-                    .parallelStream()
-                    .forEach(v -> result.add(new DeleteObjectsRequest.KeyVersion(fileName, v)));
-        } catch (FileTransferException e) {
-            this.getlogger().error("findAllVersionsToDelete AmazonS3Exception: " + e, correlationId, entityId, connectorName);
-        }
-        return result;
-    }
-
     /**
-     * This method finds all the versions of a file and sends. This method assumes that the file name is proper.
-     * This method will also find the delete marker with the other versions.
-     * @param fileName File name to find
-     * @param env Environment
-     * @param entityId Used for logging
-     * @param connectorName Used for logging.
-     * @param awsS3Client S3 client. This service assumes this is a valid entity
-     * @param correlationId Correlation id
-     * @return {@link Set<String>} of all the file versions.
-     */
-    private Set<String> findAllVersionsOfAFile(final String fileName, final String env,
-                                                    final AmazonS3 awsS3Client, String entityId, String connectorName,
-                                                    final String correlationId) throws FileTransferException {
-        final String methodName = " | findAllVersionsOfAFile | ";
-        final String FIND_VERSION_ERROR = "Cannot set remote file.";
-        final Set<String> result = new HashSet<>();
-        final TimeIt timeIt = new TimeIt(methodName, correlationId, entityId, connectorName);
-        timeIt.start();
-        try {
-            final String bname = consts.getAwsBucketName(env);
-            // Retrieve the list of versions. If the bucket contains more versions
-            // than the specified maximum number of results, Amazon S3 returns
-            // one page of results per request.
-            final ListVersionsRequest ListVersionRequest = new ListVersionsRequest()
-                    .withBucketName(bname)
-                    .withPrefix(fileName);
-            final VersionListing versionListing = awsS3Client.listVersions(ListVersionRequest);
-            final List<S3VersionSummary> objectSummaries = versionListing.getVersionSummaries();
-            objectSummaries.parallelStream().forEach(e -> result.add(e.getVersionId()));
-        } catch (AmazonS3Exception e) {
-            this.getlogger().error("findAllVersionsOfAFile AmazonS3Exception: " + e, correlationId, entityId, connectorName);
-            throw new CannotFetchRemoteFileException(FIND_VERSION_ERROR);
-        } catch (AmazonServiceException e) {
-            this.getlogger().error("findAllVersionsOfAFile AmazonServiceException: " + e, correlationId, entityId, connectorName);
-            throw new CannotFetchRemoteFileException(FIND_VERSION_ERROR);
-        } catch (SdkClientException e) {
-            this.getlogger().error("findAllVersionsOfAFile SdkClientException: " + e, correlationId, entityId, connectorName);
-            throw new CannotFetchRemoteFileException(FIND_VERSION_ERROR);
-        } catch (Exception e) {
-            this.getlogger().error("findAllVersionsOfAFile Exception: " + e, correlationId, entityId, connectorName);
-            throw new CannotFetchRemoteFileException(FIND_VERSION_ERROR);
+     * Delete every object under a prefix whose key passes the filter. Listing pages are fed to a
+     * {@link S3BatchDeleter} as they arrive. In a versioned bucket all the versions and delete markers of the
+     * matching keys are deleted unless older versions are to be retained.
+     *
+     * @param awsS3Client  The client to use
+     * @param bname        The bucket
+     * @param prefix       The prefix to list
+     * @param keyFilter    Decides which keys are deleted
+     * @param onDeleted    Called with the keys of every batch that was deleted, or {@code null}
+     * @param matchedFiles Its first element is incremented once for every key that passes the filter
+     * @return The counts of deleted and failed objects
+     */
+    private DeleteReport deleteMatchingObjects(final AmazonS3 awsS3Client,
+                                               final String bname,
+                                               final String prefix,
+                                               final Predicate<String> keyFilter,
+                                               final Consumer<List<String>> onDeleted,
+                                               final long[] matchedFiles,
+                                               final String env,
+                                               final String entityId,
+                                               final String connectorName,
+                                               final String correlationId) throws InterruptedException {
+        final String methodName = " | deleteMatchingObjects | ";
+        // Check to ensure that the bucket is versioning-enabled.
+        final String bucketVersionStatus = awsS3Client.getBucketVersioningConfiguration(bname).getStatus();
+        this.getlogger().info(String.format("%s %s Bucket %s, version info: %s in env: %s", CLASS_NAME, methodName,
+                bname, bucketVersionStatus, env), correlationId, entityId, connectorName);
+        /*
+        / Following reasoning is used:
+        / 1. If Versioning is not enabled in bucket then regular deletion is used in bucket
+        / 2. If versioning is enabled but the key deleteAllVersions is false then also regular deletion is used,
+        /    older versions are retained.
+        / 3. IF versioning is enabled but retainOlderFileVersions is true delete all versions
+        */
+        final boolean deleteAllVersions = bucketVersionStatus.equals(BucketVersioningConfiguration.ENABLED)
+                && !consts.getRetainOlderFileVersions();
+        // Listing pages are fed to the deleter as they arrive, which sends them in batches of 1000 keys
+        final S3BatchDeleter deleter = new S3BatchDeleter(awsS3Client, bname, deleteExecutor,
+                consts.getAwsS3DeleteParallelism(), keys -> {
+            indexRemove(bname, keys);
+            if (onDeleted != null) {
+                onDeleted.accept(keys);
+            }
+        });
+        if (deleteAllVersions) {
+            // One scan over the folder returns every version and delete marker, grouped by key
+            final String[] lastKey = {null};
+            forEachVersionPage(awsS3Client, bname, prefix, versions -> {
+                try {
+                    for (final S3VersionSummary version : versions) {
+                        if (!keyFilter.test(version.getKey())) {
+                            continue;
+                        }
+                        if (!version.getKey().equals(lastKey[0])) {
+                            lastKey[0] = version.getKey();
+                            matchedFiles[0]++;
+                        }
+                        deleter.add(new DeleteObjectsRequest.KeyVersion(version.getKey(), version.getVersionId()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Folder delete interrupted", e);
+                }
+            });
+        } else {
+            forEachObjectPage(awsS3Client, bname, prefix, objects -> {
+                try {
+                    for (final S3ObjectSummary os : objects) {
+                        if (!keyFilter.test(os.getKey())) {
+                            continue;
+                        }
+                        matchedFiles[0]++;
+                        deleter.add(os.getKey());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Folder delete interrupted", e);
+                }
+            });
         }
-        timeIt.stop();
-        return result;
+        return deleter.finish();
     }
 
     @Trace
@@ -887,43 +1618,19 @@ public class S3OperationsManager {
         this.getlogger().info(startMsg, correlationId, entityId, connectorName);
         final TimeIt timeIt = new TimeIt(methodName, correlationId, entityId, connectorName);
         timeIt.start();
-        Download download;
-        File tempFile = null;
         FileObjectProxy fileObjectProxy = null;
-        boolean doDeleteFile = true;
         try {
-            InputStream inputStream;
-            Path locaFilePath = Paths.get(consts.getFileOperationTempDir(), remoteDir);
-            locaFilePath = Files.createDirectories(locaFilePath);
-            final Long timestamp = Instant.now().toEpochMilli();
-            final Path path = createTempFile(locaFilePath, consts.getAwsTempDownloadfilePrefix(),
-                    timestamp.toString() + ".download");
-            Files.deleteIfExists(path);
-            tempFile = Files.createFile(path).toFile();
-            final TransferManager transferManager = getAwsTransferManager(env);
-            download = transferManager.download(bname, fullFileName, tempFile);
-            if(download != null) {
-                download.waitForCompletion();
-                final long downloadedFileSize = tempFile.length();
-                if(downloadedFileSize > consts.getAwsS3MaxFileSizeToTransferInMemory()) {
-                    doDeleteFile = false;
-                    inputStream = FileUtils.openInputStream(tempFile);
-                    fileObjectProxy = new FileObjectProxy(inputStream, null, true);
-                } else {
-                    final String content = readFileToString(tempFile.toPath());
-                    inputStream = new ByteArrayInputStream(content.getBytes());
-                    fileObjectProxy = new FileObjectProxy(inputStream, null);
-                }
-                final String msg =
-                        String.format("%s %s Successfully downloaded file %s in for env %s and completion description %s and content length %s",
-                        CLASS_NAME, methodName, fullFileName, env, download.getDescription(),
-                        download.getProgress().getBytesTransferred());
-                timeIt.setMessage(msg);
-                this.getlogger().info(msg, correlationId, entityId, connectorName);
+            // A write that is accepted but not uploaded yet is newer than what S3 has
+            final InputStream spooled = spool != null ? spool.open(bname, fullFileName) : null;
+            if (spooled != null) {
+                fileObjectProxy = new FileObjectProxy(spooled, null, true);
             } else {
-                final String msg = String.format("Unknown error in downloading file %s in for env %s", fullFileName, env);
-                this.getlogger().error(String.format("%s %s %s", CLASS_NAME, methodName, msg), correlationId, entityId, connectorName);
-                //throw new AWSConnectionException(INTERNAL_SERVER_ERROR.value(), msg);
+                final SharedContent content = readFlights.execute(
+                        Arrays.asList(consts.getEnvironmentContext(env).getName(), bname, fullFileName),
+                        () -> fetchFile(env, bname, remoteDir, fullFileName, correlationId, entityId, connectorName));
+                if (content != null) {
+                    fileObjectProxy = new FileObjectProxy(content.open(), null, content.isFile());
+                }
             }
         } catch (ClientExecutionTimeoutException e) {
             final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
@@ -960,10 +1667,6 @@ public class S3OperationsManager {
             final String msg = String.format("%s %s: Exception %s", CLASS_NAME, methodName, e);
             this.getlogger().error(msg, correlationId, entityId, connectorName);
           
-        } finally {
-            if(doDeleteFile && tempFile != null) {
-                tempFile.delete();
-            }
         }
 
         Optional<FileObjectProxy> fileObjectProxyOptional;
@@ -981,6 +1684,70 @@ public class S3OperationsManager {
         return fileObjectProxyOptional;
     }
 
+    /**
+     * Store a file in write-behind mode: the content is forced to the local spool and the call returns with a
+     * receipt, while the upload runs in the background. Reads of the file are served from the spool until it is
+     * uploaded.
+     *
+     * @param optionsObjectMap The folder, the file name, the content and its mime type, as for {@link #setFileStream}
+     * @return The receipt, to follow the upload with {@link #getSpoolReceipt}
+     * @throws FileTransferException If write-behind is disabled or the mime type is unknown, or
+     *                               {@link AWSConnectionException} with 503 if the spool is full
+     */
+    @Trace
+    public Optional<SpoolReceipt> spoolFileStream(
+            final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+            String entityId,
+            String connectorName) throws FileTransferException {
+        final String methodName = " | spoolFileStream | ";
+        final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
+        final String remoteDir = normalizeFileName((String) optionsObjectMap.get(REMOTE_DIR));
+        final String fileName = (String) optionsObjectMap.get(FILE_NAME);
+        final String mimeType = (String) optionsObjectMap.get(CONTENT_MIME_TYPE);
+        final String env = (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "");
+        final String fullFileName = joinPaths(remoteDir, fileName);
+        if (spool == null) {
+            throw new FileTransferException("Write-behind is not enabled");
+        }
+        final WriteBehindSpool.Payload payload;
+        if (mimeType.equalsIgnoreCase(FILE_INPUT_STREAM)) {
+            final InputStream inputStream = (InputStream) optionsObjectMap.get(FILE_OBJECT);
+            payload = file -> FileUtils.copyInputStreamToFile(inputStream, file.toFile());
+        } else if (mimeType.equalsIgnoreCase(PLAIN_TEXT)) {
+            final String content = (String) optionsObjectMap.get(FILE_OBJECT);
+            payload = file -> Files.write(file, content == null ? new byte[0] : content.getBytes());
+        } else {
+            throw new FileTransferException(String.format("Mime Type %s not defined", mimeType));
+        }
+        final String bname = consts.getAwsBucketName(env);
+        final SpoolReceipt receipt;
+        try {
+            receipt = spool.submit(consts.getEnvironmentContext(env).getName(), bname, fullFileName,
+                    storedFileMetadata(fullFileName), payload);
+        } catch (IOException e) {
+            final String msg = String.format("%s %s: Cannot spool %s: %s", CLASS_NAME, methodName, fullFileName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new AWSConnectionException(INTERNAL_SERVER_ERROR.value(), msg, e);
+        }
+        if (receipt == null) {
+            final String msg = String.format("%s %s: The write-behind spool is full, %s refused", CLASS_NAME,
+                    methodName, fullFileName);
+            this.getlogger().warn(msg, correlationId, entityId, connectorName);
+            throw new AWSConnectionException(SERVICE_UNAVAILABLE.value(), msg);
+        }
+        invalidateCaches(bname, fullFileName);
+        this.getlogger().info(String.format("%s %s Spooled %s for env %s as %s, %d bytes", CLASS_NAME, methodName,
+                fullFileName, env, receipt.getId(), receipt.getSize()), correlationId, entityId, connectorName);
+        return Optional.of(receipt);
+    }
+
+    /**
+     * @return The receipt of a write accepted by {@link #spoolFileStream}
+     */
+    public Optional<SpoolReceipt> getSpoolReceipt(final String id) {
+        return spool == null ? Optional.empty() : Optional.ofNullable(spool.getReceipt(id));
+    }
+
     @Trace
     public Optional<FileOperationResponse> setFileStream(
             final Map<FileSystemOptionKeys, Object> optionsObjectMap,
@@ -1000,6 +1767,7 @@ public class S3OperationsManager {
         this.getlogger().info(startMsg, correlationId, entityId, connectorName);
         final TimeIt timeIt = new TimeIt(methodName, correlationId, entityId, connectorName);
         timeIt.start();
+        supersedeSpooled(consts.getAwsBucketName(env), fullFileName::equals);
         Upload upload;
         FileOperationResponse fileOperationResponse = null;
         File tempFile = null;
@@ -1008,7 +1776,7 @@ public class S3OperationsManager {
             this.getlogger().info(msg, correlationId, entityId, connectorName);
             final TransferManager transferManager = getAwsTransferManager(env);
             final String bname = consts.getAwsBucketName(env);
-            final ObjectMetadata objectMetadata = new ObjectMetadata();
+            final ObjectMetadata objectMetadata = storedFileMetadata(fullFileName);
             Path locaFilePath = Paths.get(consts.getFileOperationTempDir(), remoteDir);
             locaFilePath = Files.createDirectories(locaFilePath);
             final Long timestamp = Instant.now().toEpochMilli();
@@ -1033,9 +1801,11 @@ public class S3OperationsManager {
             msg = String.format("%s %s Temp file %s generated with size %s for multipart split",
                     CLASS_NAME, methodName, tempFile.toString(), tempFile.length());
             this.getlogger().info(msg, correlationId, entityId, connectorName);
-            upload = transferManager.upload(bname, fullFileName, tempFile);
+            upload = transferManager.upload(new PutObjectRequest(bname, fullFileName, tempFile)
+                    .withMetadata(objectMetadata));
             if(upload != null) {
-                upload.waitForCompletion();
+                final UploadResult uploadResult = upload.waitForUploadResult();
+                indexPut(bname, fullFileName, tempFile.length(), uploadResult.getETag());
                 msg = String.format("%s %s Successfully stored file %s in for env %s and mime %s and" +
                                 " completion description %s with size %s",
                         CLASS_NAME, methodName, fullFileName, env, mimeType, upload.getDescription(),
@@ -1105,117 +1875,69 @@ public class S3OperationsManager {
     }
 
     /**
-     * Move file from one location to other. The way this works is as follows:
-     * 1. Copy the file fromLocation->toLocation
-     * 2. Delete the file fromLocation
-     * @param fileName File name to move
-     * @param fromLocation The folder location of the file
-     * @param toLocation The folder location where we need to move
-     * @param env The environment. It can be either QA or PRODUCTION
-     * @param doDeleteOriginal If {@code true} delete original file else do not delete
-     * @return true if the operation is a success
-     */
-    private boolean moveFileAndDeleteOriginal(final String fileName,
-                                              final String fromLocation,
-                                              final String toLocation,
-                                              final String env,
-                                              final boolean doDeleteOriginal,
-                                              final String entityId,
-                                              final String connectorName,
-                                              final String correlationId) throws AWSConnectionException {
-        boolean result = false;
-        final String methodName = " | moveFileAndDeleteOriginal | ";
-        final String startMsg =
-                String.format("%s %s Start move files from %s to %s in env %s",
-                        CLASS_NAME, methodName,
-                        fromLocation, toLocation, env);
-        this.getlogger().info(startMsg, correlationId, entityId, connectorName);
-        final TimeIt timeIt = new TimeIt( methodName, correlationId, entityId, connectorName);
-        timeIt.start();
-        if (fileName.equalsIgnoreCase(toLocation)) {
-            final String msg = String.format("%s %s To location and from location same. Doing nothing for file: %s",
-                    CLASS_NAME, methodName, fileName);
-            this.getlogger().warn(msg, correlationId, entityId, connectorName);
-        } else {
-            try {
-                final AmazonS3 amazonS3 = getAwsClient(env);
-                final String bname = consts.getAwsBucketName(env);
-                final String moveFileName =
-                        joinPaths(toLocation, fileName.substring(fromLocation.length()));
-                String msg = String.format("%s %s org fileName: %s, fromLocation: %s, toLocation: %s, moveFileName: %s",
-                        CLASS_NAME, methodName, fileName, fromLocation, toLocation, moveFileName);
-                this.getlogger().info(msg, correlationId, entityId, connectorName);
-                final CopyObjectResult copyObjectResult =
-                        amazonS3.copyObject(bname, fileName, bname, moveFileName);
-                msg = String.format("%s %s Copied object. Last modified date: %s, result: %s", CLASS_NAME, methodName,
-                        copyObjectResult.getLastModifiedDate(), copyObjectResult);
-                this.getlogger().info(msg, correlationId, entityId, connectorName);
-                if(doDeleteOriginal) {
-                    final DeleteFolderPayLoad deleteFolderPayLoad = new DeleteFolderPayLoad();
-                    deleteFolderPayLoad.setDirectorName(fileName);
-                    deleteFolderPayLoad.setRegularExpressionString(".*");
-                    final Map<FileSystemOptionKeys, Object> optionsObjectMap = new HashMap<>();
-                    optionsObjectMap.put(ENVIRONMENT, env);
-                    optionsObjectMap.put(CORRELATION_ID, correlationId);
-                    final Optional<String> removeRes = removeDir(deleteFolderPayLoad, optionsObjectMap, entityId, connectorName);
-                    if(!removeRes.isPresent()) {
-                        msg = String.format("%s %s Could not remove files: %s in env: %s", CLASS_NAME, methodName,
-                                moveFileName, env);;
-                        this.getlogger().error(msg, correlationId, entityId, connectorName);
-                        throw new FileTransferException("Cannot delete files");
-                    }
-                } else {
-                    msg = String.format("%s %s Just copying the file. Not deleting it.", CLASS_NAME, methodName);
-                    this.getlogger().info(msg, correlationId, entityId, connectorName);
-                }
-                result = true;
-            } catch (ClientExecutionTimeoutException e) {
-                final String msg = String.format("%s %s: ClientExecutionTimeoutException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-               
-            } catch (AmazonS3Exception e) {
-                final String msg = String.format("%s %s: AmazonS3Exception %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-            
-            } catch (AmazonServiceException e) {
-                final String msg = String.format("%s %s: AmazonServiceException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-               
-            } catch (SdkClientException e) {
-                final String msg = String.format("%s %s: SdkClientException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-                
-            } catch (AmazonClientException e) {
-                final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-               
-            } catch (HttpClientErrorException e) {
-                final String msg = String.format("%s %s: HttpClientErrorException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-                
-            } catch (ResourceAccessException e) {
-                final String msg = String.format("%s %s: ResourceAccessException %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-               
-            } catch (Exception e) {
-                final String msg = String.format("%s %s: Exception %s", CLASS_NAME, methodName, e);
-                this.getlogger().error(msg, correlationId, entityId, connectorName);
-               
+     * @param amazonS3 The client the copies are made with
+     * @return A copy engine that copies objects at or above the multipart threshold in parts
+     */
+    private S3CopyEngine createCopyEngine(final AmazonS3 amazonS3) {
+        return new S3CopyEngine(amazonS3, copyExecutor,
+                consts.getAwsS3CopyInitialConcurrency(), consts.getAwsS3CopyMaxConcurrency(),
+                new S3MultipartCopier(amazonS3, copyPartExecutor, consts.getAwsS3CopyPartSize()),
+                consts.getAwsS3CopyMultipartThreshold());
+    }
+
+    /**
+     * Copy engine for a transfer between two environments. The copies are made server side with the destination
+     * client if its credentials can read the source bucket, which is checked with a HEAD of one source key.
+     * Otherwise the objects are streamed from the source client to the destination client.
+     *
+     * @param probeKey A source key of the transfer
+     * @throws FileTransferException If the HEAD fails other than with 401 or 403, for example with a 301 because
+     *                               the source bucket is in another region, or with a 404
+     */
+    private S3CopyEngine createCrossEnvironmentCopyEngine(final AmazonS3 sourceS3,
+                                                          final String sourceBucket,
+                                                          final AmazonS3 destinationS3,
+                                                          final String probeKey,
+                                                          final String correlationId,
+                                                          final String entityId,
+                                                          final String connectorName)
+            throws FileTransferException {
+        final String methodName = " | createCrossEnvironmentCopyEngine | ";
+        try {
+            destinationS3.getObjectMetadata(sourceBucket, probeKey);
+            this.getlogger().info(String.format("%s %s Destination credentials can read %s, copying server side",
+                    CLASS_NAME, methodName, sourceBucket), correlationId, entityId, connectorName);
+            return createCopyEngine(destinationS3);
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == NOT_FOUND.value()) {
+                throw new RemoteFileNotFoundException(String.format("%s does not exist in bucket %s", probeKey,
+                        sourceBucket));
+            }
+            if (e.getStatusCode() != FORBIDDEN.value() && e.getStatusCode() != UNAUTHORIZED.value()) {
+                final String msg = String.format("Cannot check whether the destination credentials can read bucket %s"
+                        + " (%s of %s): status %d, %s", sourceBucket, probeKey, sourceBucket, e.getStatusCode(),
+                        e.getErrorMessage());
+                this.getlogger().error(String.format("%s %s %s", CLASS_NAME, methodName, msg), correlationId,
+                        entityId, connectorName);
+                throw new FileTransferException(msg);
             }
         }
-        final String endMsg =
-                String.format("%s %s End move files from %s to %s in env %s",
-                        CLASS_NAME, methodName,
-                        fromLocation, toLocation, env);
-        timeIt.stop();
-        this.getlogger().info(endMsg, correlationId, entityId, connectorName);
-        return result;
+        this.getlogger().info(String.format("%s %s Destination credentials cannot read %s, streaming the objects",
+                CLASS_NAME, methodName, sourceBucket), correlationId, entityId, connectorName);
+        return new S3CopyEngine(copyExecutor,
+                consts.getAwsS3CopyInitialConcurrency(), consts.getAwsS3CopyMaxConcurrency(),
+                new S3StreamCopier(sourceS3, destinationS3, copyPartExecutor, consts.getAwsS3TransferStreamPartSize()));
     }
 
     /**
      * Move file from one location to other. The way this works is as follows:
-     * 1. Copy the file fromLocation->toLocation
-     * 2. Delete the file fromLocation
+     * 1. Copy all the files fromLocation->toLocation concurrently with the {@link S3CopyEngine}
+     * 2. Delete the copied files fromLocation in batches of 1000 keys
+     * When the payload names a different toEnvironment the files are copied into the bucket of that environment,
+     * server side if its credentials can read the source bucket and streamed through this service otherwise.
+     * Files that could not be copied are left in place and reported in the result.
+     * A move is written ahead to a {@link MoveJournal}. If it fails before all the copies are over it is rolled
+     * back, afterwards it is rolled forward; a journal left by a crash is recovered the same way at startup.
      * @param moveFilePayload The payload for the movefile operation
      * @param optionsObjectMap Any additional options
      * @param entityId Entity id if available
@@ -1233,17 +1955,24 @@ public class S3OperationsManager {
         final String methodName = " | moveFile | ";
         final String correlationId =
                 (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
-        final String env = (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "");
+        final String env = moveFilePayload.fromEnvironment == null || moveFilePayload.fromEnvironment.isEmpty()
+                ? (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "")
+                : Validation.sanitizeEnvironment(moveFilePayload.fromEnvironment);
+        final String toEnv = moveFilePayload.toEnvironment == null || moveFilePayload.toEnvironment.isEmpty()
+                ? env
+                : Validation.sanitizeEnvironment(moveFilePayload.toEnvironment);
+        // The caller's map is left as it is
+        final Map<FileSystemOptionKeys, Object> options = new HashMap<>(optionsObjectMap);
+        options.put(ENVIRONMENT, env);
         prettyPrintJson("moveFilePayload", moveFilePayload);
         final String fromLocation = normalizeFileName(moveFilePayload.fromLocation);
         final String toLocation = joinPaths(moveFilePayload.toRootDirectory, moveFilePayload.toLocationName);
-        prettyPrintJson("moveFilePayload", moveFilePayload);
         this.getlogger().info(String.format("fromLocation: %s, toLocation: %s ", fromLocation, toLocation), correlationId,
                 entityId, connectorName);
 
         final String regex = ".*";
-        optionsObjectMap.put(REMOTE_DIR, fromLocation);
-        optionsObjectMap.put(REGULAR_EXPRESSION, regex);
+        options.put(REMOTE_DIR, fromLocation);
+        options.put(REGULAR_EXPRESSION, regex);
         final String startMsg =
                 String.format("%s %s Start move files from %s to %s with regular expression %s in env %s",
                         CLASS_NAME, methodName,
@@ -1251,38 +1980,50 @@ public class S3OperationsManager {
         this.getlogger().info(startMsg, correlationId, entityId, connectorName);
         final TimeIt timeIt = new TimeIt( methodName, correlationId, entityId, connectorName);
         timeIt.start();
-        final Optional<List<String>> listOptional =
-                listFilesInFolder(optionsObjectMap, false, entityId, connectorName);
+        final AmazonS3 amazonS3 = getAwsClient(env);
+        final String bname = consts.getAwsBucketName(env);
+        final AmazonS3 destinationS3 = getAwsClient(toEnv);
+        final String destinationBucket = consts.getAwsBucketName(toEnv);
+        if (amazonS3 == null || destinationS3 == null) {
+            final String msg = String.format("Backend connection not valid. Cannot move files from %s in env %s to %s in env %s",
+                    bname, env, destinationBucket, toEnv);
+            this.getlogger().error(String.format("%s %s %s", CLASS_NAME, methodName, msg), correlationId, entityId, connectorName);
+            throw new AWSConnectionException(SERVICE_UNAVAILABLE.value(), msg);
+        }
+        flushSpooled(bname, key -> key.startsWith(fromLocation));
+        final Optional<List<S3ObjectRecord>> listOptional =
+                listObjectRecords(options, false, entityId, connectorName);
         if (!listOptional.isPresent()) {
             throw new CannotFetchRemoteFileException("Cannot fetch the files");
         }
 
-        final Set<String> undoList = new HashSet<>();
-        try {
-            final List<String> filesList = listOptional.get();
-            if (!filesList.isEmpty()) {
-                for(final String fileName : filesList) {
-                    moveFileAndDeleteOriginal(
-                            fileName, fromLocation, toLocation, env, doDeleteOriginal,
-                            entityId, connectorName, correlationId);
-                    undoList.add(fileName);
-                }
-            }
-        } catch (AWSConnectionException e) {
-            final String msg = String.format("%s %s: GISTAWSConnectionException %s", CLASS_NAME, methodName, e);
-            this.getlogger().error(msg, correlationId, entityId, connectorName);
-            // There was an exception and not all files were moved. So undo the moved files
-            for(final String f : undoList) {
-                final DeleteFolderPayLoad deleteFolderPayLoad = new DeleteFolderPayLoad();
-                deleteFolderPayLoad.setDirectorName(f);
-                deleteFolderPayLoad.setRegularExpressionString(".*");
-                final Map<FileSystemOptionKeys, Object> omap = new HashMap<>();
-                omap.put(ENVIRONMENT, env);
-                omap.put(CORRELATION_ID, correlationId);
-                final Optional<String> removeRes = removeDir(deleteFolderPayLoad, omap, entityId, connectorName);
+        final boolean crossEnvironment = destinationS3 != amazonS3 || !destinationBucket.equals(bname);
+        if (crossEnvironment) {
+            this.getlogger().info(String.format("%s %s Cross environment transfer from %s in env %s to %s in env %s",
+                    CLASS_NAME, methodName, bname, env, destinationBucket, toEnv), correlationId, entityId, connectorName);
+        }
+        final Map<String, String> keys = new LinkedHashMap<>();
+        final Map<String, Long> sizes = new HashMap<>();
+        for (final S3ObjectRecord record : listOptional.get()) {
+            final String fileName = record.getKey();
+            sizes.put(fileName, record.getSize());
+            if (!crossEnvironment && fileName.equalsIgnoreCase(toLocation)) {
+                final String msg = String.format("%s %s To location and from location same. Doing nothing for file: %s",
+                        CLASS_NAME, methodName, fileName);
+                this.getlogger().warn(msg, correlationId, entityId, connectorName);
+            } else {
+                keys.put(fileName, joinPaths(toLocation, fileName.substring(fromLocation.length())));
             }
-            throw e;
         }
+        final Set<String> destinations = new HashSet<>(keys.values());
+        supersedeSpooled(destinationBucket, destinations::contains);
+        final TransferReport report = transferObjects(amazonS3, bname, env, fromLocation,
+                destinationS3, destinationBucket, toEnv, keys, sizes, doDeleteOriginal,
+                (JobProgress) options.get(JOB_PROGRESS), correlationId, entityId, connectorName);
+        final String msg = String.format("%s %s Copied %d of %d files in %d ms, sources deleted: %d, delete failures: %d",
+                CLASS_NAME, methodName, report.getCopied(), keys.size(), report.getElapsedMillis(),
+                report.getSourceDelete().getDeleted(), report.getSourceDelete().getFailed());
+        this.getlogger().info(msg, correlationId, entityId, connectorName);
 
         final String endMsg =
                 String.format("%s %s End move files from %s to %s with regular expression %s in env %s",
@@ -1290,9 +2031,421 @@ public class S3OperationsManager {
                         fromLocation, toLocation, regex, env);
         timeIt.stop();
         this.getlogger().info(endMsg, correlationId, entityId, connectorName);
+        if (report.getFailed() > 0 || report.getSourceDelete().getFailed() > 0) {
+            final List<String> failures = report.getOutcomes().stream()
+                    .filter(o -> o.getStatus() == TransferReport.Status.FAILED)
+                    .limit(100)
+                    .map(o -> String.format("%s: %s", o.getSource(), o.getError()))
+                    .collect(Collectors.toList());
+            failures.addAll(report.getSourceDelete().getErrors());
+            return Optional.of(String.format("Moved from %s to %s. Copied %d of %d files, %d copies and %d deletes failed: %s",
+                    fromLocation, toLocation, report.getCopied(), keys.size(), report.getFailed(),
+                    report.getSourceDelete().getFailed(), failures));
+        }
         return Optional.of(String.format("Moved from %s to %s", fromLocation, toLocation));
     }
 
+    /**
+     * Copy every source key to its destination key and, for a move, delete the copied sources afterwards. A move
+     * is journaled, see {@link MoveJournal}. Files that could not be copied are left in place and reported.
+     *
+     * @param fromLocation     The folder the sources are in. The copied sources are deleted from a listing of it.
+     * @param keys             Source key to destination key
+     * @param sizes            Source key to object size
+     * @param doDeleteOriginal Delete the copied sources
+     * @param progress         The progress of the job running the transfer, or {@code null}
+     * @return The outcome of every file and of the source deletes
+     */
+    private TransferReport transferObjects(final AmazonS3 amazonS3,
+                                           final String bname,
+                                           final String env,
+                                           final String fromLocation,
+                                           final AmazonS3 destinationS3,
+                                           final String destinationBucket,
+                                           final String toEnv,
+                                           final Map<String, String> keys,
+                                           final Map<String, Long> sizes,
+                                           final boolean doDeleteOriginal,
+                                           final JobProgress progress,
+                                           final String correlationId,
+                                           final String entityId,
+                                           final String connectorName) throws FileTransferException {
+        final String methodName = " | transferObjects | ";
+        final MoveJournal journal = doDeleteOriginal && !keys.isEmpty() && consts.isAwsS3MoveJournalEnabled()
+                ? openMoveJournal(bname, env, fromLocation, destinationBucket, toEnv, correlationId, entityId, connectorName)
+                : null;
+        final boolean crossEnvironment = destinationS3 != amazonS3 || !destinationBucket.equals(bname);
+        TransferReport report;
+        // Whatever ends the transfer early, the journal is closed and the move rolled back or forward
+        boolean completed = false;
+        boolean interrupted = false;
+        try {
+            final S3CopyEngine copyEngine = crossEnvironment && !keys.isEmpty()
+                    ? createCrossEnvironmentCopyEngine(amazonS3, bname, destinationS3, keys.keySet().iterator().next(),
+                    correlationId, entityId, connectorName)
+                    : createCopyEngine(amazonS3);
+            report = copyEngine.copy(bname, destinationBucket, keys, sizes, new S3CopyEngine.Listener() {
+                @Override
+                public boolean beforeCopy(final String sourceKey, final String destinationKey) {
+                    if (journal == null) {
+                        return true;
+                    }
+                    try {
+                        journal.planned(sourceKey, destinationKey);
+                        return true;
+                    } catch (IOException e) {
+                        getlogger().error(String.format("%s %s Cannot journal the copy of %s: %s", CLASS_NAME,
+                                methodName, sourceKey, e), correlationId, entityId, connectorName);
+                        return false;
+                    }
+                }
+
+                @Override
+                public void copied(final TransferReport.FileOutcome outcome, final String eTag) {
+                    if (outcome.getStatus() == TransferReport.Status.COPIED) {
+                        if (journal != null) {
+                            try {
+                                journal.copied(outcome.getSource());
+                            } catch (IOException e) {
+                                // The source is then kept by a roll forward, so the file is never lost
+                                getlogger().error(String.format("%s %s Cannot journal the copy of %s: %s", CLASS_NAME,
+                                        methodName, outcome.getSource(), e), correlationId, entityId, connectorName);
+                            }
+                        }
+                        indexPut(destinationBucket, outcome.getDestination(), sizes.get(outcome.getSource()), eTag);
+                        if (progress != null) {
+                            progress.processed(1);
+                        }
+                    } else if (progress != null) {
+                        progress.failed(outcome.getSource(), outcome.getError());
+                    }
+                }
+            });
+            if (doDeleteOriginal) {
+                final Set<String> copiedSources = report.getOutcomes().stream()
+                        .filter(o -> o.getStatus() == TransferReport.Status.COPIED)
+                        .map(TransferReport.FileOutcome::getSource)
+                        .collect(Collectors.toSet());
+                if (journal != null) {
+                    journal.copyComplete();
+                }
+                if (!copiedSources.isEmpty()) {
+                    final long[] matchedFiles = {0};
+                    report = report.withSourceDelete(deleteMatchingObjects(amazonS3, bname, fromLocation,
+                            key -> copiedSources.contains(key) || copiedSources.contains(normalizeFileName(key)), deletedKeys -> {
+                                if (journal != null) {
+                                    try {
+                                        journal.deleted(deletedKeys);
+                                    } catch (IOException e) {
+                                        getlogger().error(String.format("%s %s Cannot journal deleted sources: %s",
+                                                CLASS_NAME, methodName, e), correlationId, entityId, connectorName);
+                                    }
+                                }
+                            }, matchedFiles, env, entityId, connectorName, correlationId));
+                }
+                if (journal != null) {
+                    if (report.getSourceDelete().getFailed() == 0) {
+                        journal.done();
+                    } else {
+                        // Sources left behind are deleted by the recovery at the next startup
+                        journal.close();
+                    }
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            // The recovery below must not see the interrupt, it is restored afterwards
+            Thread.interrupted();
+            interrupted = true;
+            throw new FileTransferException(String.format("Transfer from %s interrupted", fromLocation));
+        } catch (AmazonClientException e) {
+            final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new AWSConnectionException(INTERNAL_SERVER_ERROR.value(), msg, e);
+        } catch (IOException e) {
+            final String msg = String.format("%s %s: Cannot write the move journal: %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new FileTransferException(msg);
+        } finally {
+            if (!completed) {
+                recoverFailedMove(journal);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Get the existence, size, ETag and modified time of a file without reading it. The answer comes from
+     * {@link ObjectStatCache}, so repeated lookups of the same key cost no request until its TTL is over.
+     *
+     * @param optionsObjectMap The folder in {@link FileSystemOptionKeys#REMOTE_DIR}, the file name in
+     *                         {@link FileSystemOptionKeys#FILE_NAME} and the environment
+     * @param entityId         Entity id to log
+     * @param connectorName    Connector name to log
+     * @return The file
+     * @throws RemoteFileNotFoundException If there is no such file
+     */
+    @Trace
+    public Optional<S3ObjectRecord> statFile(final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                             final String entityId,
+                                             final String connectorName) throws FileTransferException {
+        final String methodName = " | statFile | ";
+        final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
+        final String remoteDir = normalizeFileName((String) optionsObjectMap.getOrDefault(REMOTE_DIR, ""));
+        final String fileName = (String) optionsObjectMap.get(FileSystemOptionKeys.FILE_NAME);
+        final String env = (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "");
+        final String fullFileName = joinPaths(remoteDir, fileName);
+        final String bname = consts.getAwsBucketName(env);
+        final S3ObjectRecord record;
+        try {
+            record = statCache.stat(getAwsClient(env), bname, fullFileName);
+        } catch (AmazonClientException e) {
+            final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new AWSConnectionException(INTERNAL_SERVER_ERROR.value(), msg, e);
+        }
+        if (record == null) {
+            throw new RemoteFileNotFoundException(String.format("%s does not exist in bucket %s", fullFileName, bname));
+        }
+        return Optional.of(record);
+    }
+
+    /**
+     * Rename a file or a folder. A file is copied to its new key, the copy is verified with a HEAD, and then the
+     * original is deleted. If the name is not a file it is renamed as a folder: every key under it is copied
+     * concurrently and the originals are deleted in batches, journaled like a move.
+     *
+     * @param fullFileName     The key of the file or folder to rename
+     * @param optionsObjectMap The new name in {@link FileSystemOptionKeys#TO_DESTINATION}, whether an existing
+     *                         target may be replaced in {@link FileSystemOptionKeys#OVERWRITE}, and the environment
+     * @param entityId         Entity id to log
+     * @param connectorName    Connector name to log
+     * @return The new name and the number of bytes renamed
+     * @throws GISTFileTransferExceptions If the source does not exist, the target exists or the rename failed
+     */
+    @Trace
+    public Optional<FileOperationResponse> renameFile(final String fullFileName,
+                                                      final Map<FileSystemOptionKeys, Object> optionsObjectMap,
+                                                      final String entityId,
+                                                      final String connectorName) throws FileTransferException {
+        final String methodName = " | renameFile | ";
+        final String correlationId = (String) optionsObjectMap.getOrDefault(CORRELATION_ID, "");
+        final String env = (String) optionsObjectMap.getOrDefault(ENVIRONMENT, "");
+        final boolean overwrite = Boolean.TRUE.equals(optionsObjectMap.get(OVERWRITE));
+        final String source = normalizeFileName(fullFileName);
+        final String destination = normalizeFileName((String) optionsObjectMap.getOrDefault(TO_DESTINATION, ""));
+        if (source.isEmpty() || destination.isEmpty() || source.equals(destination)) {
+            throw new FileTransferException(String.format("Cannot rename %s to %s", source, destination));
+        }
+        final String startMsg = String.format("%s %s Start rename of %s to %s in env %s",
+                CLASS_NAME, methodName, source, destination, env);
+        this.getlogger().info(startMsg, correlationId, entityId, connectorName);
+        final TimeIt timeIt = new TimeIt(methodName, correlationId, entityId, connectorName);
+        timeIt.start();
+        final AmazonS3 amazonS3 = getAwsClient(env);
+        final String bname = consts.getAwsBucketName(env);
+        flushSpooled(bname, key -> key.equals(source) || key.startsWith(source + SEPERATOR));
+        supersedeSpooled(bname, key -> key.equals(destination) || key.startsWith(destination + SEPERATOR));
+        final FileOperationResponse response;
+        try {
+            // Live HEADs rather than the stat cache: whether and what to overwrite must not rest on a stale entry
+            final ObjectMetadata sourceMetadata = headObject(amazonS3, bname, source);
+            if (sourceMetadata != null) {
+                response = renameObject(amazonS3, bname, S3ObjectRecord.from(source, sourceMetadata), destination,
+                        overwrite, env, correlationId, entityId, connectorName);
+            } else {
+                response = renameFolder(amazonS3, bname, source, destination, overwrite, env,
+                        (JobProgress) optionsObjectMap.get(JOB_PROGRESS), correlationId, entityId, connectorName);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileTransferException(String.format("Rename of %s to %s interrupted", source, destination));
+        } catch (AmazonClientException e) {
+            final String msg = String.format("%s %s: AmazonClientException %s", CLASS_NAME, methodName, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new AWSConnectionException(INTERNAL_SERVER_ERROR.value(), msg, e);
+        }
+        final String endMsg = String.format("%s %s End rename of %s to %s in env %s, %d bytes",
+                CLASS_NAME, methodName, source, destination, env, response.getUploadSize());
+        timeIt.stop();
+        this.getlogger().info(endMsg, correlationId, entityId, connectorName);
+        return Optional.of(response);
+    }
+
+    /**
+     * Rename a single object with one copy and one delete. The source is only deleted once a HEAD of the copy
+     * shows the size of the source. A destination that already holds the same content, by size and ETag, is not
+     * copied again; the HEAD then has to show the ETag of the source as well.
+     */
+    private FileOperationResponse renameObject(final AmazonS3 amazonS3,
+                                               final String bname,
+                                               final S3ObjectRecord sourceRecord,
+                                               final String destination,
+                                               final boolean overwrite,
+                                               final String env,
+                                               final String correlationId,
+                                               final String entityId,
+                                               final String connectorName)
+            throws FileTransferException, InterruptedException {
+        final String source = sourceRecord.getKey();
+        final long size = sourceRecord.getSize();
+        final ObjectMetadata destinationMetadata = headObject(amazonS3, bname, destination);
+        final S3ObjectRecord existing = destinationMetadata == null ? null
+                : S3ObjectRecord.from(destination, destinationMetadata);
+        if (!overwrite && existing != null) {
+            throw new AlreadyExistsException(String.format("%s already exists", destination));
+        }
+        final boolean identical = existing != null && existing.getSize() == size
+                && !existing.getETag().isEmpty() && existing.getETag().equals(sourceRecord.getETag());
+        if (identical) {
+            this.getlogger().info(String.format("%s renameObject: %s already holds the content of %s, not copied",
+                    CLASS_NAME, destination, source), correlationId, entityId, connectorName);
+        } else {
+            final TransferReport report = createCopyEngine(amazonS3).copy(bname, bname,
+                    Collections.singletonMap(source, destination), Collections.singletonMap(source, size),
+                    (outcome, eTag) -> {
+                        if (outcome.getStatus() == TransferReport.Status.COPIED) {
+                            indexPut(bname, destination, size, eTag);
+                        }
+                    });
+            if (report.getFailed() > 0) {
+                throw new FileTransferException(String.format("Cannot copy %s to %s: %s", source, destination,
+                        report.getOutcomes().get(0).getError()));
+            }
+        }
+        final ObjectMetadata copy = headObject(amazonS3, bname, destination);
+        if (copy == null || copy.getContentLength() != size
+                || (identical && !sourceRecord.getETag().equals(copy.getETag()))) {
+            throw new FileTransferException(String.format("The copy of %s to %s could not be verified. The source is kept",
+                    source, destination));
+        }
+        final DeleteReport delete = deleteMatchingObjects(amazonS3, bname, source, key -> key.equals(source),
+                null, new long[]{0}, env, entityId, connectorName, correlationId);
+        if (delete.getFailed() > 0) {
+            throw new FileTransferException(String.format("%s was copied to %s but cannot be deleted: %s",
+                    source, destination, delete.getErrors()));
+        }
+        return new FileOperationResponse(destination, size);
+    }
+
+    /**
+     * Rename every key under a folder. The keys are listed once and handed to {@link #transferObjects}. A folder
+     * cannot be renamed into itself or into one of its parents.
+     */
+    private FileOperationResponse renameFolder(final AmazonS3 amazonS3,
+                                               final String bname,
+                                               final String source,
+                                               final String destination,
+                                               final boolean overwrite,
+                                               final String env,
+                                               final JobProgress progress,
+                                               final String correlationId,
+                                               final String entityId,
+                                               final String connectorName) throws FileTransferException {
+        final String sourcePrefix = source + SEPERATOR;
+        final String destinationPrefix = destination + SEPERATOR;
+        if (destinationPrefix.startsWith(sourcePrefix) || sourcePrefix.startsWith(destinationPrefix)) {
+            // The copies would land among, or replace, the keys being renamed and deleted
+            throw new FileTransferException(String.format("Cannot rename folder %s to %s: one is inside the other",
+                    source, destination));
+        }
+        if (!overwrite && !amazonS3.listObjectsV2(new ListObjectsV2Request().withBucketName(bname)
+                .withPrefix(destinationPrefix).withMaxKeys(1)).getObjectSummaries().isEmpty()) {
+            throw new AlreadyExistsException(String.format("%s already exists", destination));
+        }
+        final Map<String, String> keys = new LinkedHashMap<>();
+        final Map<String, Long> sizes = new HashMap<>();
+        forEachObjectPage(amazonS3, bname, sourcePrefix, objects -> {
+            for (final S3ObjectSummary os : objects) {
+                keys.put(os.getKey(), destinationPrefix + os.getKey().substring(sourcePrefix.length()));
+                sizes.put(os.getKey(), os.getSize());
+            }
+        });
+        if (keys.isEmpty()) {
+            throw new RemoteFileNotFoundException(String.format("%s does not exist in bucket %s", source, bname));
+        }
+        final TransferReport report = transferObjects(amazonS3, bname, env, sourcePrefix, amazonS3, bname, env,
+                keys, sizes, true, progress, correlationId, entityId, connectorName);
+        if (report.getFailed() > 0 || report.getSourceDelete().getFailed() > 0) {
+            throw new FileTransferException(String.format("Renamed %d of %d files from %s to %s, %d copies and %d deletes failed",
+                    report.getCopied(), keys.size(), source, destination, report.getFailed(),
+                    report.getSourceDelete().getFailed()));
+        }
+        final long bytes = report.getOutcomes().stream().mapToLong(o -> sizes.get(o.getSource())).sum();
+        return new FileOperationResponse(destination, bytes);
+    }
+
+    /**
+     * @return The metadata of the object, or {@code null} if there is no such key
+     */
+    private ObjectMetadata headObject(final AmazonS3 amazonS3, final String bname, final String key) {
+        try {
+            return amazonS3.getObjectMetadata(bname, key);
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() == NOT_FOUND.value()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@code true} if the destination exists with the ETag and size of the source. A destination written
+     * by a multipart copy has a different ETag and is not recognised.
+     */
+    private boolean isCopyOf(final AmazonS3 sourceS3, final String sourceBucket, final String sourceKey,
+                             final AmazonS3 destinationS3, final String destinationBucket,
+                             final String destinationKey) {
+        final ObjectMetadata destination = headObject(destinationS3, destinationBucket, destinationKey);
+        if (destination == null) {
+            return false;
+        }
+        final ObjectMetadata source = headObject(sourceS3, sourceBucket, sourceKey);
+        return source != null && source.getContentLength() == destination.getContentLength()
+                && source.getETag() != null && source.getETag().equals(destination.getETag());
+    }
+
+    /**
+     * Start the journal of a move. A move is not started without its journal.
+     *
+     * @throws FileTransferException If the journal cannot be written
+     */
+    private MoveJournal openMoveJournal(final String bname,
+                                        final String env,
+                                        final String fromLocation,
+                                        final String destinationBucket,
+                                        final String toEnv,
+                                        final String correlationId,
+                                        final String entityId,
+                                        final String connectorName) throws FileTransferException {
+        try {
+            return MoveJournal.create(getMoveJournalDirectory(), bname, env, fromLocation, destinationBucket, toEnv);
+        } catch (IOException e) {
+            final String msg = String.format("%s openMoveJournal: Cannot write the move journal: %s", CLASS_NAME, e);
+            this.getlogger().error(msg, correlationId, entityId, connectorName);
+            throw new FileTransferException(msg);
+        }
+    }
+
+    /**
+     * Roll a move that failed back or forward right away, depending on how far its journal got.
+     */
+    private void recoverFailedMove(final MoveJournal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s recoverFailedMove: Cannot close move journal %s: %s", CLASS_NAME,
+                    journal.getFile().getFileName(), e));
+        }
+        recoverMove(journal.getFile());
+    }
+
     @Trace
     public String testS3Access(final String env) {
         String result;
@@ -1321,7 +2474,8 @@ public class S3OperationsManager {
     }
 
     private void prettyPrintJson(final String str, final Object json) {
-        if(Validation.sanitizeEnvironment(consts.getSpringCloudConfigLable()).isEmpty()) {
+        final String label = Validation.sanitizeEnvironment(consts.getSpringCloudConfigLable());
+        if(!label.equals(QA) && !label.equals(PRODUCTION)) {
             try {
                 this.getlogger().info(String.format("%s%s: %n %s%s",
                         "%n ====Start=== %n",
@@ -0,0 +1,96 @@
+package com.practice.s3.service;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link S3PoolMetricCollector} exports the HTTP connection pool state of one S3 client to micrometer, so the pool
+ * can be sized from data:
+ * <ul>
+ *     <li>{@code s3.client.pool.leased}, {@code s3.client.pool.available} and {@code s3.client.pool.pending}:
+ *     the pool counts the SDK sampled for the last request</li>
+ *     <li>{@code s3.client.pool.lease.wait}: time spent in the HTTP client outside of sending the request and
+ *     receiving the response, which is dominated by waiting for a connection lease</li>
+ * </ul>
+ * All meters are tagged with the environment of the client. There is one collector per environment, shared by
+ * the clients built for it over time, because micrometer keeps the first gauge registered under a name and tags.
+ */
+class S3PoolMetricCollector extends RequestMetricCollector {
+    private final AtomicLong leased = new AtomicLong();
+    private final AtomicLong available = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final Timer leaseWait;
+
+    private static final Map<String, S3PoolMetricCollector> COLLECTORS = new ConcurrentHashMap<>();
+
+    /**
+     * @param env            The environment of the client, used as the {@code env} tag
+     * @param maxConnections The configured pool size, exported as {@code s3.client.pool.max}
+     * @return The collector of the environment
+     */
+    static S3PoolMetricCollector forEnvironment(final String env, final int maxConnections) {
+        final S3PoolMetricCollector collector = COLLECTORS.computeIfAbsent(env, S3PoolMetricCollector::new);
+        collector.max.set(maxConnections);
+        return collector;
+    }
+
+    private S3PoolMetricCollector(final String env) {
+        Gauge.builder("s3.client.pool.leased", leased, AtomicLong::get).tag("env", env).register(Metrics.globalRegistry);
+        Gauge.builder("s3.client.pool.available", available, AtomicLong::get).tag("env", env).register(Metrics.globalRegistry);
+        Gauge.builder("s3.client.pool.pending", pending, AtomicLong::get).tag("env", env).register(Metrics.globalRegistry);
+        Gauge.builder("s3.client.pool.max", max, AtomicLong::get).tag("env", env).register(Metrics.globalRegistry);
+        this.leaseWait = Metrics.globalRegistry.timer("s3.client.pool.lease.wait", "env", env);
+    }
+
+    @Override
+    public void collectMetrics(final Request<?> request, final Response<?> response) {
+        final TimingInfo timing = request.getAWSRequestMetrics().getTimingInfo();
+        set(leased, timing.getCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount.name()));
+        set(available, timing.getCounter(AWSRequestMetrics.Field.HttpClientPoolAvailableCount.name()));
+        set(pending, timing.getCounter(AWSRequestMetrics.Field.HttpClientPoolPendingCount.name()));
+        final double requestTime = total(timing, AWSRequestMetrics.Field.HttpRequestTime);
+        if (requestTime > 0) {
+            final double wait = requestTime
+                    - total(timing, AWSRequestMetrics.Field.HttpClientSendRequestTime)
+                    - total(timing, AWSRequestMetrics.Field.HttpClientReceiveResponseTime);
+            leaseWait.record((long) (Math.max(0, wait) * 1000), TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static void set(final AtomicLong gauge, final Number value) {
+        if (value != null) {
+            gauge.set(value.longValue());
+        }
+    }
+
+    /**
+     * @return The summed duration of all the sub measurements of a field in milliseconds, 0 if there are none
+     */
+    private static double total(final TimingInfo timing, final AWSRequestMetrics.Field field) {
+        final List<TimingInfo> measurements = timing.getAllSubMeasurements(field.name());
+        double total = 0;
+        if (measurements != null) {
+            for (final TimingInfo measurement : measurements) {
+                final Double millis = measurement.getTimeTakenMillisIfKnown();
+                if (millis != null) {
+                    total += millis;
+                }
+            }
+        }
+        return total;
+    }
+}
@@ -1,5 +1,6 @@
 package com.practice.s3.service;
 
+import com.amazonaws.AbortedException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.SdkClientException;
@@ -18,17 +19,27 @@ import com.practicecom.practice.utill.TimeIt;
 
 import ch.qos.logback.classic.Logger;
 
+import io.micrometer.core.instrument.Metrics;
+
 import org.slf4j.LoggerFactory;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
 
 import java.io.Closeable;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * AWSCredentialsProvider implementation that uses the AWS Security Token
  * Service to assume a Role and create temporary, short-lived sessions to use
- * for authentication.
+ * for authentication. Reads are lock free; sessions are renewed in the background ahead of their expiry.
  */
 public class STSRefreshCredentialsProvider implements AWSCredentialsProvider, Closeable {
     private static final String CLASS_NAME = STSRefreshCredentialsProvider.class.getSimpleName();
@@ -47,30 +58,59 @@ public class STSRefreshCredentialsProvider implements AWSCredentialsProvider, Cl
     public static final int DEFAULT_DURATION_SECONDS = 900;
 
     /**
-     * Time before expiry within which credentials will be renewed.
+     * Maximum session duration of a role unless the role raises it.
+     */
+    private static final int ROLE_DEFAULT_MAX_DURATION_SECONDS = 3600;
+
+    /**
+     * Time before expiry within which callers wait for new credentials instead of using the current ones.
      */
     private static final int EXPIRY_TIME_MILLIS = 60 * 1000;
 
+    /**
+     * Time after a failed refresh before the background refresh is tried again.
+     */
+    private static final long RETRY_DELAY_MILLIS = 5 * 1000;
+
+    /**
+     * Runs the session requests of all the providers.
+     */
+    private static final ExecutorService REFRESHER = Executors.newFixedThreadPool(4, r -> {
+        final Thread thread = new Thread(r, "s3-sts-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * The client for starting STS sessions.
      */
     private final AWSSecurityTokenService securityTokenService;
 
     /**
-     * The current session credentials.
+     * The current session. It is replaced as a whole, so readers never see credentials with another expiration.
      */
-    private AWSSessionCredentials sessionCredentials;
+    private volatile Session session;
 
     /**
-     * The expiration time for the current session credentials.
+     * The session request in flight, shared by everyone who needs it.
      */
-    private Date sessionCredentialsExpiration;
+    private final AtomicReference<CompletableFuture<Session>> inFlight = new AtomicReference<>();
+
+    /**
+     * No background refresh is started before this time after a failure.
+     */
+    private volatile long retryAfter;
 
     /**
      * The arn of the role to be assumed.
      */
     private String roleArn;
 
+    /**
+     * The duration requested for new sessions. It is lowered when the role does not allow it.
+     */
+    private volatile int durationSeconds = DEFAULT_DURATION_SECONDS;
+
     /**
      * Constructs a new GistSTSRefreshCredentialsProvider, which makes a
      * request to the AWS Security Token Service (STS), uses the provided
@@ -171,45 +211,119 @@ public class STSRefreshCredentialsProvider implements AWSCredentialsProvider, Cl
         securityTokenService = new AWSSecurityTokenServiceClient(longLivedCredentialsProvider, clientConfiguration);
     }
 
+    /**
+     * Constructs a new STSRefreshCredentialsProvider over an existing STS client, which requests sessions of the
+     * given duration. If the role does not allow that duration the provider falls back to one hour and then to
+     * {@link #DEFAULT_DURATION_SECONDS}.
+     *
+     * @param securityTokenService The client for starting STS sessions.
+     * @param roleArn              The AWS ARN of the Role to be assumed.
+     * @param durationSeconds      The duration of the started sessions.
+     */
+    public STSRefreshCredentialsProvider(AWSSecurityTokenService securityTokenService,
+                                             String roleArn,
+                                             int durationSeconds) {
+        this.roleArn = roleArn;
+        this.securityTokenService = securityTokenService;
+        this.durationSeconds = durationSeconds;
+    }
+
     private static ClientConfiguration getConfiguration() {
         return new ClientConfiguration();
     }
 
     /**
-     * Get the temporary credentials at any point of time. This function will check the validity of the credential and if this
-     * credential is not valid will create another set of temporary credentials.
+     * Get the temporary credentials. This is called for every S3 request, so it only reads the current session.
+     * Once the session passes its refresh time a new session is requested in the background while the current one
+     * is still returned. Callers only wait for STS when there is no session yet or the current one is about to
+     * expire, and then they all wait for the same request.
      * @return {@link AWSCredentials} The temporary credentials that are created.
      */
     @Override
     public AWSCredentials getCredentials() {
-        final String methodName = " | getCredentials | ";
-        this.getlogger().info("%s %s Start", CLASS_NAME, methodName);
-        if (needsNewSession()) {
-            refresh();
-        } else {
-            this.getlogger().info("%s %s Return existing credential", CLASS_NAME, methodName);
+        final Session current = session;
+        final long now = System.currentTimeMillis();
+        if (current != null && now < current.expiresAt - EXPIRY_TIME_MILLIS) {
+            if (now >= current.refreshAt && now >= retryAfter) {
+                refreshAsync();
+            }
+            return current.credentials;
         }
-        this.getlogger().info("%s %s End", CLASS_NAME, methodName);
-        return sessionCredentials;
+        this.getlogger().debug("{} | getCredentials | No valid session, waiting for a new one", CLASS_NAME);
+        return await(refreshAsync()).credentials;
     }
 
     /**
-     * Refresh the session. This method forcefully starts the session again.
+     * Refresh the session. This method forcefully starts the session again and waits for it.
      */
     @Override
     public void refresh() {
+        await(refreshAsync());
+    }
+
+    /**
+     * @return The session request in flight, started if there is none
+     */
+    private CompletableFuture<Session> refreshAsync() {
+        while (true) {
+            final CompletableFuture<Session> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            final CompletableFuture<Session> started = new CompletableFuture<>();
+            if (inFlight.compareAndSet(null, started)) {
+                try {
+                    REFRESHER.execute(() -> runRefresh(started));
+                } catch (RejectedExecutionException e) {
+                    inFlight.compareAndSet(started, null);
+                    started.completeExceptionally(e);
+                }
+                return started;
+            }
+        }
+    }
+
+    private void runRefresh(final CompletableFuture<Session> started) {
         final String methodName = " | refresh | ";
-        this.getlogger().info("%s %s Start", CLASS_NAME, methodName);
         final TimeIt timeIt = new TimeIt( methodName, "", "", "");
         timeIt.start();
+        final long startNanos = System.nanoTime();
+        String outcome = "success";
         try {
-            startSession();
-        } catch (FileTransferException e) {
-            this.getlogger().error("%s %s Cannot refresh S3 token with exception %s and code %s",
-                    CLASS_NAME, methodName, e.getMessage(), e.getErrorCode());
+            final Session next = startSession();
+            session = next;
+            started.complete(next);
+        } catch (FileTransferException | RuntimeException e) {
+            outcome = "failure";
+            retryAfter = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+            this.getlogger().error(String.format("%s %s Cannot refresh S3 token: %s", CLASS_NAME, methodName, e.getMessage()));
+            Metrics.globalRegistry.counter("s3.sts.refresh.failures", "role", getRoleName()).increment();
+            started.completeExceptionally(e);
+        } finally {
+            inFlight.compareAndSet(started, null);
+            Metrics.globalRegistry.timer("s3.sts.refresh", "role", getRoleName(), "outcome", outcome)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            timeIt.stop();
+        }
+    }
+
+    /**
+     * Wait for a session request. If it failed the current session is returned as long as it has not expired.
+     */
+    private Session await(final CompletableFuture<Session> refresh) {
+        try {
+            return refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for STS credentials", e);
+        } catch (ExecutionException e) {
+            final Session current = session;
+            if (current != null && System.currentTimeMillis() < current.expiresAt) {
+                return current;
+            }
+            throw new SdkClientException(String.format("Cannot assume role %s: %s", roleArn, e.getCause().getMessage()),
+                    e.getCause());
         }
-        timeIt.stop();
-        this.getlogger().info("%s %s End", CLASS_NAME, methodName);
     }
 
     /**
@@ -217,23 +331,20 @@ public class STSRefreshCredentialsProvider implements AWSCredentialsProvider, Cl
      * Service (STS) to assume a Role using the long lived AWS credentials. This
      * class then vends the short lived session credentials for the assumed Role
      * sent back from STS.
+     *
+     * @return The new session
      */
-    private void startSession() throws FileTransferException {
+    private Session startSession() throws FileTransferException {
         final String methodName = " | startSession | ";
-        this.getlogger().info("%s %s Start", CLASS_NAME, methodName);
         try {
-            final AssumeRoleResult assumeRoleResult = securityTokenService
-                    .assumeRole(new AssumeRoleRequest()
-                            .withRoleArn(roleArn)
-                            .withDurationSeconds(DEFAULT_DURATION_SECONDS)
-                            .withRoleSessionName(CLASS_NAME));
+            final AssumeRoleResult assumeRoleResult = assumeRole();
             final Credentials stsCredentials = assumeRoleResult.getCredentials();
-            sessionCredentials = new BasicSessionCredentials(stsCredentials.getAccessKeyId(),
+            final Session next = new Session(new BasicSessionCredentials(stsCredentials.getAccessKeyId(),
                     stsCredentials.getSecretAccessKey(),
-                    stsCredentials.getSessionToken());
-            sessionCredentialsExpiration = stsCredentials.getExpiration();
-            this.getlogger().info("%s %s Starting a new temporary session with expiration: %s",
-                    CLASS_NAME, methodName, sessionCredentialsExpiration);
+                    stsCredentials.getSessionToken()), stsCredentials.getExpiration().getTime());
+            this.getlogger().info(String.format("%s %s Started a new temporary session with expiration %s, next refresh at %s",
+                    CLASS_NAME, methodName, stsCredentials.getExpiration(), new Date(next.refreshAt)));
+            return next;
         } catch (AmazonS3Exception e) {
             final String msg = String.format("GistSTSRefreshCredentialsProvider: AmazonS3Exception: %s", e);
             this.getlogger().error(msg);
@@ -255,45 +366,69 @@ public class STSRefreshCredentialsProvider implements AWSCredentialsProvider, Cl
             this.getlogger().error(msg);
             throw new FileTransferException(msg);
         }  catch (Exception e) {
-            this.getlogger().error("GistSTSRefreshCredentialsProvider: startSession: Could not start a new session Exception=%s",
-                    e);
+            this.getlogger().error(String.format("GistSTSRefreshCredentialsProvider: startSession: Could not start a new session Exception=%s",
+                    e));
             throw new FileTransferException(e.getMessage());
         }
-        this.getlogger().info("%s %s End", CLASS_NAME, methodName);
     }
 
     /**
-     * Returns true if a new STS session needs to be started. A new STS session
-     * is needed when no session has been started yet, or if the last session is
-     * within {@link #EXPIRY_TIME_MILLIS} seconds of expiring.
-     *
-     * @return True if a new STS session needs to be started.
+     * Assume the role for {@link #durationSeconds}. A duration above what the role allows is rejected by STS with a
+     * validation error; the duration is then lowered for this and all later sessions.
      */
-    private boolean needsNewSession() {
-        boolean result = false;
-        final String methodName = " | needsNewSession | ";
-        this.getlogger().info("%s %s sessionCredentialsExpiration: %s", CLASS_NAME, methodName, sessionCredentialsExpiration);
-        if (sessionCredentials == null) {
-            this.getlogger().info("%s %s No existing sessions found. Need new session", CLASS_NAME, methodName);
-            result = true;
-        } else {
-            final long timeRemaining = sessionCredentialsExpiration.getTime() - System.currentTimeMillis();
-            this.getlogger().info("%s %s timeRemaining: %s, EXPIRY_TIME_MILLIS: %s", CLASS_NAME, methodName, timeRemaining, EXPIRY_TIME_MILLIS);
-            if (timeRemaining < EXPIRY_TIME_MILLIS) {
-                this.getlogger().info("%s %s Time expired", CLASS_NAME, methodName);
-                result = true;
-            } else {
-                this.getlogger().info("%s %s. Time still valid", CLASS_NAME, methodName);
+    private AssumeRoleResult assumeRole() {
+        final int requested = durationSeconds;
+        try {
+            return securityTokenService.assumeRole(new AssumeRoleRequest()
+                    .withRoleArn(roleArn)
+                    .withDurationSeconds(requested)
+                    .withRoleSessionName(CLASS_NAME));
+        } catch (AmazonServiceException e) {
+            if (requested <= DEFAULT_DURATION_SECONDS || !"ValidationException".equals(e.getErrorCode())
+                    || e.getErrorMessage() == null || !e.getErrorMessage().contains("DurationSeconds")) {
+                throw e;
             }
+            final int lowered = requested > ROLE_DEFAULT_MAX_DURATION_SECONDS
+                    ? ROLE_DEFAULT_MAX_DURATION_SECONDS : DEFAULT_DURATION_SECONDS;
+            this.getlogger().warn(String.format("%s | assumeRole | Role %s does not allow sessions of %d s, using %d s",
+                    CLASS_NAME, roleArn, requested, lowered));
+            durationSeconds = lowered;
+            return assumeRole();
         }
+    }
 
-        this.getlogger().info("%s %s Result: %s", CLASS_NAME, methodName, result);
-        return result;
+    /**
+     * @return The role name of {@link #roleArn}, used to tag the metrics
+     */
+    private String getRoleName() {
+        return roleArn.substring(roleArn.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * An immutable session: the credentials, when they expire and when a new session should be requested. The
+     * refresh time is a quarter of the lifetime, but at least twice {@link #EXPIRY_TIME_MILLIS}, before expiry,
+     * minus a random jitter of up to a tenth of the lifetime so that many clients do not refresh together.
+     */
+    private static final class Session {
+        private final AWSSessionCredentials credentials;
+        private final long expiresAt;
+        private final long refreshAt;
+
+        private Session(final AWSSessionCredentials credentials, final long expiresAt) {
+            final long now = System.currentTimeMillis();
+            final long lifetime = Math.max(0, expiresAt - now);
+            final long ahead = Math.max(2L * EXPIRY_TIME_MILLIS, lifetime / 4);
+            final long jitter = ThreadLocalRandom.current().nextLong(lifetime / 10 + 1);
+            this.credentials = credentials;
+            this.expiresAt = expiresAt;
+            this.refreshAt = Math.max(now, expiresAt - ahead - jitter);
+        }
     }
 
     @Override
     public void close(){
         final String methodName = " | close | ";
-        this.getlogger().info("%s %s Closing the token connection.", CLASS_NAME, methodName);
+        this.getlogger().info(String.format("%s %s Closing the token connection.", CLASS_NAME, methodName));
+        securityTokenService.shutdown();
     }
 }
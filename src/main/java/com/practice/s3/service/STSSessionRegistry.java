@@ -0,0 +1,142 @@
+package com.practice.s3.service;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link STSSessionRegistry} shares one {@link STSRefreshCredentialsProvider}, and so one STS client and one
+ * session, between all the S3 clients that assume the same role with the same credentials. Without it every
+ * environment and every storage target pointing to a role would call AssumeRole on its own.
+ * <p>
+ * A new provider is only built when the role, the credentials, the STS region or the session duration change, which
+ * happens on configuration refreshes only. Every {@link #forRole} is matched by a {@link #release} when the client
+ * that uses the provider is retired; the provider is closed, and its STS client shut down, with its last user.
+ */
+final class STSSessionRegistry {
+    private static final String GLOBAL_ENDPOINT = "sts.amazonaws.com";
+    private static final String GLOBAL_SIGNING_REGION = "us-east-1";
+
+    private static final Map<Key, Shared> PROVIDERS = new ConcurrentHashMap<>();
+
+    private STSSessionRegistry() {
+    }
+
+    /**
+     * @param longLivedCredentials The credentials the role is assumed with
+     * @param roleArn              The role to assume
+     * @param region               The region of the STS endpoint, or {@code null} or empty for the global endpoint
+     * @param durationSeconds      The duration of the sessions
+     * @param clientConfiguration  The configuration of the S3 client. The STS client takes its timeouts and proxy,
+     *                             but not its retry policy, when the provider is built
+     * @return The provider shared by everyone assuming the role this way. Hand it back with {@link #release}.
+     */
+    static STSRefreshCredentialsProvider forRole(final AWSCredentials longLivedCredentials, final String roleArn,
+                                                 final String region, final int durationSeconds,
+                                                 final ClientConfiguration clientConfiguration) {
+        final Key key = new Key(roleArn, longLivedCredentials.getAWSAccessKeyId(),
+                longLivedCredentials.getAWSSecretKey(), region == null ? "" : region, durationSeconds);
+        return PROVIDERS.compute(key, (k, shared) -> {
+            if (shared != null) {
+                shared.users++;
+                return shared;
+            }
+            final AWSSecurityTokenServiceClientBuilder builder = AWSSecurityTokenServiceClientBuilder.standard()
+                    .withCredentials(new AWSStaticCredentialsProvider(longLivedCredentials))
+                    .withClientConfiguration(stsClientConfiguration(clientConfiguration));
+            if (k.region.isEmpty()) {
+                builder.withEndpointConfiguration(
+                        new AwsClientBuilder.EndpointConfiguration(GLOBAL_ENDPOINT, GLOBAL_SIGNING_REGION));
+            } else {
+                builder.withRegion(k.region);
+            }
+            return new Shared(new STSRefreshCredentialsProvider(builder.build(), roleArn, durationSeconds));
+        }).provider;
+    }
+
+    /**
+     * Give back a provider obtained from {@link #forRole}. The last user closes it.
+     */
+    static void release(final STSRefreshCredentialsProvider provider) {
+        final STSRefreshCredentialsProvider[] unused = {null};
+        for (final Key key : PROVIDERS.keySet()) {
+            PROVIDERS.computeIfPresent(key, (k, shared) -> {
+                if (shared.provider != provider || --shared.users > 0) {
+                    return shared;
+                }
+                unused[0] = shared.provider;
+                return null;
+            });
+        }
+        if (unused[0] != null) {
+            unused[0].close();
+        }
+    }
+
+    /**
+     * A provider and the number of its users. Changed inside the map's compute functions only.
+     */
+    private static final class Shared {
+        private final STSRefreshCredentialsProvider provider;
+        private int users = 1;
+
+        private Shared(final STSRefreshCredentialsProvider provider) {
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * The S3 retry policy answers to the circuit breaker and retry budget of the S3 environment, and its throttling
+     * and 503 handling are meant for S3. AssumeRole retries with the SDK's default policy instead.
+     */
+    private static ClientConfiguration stsClientConfiguration(final ClientConfiguration s3Configuration) {
+        return new ClientConfiguration(s3Configuration)
+                .withRetryPolicy(PredefinedRetryPolicies.DEFAULT)
+                .withMaxErrorRetry(PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY);
+    }
+
+    private static final class Key {
+        private final String roleArn;
+        private final String accessKeyId;
+        private final String secretKey;
+        private final String region;
+        private final int durationSeconds;
+
+        private Key(final String roleArn, final String accessKeyId, final String secretKey, final String region,
+                    final int durationSeconds) {
+            this.roleArn = roleArn;
+            this.accessKeyId = accessKeyId;
+            this.secretKey = secretKey;
+            this.region = region;
+            this.durationSeconds = durationSeconds;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return durationSeconds == other.durationSeconds
+                    && roleArn.equals(other.roleArn)
+                    && accessKeyId.equals(other.accessKeyId)
+                    && secretKey.equals(other.secretKey)
+                    && region.equals(other.region);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{roleArn, accessKeyId, secretKey, region, durationSeconds});
+        }
+    }
+}
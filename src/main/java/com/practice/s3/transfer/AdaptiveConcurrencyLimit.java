@@ -0,0 +1,87 @@
+package com.practice.s3.transfer;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Additive increase, multiplicative decrease limit on the number of requests in flight. Every {@code limit}
+ * successful requests raise the limit by one up to the maximum; a throttling response halves it.
+ */
+class AdaptiveConcurrencyLimit {
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+    private int limit;
+    private int inFlight;
+    private int successes;
+
+    AdaptiveConcurrencyLimit(final int initialLimit, final int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+    }
+
+    void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                belowLimit.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param success {@code true} if the request completed without being throttled
+     */
+    void release(final boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (success && ++successes >= limit) {
+                successes = 0;
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            belowLimit.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called when S3 asks to slow down. The request keeps its permit.
+     */
+    void throttled() {
+        lock.lock();
+        try {
+            successes = 0;
+            limit = Math.max(1, limit / 2);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until no request is in flight.
+     */
+    void awaitIdle() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight > 0) {
+                belowLimit.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.practice.s3.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+
+/**
+ * Write-ahead journal of one move. A move records every key before its copy is sent ({@code planned}), after the
+ * copy succeeded ({@code copied}), when all copies are over ({@code copy complete}), and after the source was
+ * deleted ({@code deleted}). When the move is done the journal is removed.
+ * <p>
+ * A journal left behind by a crash decides the recovery: without the copy complete record the move is rolled
+ * back by deleting the destinations of the copied keys, and of the planned keys whose destination turns out to be
+ * a copy of the source; with it the move is rolled forward by deleting the sources of the copied keys that were
+ * not deleted yet. Either way every key ends up in exactly one place.
+ * <p>
+ * Records are flushed to the file system as they are written and forced to disk at the phase boundaries. A torn
+ * record at the end of a journal is ignored on read.
+ * <p>
+ * The header is versioned. Journals of the first format, without a version and with the source bucket, environment
+ * and prefix only, are still read; their destination is the source bucket and environment.
+ */
+public class MoveJournal implements Closeable {
+    /**
+     * Starts a journal of the first format
+     */
+    private static final int MAGIC = 0x4d4f5645;
+    /**
+     * Starts a journal whose format version follows
+     */
+    private static final int VERSIONED_MAGIC = 0x4d4f5656;
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".journal";
+    private static final byte PLANNED = 'P';
+    private static final byte COPIED = 'C';
+    private static final byte COPY_COMPLETE = 'X';
+    private static final byte DELETED = 'D';
+
+    private final Path file;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private MoveJournal(final Path file) throws IOException {
+        this.file = file;
+        this.fileOut = new FileOutputStream(file.toFile(), true);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+
+    /**
+     * Start the journal of a new move.
+     *
+     * @param directory         The journal directory
+     * @param bucket            The bucket the sources are in
+     * @param env               The environment whose client reads and deletes the sources
+     * @param prefix            The folder the sources are moved from
+     * @param destinationBucket The bucket the destinations are in
+     * @param destinationEnv    The environment whose client writes the destinations
+     */
+    public static MoveJournal create(final Path directory, final String bucket, final String env,
+                                     final String prefix, final String destinationBucket,
+                                     final String destinationEnv) throws IOException {
+        final MoveJournal journal = new MoveJournal(
+                Files.createDirectories(directory).resolve(UUID.randomUUID().toString() + SUFFIX));
+        journal.lock.lock();
+        try {
+            journal.out.writeInt(VERSIONED_MAGIC);
+            journal.out.writeInt(VERSION);
+            journal.out.writeUTF(bucket);
+            journal.out.writeUTF(env);
+            journal.out.writeUTF(prefix);
+            journal.out.writeUTF(destinationBucket);
+            journal.out.writeUTF(destinationEnv);
+            journal.force();
+        } finally {
+            journal.lock.unlock();
+        }
+        return journal;
+    }
+
+    /**
+     * @return The journals left in the directory by moves that did not finish
+     */
+    public static List<Path> list(final Path directory) throws IOException {
+        final List<Path> result = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+                for (final Path journal : files) {
+                    result.add(journal);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static State read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final State state;
+            final int magic = in.readInt();
+            if (magic == MAGIC) {
+                final String bucket = in.readUTF();
+                final String env = in.readUTF();
+                state = new State(bucket, env, in.readUTF(), bucket, env);
+            } else if (magic == VERSIONED_MAGIC) {
+                final int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException(String.format("Move journal version %d not supported: %s", version, file));
+                }
+                state = new State(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+            } else {
+                throw new IOException("Not a move journal: " + file);
+            }
+            try {
+                while (true) {
+                    final byte op = in.readByte();
+                    if (op == PLANNED) {
+                        final String source = in.readUTF();
+                        state.planned.put(source, in.readUTF());
+                    } else if (op == COPIED) {
+                        state.copied.add(in.readUTF());
+                    } else if (op == COPY_COMPLETE) {
+                        state.copyComplete = true;
+                    } else if (op == DELETED) {
+                        state.deleted.add(in.readUTF());
+                    } else {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // End of the journal or a torn last record
+            }
+            return state;
+        }
+    }
+
+    public void planned(final String source, final String destination) throws IOException {
+        lock.lock();
+        try {
+            out.writeByte(PLANNED);
+            out.writeUTF(source);
+            out.writeUTF(destination);
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void copied(final String source) throws IOException {
+        lock.lock();
+        try {
+            out.writeByte(COPIED);
+            out.writeUTF(source);
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void copyComplete() throws IOException {
+        lock.lock();
+        try {
+            out.writeByte(COPY_COMPLETE);
+            force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deleted(final Collection<String> sources) throws IOException {
+        lock.lock();
+        try {
+            for (final String source : sources) {
+                out.writeByte(DELETED);
+                out.writeUTF(source);
+            }
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The move is over. The journal is closed and removed.
+     */
+    public void done() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            out.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void force() throws IOException {
+        out.flush();
+        fileOut.getChannel().force(false);
+    }
+
+    /**
+     * What a journal says about an unfinished move.
+     */
+    public static class State {
+        private final String bucket;
+        private final String env;
+        private final String prefix;
+        private final String destinationBucket;
+        private final String destinationEnv;
+        private final Map<String, String> planned = new LinkedHashMap<>();
+        private final Set<String> copied = new HashSet<>();
+        private final Set<String> deleted = new HashSet<>();
+        private boolean copyComplete;
+
+        private State(final String bucket, final String env, final String prefix,
+                      final String destinationBucket, final String destinationEnv) {
+            this.bucket = bucket;
+            this.env = env;
+            this.prefix = prefix;
+            this.destinationBucket = destinationBucket;
+            this.destinationEnv = destinationEnv;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getEnv() {
+            return env;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public String getDestinationBucket() {
+            return destinationBucket;
+        }
+
+        public String getDestinationEnv() {
+            return destinationEnv;
+        }
+
+        /**
+         * @return Source key to destination key of every copy that was sent
+         */
+        public Map<String, String> getPlanned() {
+            return planned;
+        }
+
+        /**
+         * @return The sources whose copy is known to have succeeded
+         */
+        public Set<String> getCopied() {
+            return copied;
+        }
+
+        public boolean isCopyComplete() {
+            return copyComplete;
+        }
+
+        /**
+         * @param landed Tells whether the copy of a planned source that was not journaled as copied reached its
+         *               destination anyway, from the source key and the destination key
+         * @return The destinations that have to be deleted to roll the move back, in the order they were planned
+         */
+        public List<String> getRollBackDeletes(final BiPredicate<String, String> landed) {
+            final List<String> destinations = new ArrayList<>();
+            for (final Map.Entry<String, String> entry : planned.entrySet()) {
+                if (copied.contains(entry.getKey()) || landed.test(entry.getKey(), entry.getValue())) {
+                    destinations.add(entry.getValue());
+                }
+            }
+            return destinations;
+        }
+
+        /**
+         * @return The copied sources that still have to be deleted to roll the move forward
+         */
+        public Set<String> getPendingDeletes() {
+            final Set<String> pending = new HashSet<>(copied);
+            pending.removeAll(deleted);
+            return pending;
+        }
+    }
+}
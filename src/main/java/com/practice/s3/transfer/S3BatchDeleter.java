@@ -0,0 +1,166 @@
+package com.practice.s3.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.practice.model.DeleteReport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@link S3BatchDeleter} deletes keys as they are handed to it. Keys are grouped into {@link DeleteObjectsRequest}s
+ * of at most {@link #MAX_KEYS_PER_REQUEST} keys, which is the S3 limit, and the requests run on the given executor
+ * while the caller keeps listing. At most {@code parallelism} requests are in flight; {@link #add} blocks when that
+ * many are outstanding so a large listing cannot queue up unbounded work.
+ * <p>
+ * A deleter is used by a single producer thread: call {@link #add} for every key, then {@link #finish()} once.
+ */
+public class S3BatchDeleter {
+    public static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    /**
+     * Number of per key errors kept for the report
+     */
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final AmazonS3 amazonS3;
+    private final String bucketName;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final Semaphore inFlight;
+    private final Consumer<List<String>> onDeleted;
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> errors = new ArrayList<>();
+    private List<DeleteObjectsRequest.KeyVersion> batch = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+
+    /**
+     * @param amazonS3    The client to delete with
+     * @param bucketName  The bucket the keys are in
+     * @param executor    The executor the delete requests run on
+     * @param parallelism The maximum number of delete requests in flight
+     * @param onDeleted   Called with the keys of every batch that was deleted. May be called concurrently.
+     */
+    public S3BatchDeleter(final AmazonS3 amazonS3,
+                          final String bucketName,
+                          final ExecutorService executor,
+                          final int parallelism,
+                          final Consumer<List<String>> onDeleted) {
+        this.amazonS3 = amazonS3;
+        this.bucketName = bucketName;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.inFlight = new Semaphore(this.parallelism);
+        this.onDeleted = onDeleted;
+    }
+
+    public void add(final String key) throws InterruptedException {
+        add(new DeleteObjectsRequest.KeyVersion(key));
+    }
+
+    public void add(final DeleteObjectsRequest.KeyVersion keyVersion) throws InterruptedException {
+        batch.add(keyVersion);
+        if (batch.size() >= MAX_KEYS_PER_REQUEST) {
+            submit();
+        }
+    }
+
+    /**
+     * Send the last partial batch and wait for all the requests to complete.
+     *
+     * @return The counts of deleted and failed keys
+     */
+    public DeleteReport finish() throws InterruptedException {
+        if (!batch.isEmpty()) {
+            submit();
+        }
+        inFlight.acquire(parallelism);
+        inFlight.release(parallelism);
+        synchronized (errors) {
+            return new DeleteReport(deleted.get(), failed.get(), errors);
+        }
+    }
+
+    private void submit() throws InterruptedException {
+        final List<DeleteObjectsRequest.KeyVersion> keys = batch;
+        batch = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+        inFlight.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    delete(keys);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            failed(keys, e);
+        }
+    }
+
+    private void delete(final List<DeleteObjectsRequest.KeyVersion> keys) {
+        final DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName)
+                .withKeys(keys)
+                .withQuiet(false);
+        try {
+            deleted(amazonS3.deleteObjects(request).getDeletedObjects());
+        } catch (MultiObjectDeleteException e) {
+            deleted(e.getDeletedObjects());
+            failed.addAndGet(e.getErrors().size());
+            synchronized (errors) {
+                for (final MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                    if (errors.size() >= MAX_REPORTED_ERRORS) {
+                        break;
+                    }
+                    errors.add(String.format("%s: %s %s", error.getKey(), error.getCode(), error.getMessage()));
+                }
+            }
+        } catch (AmazonClientException e) {
+            failed(keys, e);
+        }
+    }
+
+    private void deleted(final List<DeleteObjectsResult.DeletedObject> deletedObjects) {
+        deleted.addAndGet(deletedObjects.size());
+        if (onDeleted != null && !deletedObjects.isEmpty()) {
+            final List<String> keys = new ArrayList<>(deletedObjects.size());
+            for (final DeleteObjectsResult.DeletedObject deletedObject : deletedObjects) {
+                keys.add(deletedObject.getKey());
+            }
+            onDeleted.accept(keys);
+        }
+    }
+
+    private void failed(final List<DeleteObjectsRequest.KeyVersion> keys, final Exception e) {
+        this.getlogger().error(String.format("S3BatchDeleter: delete of %d keys in bucket %s failed: %s",
+                keys.size(), bucketName, e));
+        failed.addAndGet(keys.size());
+        synchronized (errors) {
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(String.format("%s: %s", keys.get(0).getKey(), e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3BatchDeleter.class);
+    }
+}
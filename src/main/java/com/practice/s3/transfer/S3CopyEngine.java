@@ -0,0 +1,226 @@
+package com.practice.s3.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.practice.model.TransferReport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link S3CopyEngine} runs server side copies concurrently. The number of copies in flight follows an
+ * {@link AdaptiveConcurrencyLimit}: it grows while S3 keeps up and is halved when S3 answers with a throttling
+ * error, after which the throttled copy is retried. Objects at or above the multipart threshold are copied
+ * with the {@link S3MultipartCopier}, unless the engine is given an {@link ObjectCopier} of its own such as the
+ * {@link S3StreamCopier}. The engine does not delete anything; a move deletes the copied sources afterwards in
+ * batches.
+ */
+public class S3CopyEngine {
+    private static final int MAX_THROTTLE_RETRIES = 5;
+    private static final long THROTTLE_BACKOFF_MILLIS = 100;
+
+    private final ExecutorService executor;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
+    private final ObjectCopier copier;
+
+    /**
+     * @param amazonS3           The client to copy with
+     * @param executor           The executor the copies run on
+     * @param initialConcurrency Copies in flight at the start of a transfer
+     * @param maxConcurrency     Upper bound of copies in flight
+     * @param multipartCopier    Copies the large objects
+     * @param multipartThreshold Objects of this size or larger are copied in parts
+     */
+    public S3CopyEngine(final AmazonS3 amazonS3, final ExecutorService executor,
+                        final int initialConcurrency, final int maxConcurrency,
+                        final S3MultipartCopier multipartCopier, final long multipartThreshold) {
+        this(executor, initialConcurrency, maxConcurrency,
+                (sourceBucket, sourceKey, destinationBucket, destinationKey, size) -> {
+                    if (multipartCopier != null && size >= multipartThreshold) {
+                        return multipartCopier.copy(sourceBucket, sourceKey, destinationBucket, destinationKey, size);
+                    }
+                    return amazonS3.copyObject(new CopyObjectRequest(sourceBucket, sourceKey,
+                            destinationBucket, destinationKey)).getETag();
+                });
+    }
+
+    /**
+     * @param executor           The executor the copies run on
+     * @param initialConcurrency Copies in flight at the start of a transfer
+     * @param maxConcurrency     Upper bound of copies in flight
+     * @param copier             Copies one object
+     */
+    public S3CopyEngine(final ExecutorService executor, final int initialConcurrency, final int maxConcurrency,
+                        final ObjectCopier copier) {
+        this.executor = executor;
+        this.initialConcurrency = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.copier = copier;
+    }
+
+    /**
+     * Copy every source key to its destination key.
+     *
+     * @param sourceBucket      The bucket to copy from
+     * @param destinationBucket The bucket to copy to
+     * @param keys              Source key to destination key
+     * @param sizes             Source key to object size. Objects of unknown size are copied in one request.
+     * @param listener          Told about every copy. May be called concurrently.
+     * @return The outcome of every file
+     */
+    public TransferReport copy(final String sourceBucket,
+                               final String destinationBucket,
+                               final Map<String, String> keys,
+                               final Map<String, Long> sizes,
+                               final Listener listener)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(initialConcurrency, maxConcurrency);
+        final List<TransferReport.FileOutcome> outcomes = Collections.synchronizedList(new ArrayList<>(keys.size()));
+        try {
+            for (final Map.Entry<String, String> entry : keys.entrySet()) {
+                limit.acquire();
+                try {
+                    executor.execute(() -> {
+                        boolean success = false;
+                        try {
+                            success = copyOne(sourceBucket, entry.getKey(), destinationBucket, entry.getValue(),
+                                    sizes.getOrDefault(entry.getKey(), -1L), limit, outcomes, listener);
+                        } finally {
+                            limit.release(success);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    limit.release(false);
+                    outcomes.add(new TransferReport.FileOutcome(entry.getKey(), entry.getValue(),
+                            TransferReport.Status.FAILED, e.toString()));
+                }
+            }
+        } finally {
+            limit.awaitIdle();
+        }
+        this.getlogger().info(String.format("S3CopyEngine: %d files from %s to %s done in %d ms, final concurrency %d",
+                keys.size(), sourceBucket, destinationBucket, System.currentTimeMillis() - start, limit.getLimit()));
+        return new TransferReport(outcomes, null, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return {@code true} if the copy succeeded without being throttled
+     */
+    private boolean copyOne(final String sourceBucket, final String sourceKey,
+                            final String destinationBucket, final String destinationKey,
+                            final long size,
+                            final AdaptiveConcurrencyLimit limit,
+                            final List<TransferReport.FileOutcome> outcomes,
+                            final Listener listener) {
+        if (listener != null && !listener.beforeCopy(sourceKey, destinationKey)) {
+            final TransferReport.FileOutcome outcome = new TransferReport.FileOutcome(sourceKey, destinationKey,
+                    TransferReport.Status.FAILED, "The copy was refused before it started");
+            outcomes.add(outcome);
+            listener.copied(outcome, null);
+            return true;
+        }
+        boolean throttled = false;
+        TransferReport.FileOutcome outcome;
+        String eTag = null;
+        int attempt = 0;
+        while (true) {
+            try {
+                eTag = copier.copy(sourceBucket, sourceKey, destinationBucket, destinationKey, size);
+                outcome = new TransferReport.FileOutcome(sourceKey, destinationKey, TransferReport.Status.COPIED, null);
+                break;
+            } catch (AmazonServiceException e) {
+                if (isThrottling(e) && attempt++ < MAX_THROTTLE_RETRIES) {
+                    throttled = true;
+                    limit.throttled();
+                    if (!sleep(THROTTLE_BACKOFF_MILLIS << attempt)) {
+                        outcome = failed(sourceKey, destinationKey, e);
+                        break;
+                    }
+                    continue;
+                }
+                outcome = failed(sourceKey, destinationKey, e);
+                break;
+            } catch (AmazonClientException e) {
+                outcome = failed(sourceKey, destinationKey, e);
+                break;
+            }
+        }
+        outcomes.add(outcome);
+        if (listener != null) {
+            listener.copied(outcome, eTag);
+        }
+        return !throttled && outcome.getStatus() == TransferReport.Status.COPIED;
+    }
+
+    private TransferReport.FileOutcome failed(final String sourceKey, final String destinationKey, final Exception e) {
+        this.getlogger().error(String.format("S3CopyEngine: copy of %s to %s failed: %s", sourceKey, destinationKey, e));
+        return new TransferReport.FileOutcome(sourceKey, destinationKey, TransferReport.Status.FAILED, e.getMessage());
+    }
+
+    /**
+     * Copies one object. Failures are thrown as {@link AmazonClientException}s; throttling errors are retried by
+     * the engine.
+     */
+    @FunctionalInterface
+    public interface ObjectCopier {
+        /**
+         * @param size The size of the source object, or -1 if it is not known
+         * @return The ETag of the new object
+         */
+        String copy(String sourceBucket, String sourceKey, String destinationBucket, String destinationKey, long size);
+    }
+
+    /**
+     * Receives the progress of a transfer.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called before the copy of a key is sent.
+         *
+         * @return {@code false} to fail the copy without sending it
+         */
+        default boolean beforeCopy(final String sourceKey, final String destinationKey) {
+            return true;
+        }
+
+        /**
+         * Called with the outcome and, for a successful copy, the ETag of the new object.
+         */
+        void copied(TransferReport.FileOutcome outcome, String eTag);
+    }
+
+    static boolean isThrottling(final AmazonServiceException e) {
+        return e.getStatusCode() == 503 || e.getStatusCode() == 429 || "SlowDown".equals(e.getErrorCode());
+    }
+
+    private static boolean sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3CopyEngine.class);
+    }
+}
@@ -0,0 +1,164 @@
+package com.practice.s3.transfer;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
+import com.amazonaws.services.s3.model.StorageClass;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@link S3MultipartCopier} copies one large object with a multipart upload whose parts are server side
+ * {@link CopyPartRequest}s over byte ranges of the source. The parts run concurrently on the part executor. This
+ * is the only way to copy objects over 5 GB, and it is faster than a single copy for large objects. Every part is
+ * copied only if the source still has the ETag it had when the copy started, so a source overwritten meanwhile
+ * cannot yield an object mixing both versions. If any part fails the upload is aborted so no parts are left behind.
+ * The copy keeps the storage class and the KMS key of the source.
+ */
+public class S3MultipartCopier {
+    private static final int MAX_PARTS = 10000;
+
+    private final AmazonS3 amazonS3;
+    private final ExecutorService partExecutor;
+    private final long partSize;
+
+    /**
+     * @param amazonS3     The client to copy with
+     * @param partExecutor The executor the part copies run on. Its size bounds the part copies in flight.
+     * @param partSize     The size of a part. It is raised when the object would need more than 10000 parts.
+     */
+    public S3MultipartCopier(final AmazonS3 amazonS3, final ExecutorService partExecutor, final long partSize) {
+        this.amazonS3 = amazonS3;
+        this.partExecutor = partExecutor;
+        this.partSize = partSize;
+    }
+
+    /**
+     * @param size The size of the source object
+     * @return The ETag of the new object
+     */
+    public String copy(final String sourceBucket, final String sourceKey,
+                       final String destinationBucket, final String destinationKey,
+                       final long size) {
+        final ObjectMetadata sourceMetadata = amazonS3.getObjectMetadata(sourceBucket, sourceKey);
+        final InitiateMultipartUploadRequest initiateRequest = new InitiateMultipartUploadRequest(
+                destinationBucket, destinationKey, newObjectMetadata(sourceMetadata));
+        if (sourceMetadata.getStorageClass() != null) {
+            initiateRequest.setStorageClass(StorageClass.fromValue(sourceMetadata.getStorageClass()));
+        }
+        if (sourceMetadata.getSSEAwsKmsKeyId() != null) {
+            initiateRequest.setSSEAwsKeyManagementParams(
+                    new SSEAwsKeyManagementParams(sourceMetadata.getSSEAwsKmsKeyId()));
+        }
+        final String uploadId = amazonS3.initiateMultipartUpload(initiateRequest).getUploadId();
+        final long effectivePartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        final List<Future<PartETag>> parts = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            for (long firstByte = 0; firstByte < size; firstByte += effectivePartSize, partNumber++) {
+                final CopyPartRequest request = new CopyPartRequest()
+                        .withSourceBucketName(sourceBucket)
+                        .withSourceKey(sourceKey)
+                        .withDestinationBucketName(destinationBucket)
+                        .withDestinationKey(destinationKey)
+                        .withUploadId(uploadId)
+                        .withFirstByte(firstByte)
+                        .withLastByte(Math.min(firstByte + effectivePartSize, size) - 1)
+                        .withPartNumber(partNumber)
+                        .withMatchingETagConstraint(sourceMetadata.getETag());
+                parts.add(partExecutor.submit(() -> {
+                    final CopyPartResult result = amazonS3.copyPart(request);
+                    if (result == null) {
+                        throw new SdkClientException(String.format("%s changed during the copy, part %d not copied",
+                                sourceKey, request.getPartNumber()));
+                    }
+                    return result.getPartETag();
+                }));
+            }
+            final List<PartETag> partETags = new ArrayList<>(parts.size());
+            for (final Future<PartETag> part : parts) {
+                partETags.add(part.get());
+            }
+            partETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+            final String eTag = amazonS3.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                    destinationBucket, destinationKey, uploadId, partETags)).getETag();
+            this.getlogger().info(String.format("S3MultipartCopier: copied %s to %s, %d bytes in %d parts",
+                    sourceKey, destinationKey, size, partETags.size()));
+            return eTag;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            throw new AbortedException("Multipart copy interrupted", e);
+        } catch (ExecutionException e) {
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            if (e.getCause() instanceof AmazonClientException) {
+                throw (AmazonClientException) e.getCause();
+            }
+            throw new SdkClientException("Multipart copy failed", e.getCause());
+        } catch (RuntimeException e) {
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private void abort(final String bucket, final String key, final String uploadId, final List<Future<PartETag>> parts) {
+        for (final Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (AmazonClientException e) {
+            this.getlogger().error(String.format("S3MultipartCopier: cannot abort upload %s of %s: %s", uploadId, key, e));
+        }
+    }
+
+    /**
+     * The headers a plain copy would carry over from the source object.
+     */
+    static ObjectMetadata newObjectMetadata(final ObjectMetadata source) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        if (source.getContentType() != null) {
+            metadata.setContentType(source.getContentType());
+        }
+        if (source.getContentEncoding() != null) {
+            metadata.setContentEncoding(source.getContentEncoding());
+        }
+        if (source.getContentDisposition() != null) {
+            metadata.setContentDisposition(source.getContentDisposition());
+        }
+        if (source.getCacheControl() != null) {
+            metadata.setCacheControl(source.getCacheControl());
+        }
+        if (source.getSSEAlgorithm() != null) {
+            metadata.setSSEAlgorithm(source.getSSEAlgorithm());
+        }
+        metadata.setUserMetadata(source.getUserMetadata());
+        return metadata;
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3MultipartCopier.class);
+    }
+}
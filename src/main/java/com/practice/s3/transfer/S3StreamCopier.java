@@ -0,0 +1,163 @@
+package com.practice.s3.transfer;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * {@link S3StreamCopier} copies objects between two clients whose credentials do not allow a server side copy,
+ * for example from the QA account to the Production account. The source is read with ranged GETs and every range
+ * is streamed straight into an upload part of a multipart upload on the destination, so nothing is kept on local
+ * disk and memory is bounded by the part executor size times the SDK stream buffers. Objects smaller than one part
+ * are streamed with a single GET and PUT.
+ * <p>
+ * Every GET is pinned to the ETag read at the start, so a source that changes while it is copied fails the copy
+ * instead of producing a mix of two versions.
+ */
+public class S3StreamCopier implements S3CopyEngine.ObjectCopier {
+    private static final int MAX_PARTS = 10000;
+
+    private final AmazonS3 sourceS3;
+    private final AmazonS3 destinationS3;
+    private final ExecutorService partExecutor;
+    private final long partSize;
+
+    /**
+     * @param sourceS3      The client to read with
+     * @param destinationS3 The client to write with
+     * @param partExecutor  The executor the parts are streamed on. Its size bounds the parts in flight.
+     * @param partSize      The size of a part. It is raised when the object would need more than 10000 parts.
+     */
+    public S3StreamCopier(final AmazonS3 sourceS3, final AmazonS3 destinationS3,
+                          final ExecutorService partExecutor, final long partSize) {
+        this.sourceS3 = sourceS3;
+        this.destinationS3 = destinationS3;
+        this.partExecutor = partExecutor;
+        this.partSize = partSize;
+    }
+
+    @Override
+    public String copy(final String sourceBucket, final String sourceKey,
+                       final String destinationBucket, final String destinationKey,
+                       final long ignoredSize) {
+        final ObjectMetadata sourceMetadata = sourceS3.getObjectMetadata(sourceBucket, sourceKey);
+        final long size = sourceMetadata.getContentLength();
+        final String sourceETag = sourceMetadata.getETag();
+        if (size <= partSize) {
+            return copySingle(sourceBucket, sourceKey, sourceETag, destinationBucket, destinationKey, sourceMetadata);
+        }
+        final String uploadId = destinationS3.initiateMultipartUpload(new InitiateMultipartUploadRequest(
+                destinationBucket, destinationKey, S3MultipartCopier.newObjectMetadata(sourceMetadata))).getUploadId();
+        final long effectivePartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+        final List<Future<PartETag>> parts = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            for (long firstByte = 0; firstByte < size; firstByte += effectivePartSize, partNumber++) {
+                final long lastByte = Math.min(firstByte + effectivePartSize, size) - 1;
+                final GetObjectRequest get = new GetObjectRequest(sourceBucket, sourceKey)
+                        .withRange(firstByte, lastByte)
+                        .withMatchingETagConstraint(sourceETag);
+                final UploadPartRequest upload = new UploadPartRequest()
+                        .withBucketName(destinationBucket)
+                        .withKey(destinationKey)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withPartSize(lastByte - firstByte + 1)
+                        .withLastPart(lastByte == size - 1);
+                parts.add(partExecutor.submit(() -> {
+                    try (S3Object range = getObject(get, sourceKey)) {
+                        return destinationS3.uploadPart(upload.withInputStream(range.getObjectContent())).getPartETag();
+                    }
+                }));
+            }
+            final List<PartETag> partETags = new ArrayList<>(parts.size());
+            for (final Future<PartETag> part : parts) {
+                partETags.add(part.get());
+            }
+            partETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+            final String eTag = destinationS3.completeMultipartUpload(new CompleteMultipartUploadRequest(
+                    destinationBucket, destinationKey, uploadId, partETags)).getETag();
+            this.getlogger().info(String.format("S3StreamCopier: streamed %s to %s, %d bytes in %d parts",
+                    sourceKey, destinationKey, size, partETags.size()));
+            return eTag;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            throw new AbortedException("Streamed copy interrupted", e);
+        } catch (ExecutionException e) {
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            if (e.getCause() instanceof AmazonClientException) {
+                throw (AmazonClientException) e.getCause();
+            }
+            throw new SdkClientException("Streamed copy failed", e.getCause());
+        } catch (RuntimeException e) {
+            abort(destinationBucket, destinationKey, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private String copySingle(final String sourceBucket, final String sourceKey, final String sourceETag,
+                              final String destinationBucket, final String destinationKey,
+                              final ObjectMetadata sourceMetadata) {
+        final ObjectMetadata metadata = S3MultipartCopier.newObjectMetadata(sourceMetadata);
+        metadata.setContentLength(sourceMetadata.getContentLength());
+        try (S3Object object = getObject(new GetObjectRequest(sourceBucket, sourceKey)
+                .withMatchingETagConstraint(sourceETag), sourceKey)) {
+            return destinationS3.putObject(destinationBucket, destinationKey, object.getObjectContent(), metadata)
+                    .getETag();
+        } catch (IOException e) {
+            throw new SdkClientException(String.format("Cannot close the stream of %s", sourceKey), e);
+        }
+    }
+
+    /**
+     * @throws SdkClientException If the source changed since the copy started
+     */
+    private S3Object getObject(final GetObjectRequest request, final String sourceKey) {
+        final S3Object object = sourceS3.getObject(request);
+        if (object == null) {
+            throw new SdkClientException(String.format("Source %s changed during the copy", sourceKey));
+        }
+        return object;
+    }
+
+    private void abort(final String bucket, final String key, final String uploadId, final List<Future<PartETag>> parts) {
+        for (final Future<PartETag> part : parts) {
+            part.cancel(true);
+        }
+        try {
+            destinationS3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (AmazonClientException e) {
+            this.getlogger().error(String.format("S3StreamCopier: cannot abort upload %s of %s: %s", uploadId, key, e));
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(S3StreamCopier.class);
+    }
+}
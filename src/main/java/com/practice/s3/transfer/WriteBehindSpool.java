@@ -0,0 +1,589 @@
+package com.practice.s3.transfer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.practice.constants.SpoolStatus;
+import com.practice.model.SpoolReceipt;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Write-behind spool of the files stored through this service. A write is accepted once its content and its
+ * record are forced to the local disk, and uploaded to S3 afterwards, so the caller does not wait for S3.
+ * <p>
+ * The writes of one key are uploaded one at a time in the order they were accepted. A write that is followed by a
+ * newer write of the same key before its turn comes is not uploaded at all ({@link SpoolStatus#SUPERSEDED}), since
+ * the newer one would replace it anyway. A direct write, delete or rename of a key through this service first calls
+ * {@link #supersede} or {@link #flush}, so that an older spooled write never lands after it or is read instead of
+ * it. An upload that fails with a throttling, server or client error is retried with a doubling delay, up to a
+ * minute, until it succeeds; one that S3 refuses with any other 4xx fails for good.
+ * <p>
+ * Every write is kept as {@code <id>.data} with its content and {@code <id>.meta} with its target, content type and
+ * user metadata. The record is written last and renamed into place, so a write without one was never accepted and
+ * is removed at startup, and every write with one is uploaded again. Both files are removed once the write is finished.
+ * <p>
+ * Metrics: {@code s3.spool.pending} and {@code s3.spool.bytes} gauges, {@code s3.spool.uploads} tagged
+ * {@code outcome} uploaded, superseded, retried or failed, and the {@code s3.spool.lag} timer from acceptance to
+ * upload.
+ */
+public class WriteBehindSpool {
+    private static final String CLASS_NAME = WriteBehindSpool.class.getSimpleName();
+    private static final int MAGIC = 0x53504f4c;
+    /**
+     * Records that carry the content type and the user metadata
+     */
+    private static final int MAGIC_WITH_METADATA = 0x53504f32;
+    private static final String DATA = ".data";
+    private static final String META = ".meta";
+    private static final String TMP = ".tmp";
+    private static final int MAX_FINISHED = 10000;
+    private static final long BASE_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    /**
+     * Writes the content of a new write into its spool file.
+     */
+    public interface Payload {
+        void writeTo(Path file) throws IOException;
+    }
+
+    /**
+     * Sends a spooled write to S3.
+     */
+    public interface Uploader {
+        /**
+         * @param metadata The content type and user metadata the object is stored with
+         * @return The ETag of the uploaded object
+         */
+        String upload(String env, String bucket, String key, Path file, ObjectMetadata metadata) throws Exception;
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Uploader uploader;
+    private final ScheduledExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled whenever the head of a lane is done, uploaded or not
+     */
+    private final Condition laneChanged = lock.newCondition();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final Map<String, Entry> pending = new HashMap<>();
+    private final Map<String, SpoolReceipt> finished = new LinkedHashMap<String, SpoolReceipt>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, SpoolReceipt> eldest) {
+            return size() > MAX_FINISHED;
+        }
+    };
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param directory The spool directory, created if needed
+     * @param maxBytes  The bytes the pending writes may take. Writes beyond it are refused.
+     * @param threads   How many uploads run at the same time
+     * @param uploader  Sends the writes to S3
+     */
+    public WriteBehindSpool(final Path directory, final long maxBytes, final int threads,
+                            final Uploader uploader) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.uploader = uploader;
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            final Thread thread = new Thread(r, "s3-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("s3.spool.pending", pending, p -> p.size()).register(Metrics.globalRegistry);
+        Gauge.builder("s3.spool.bytes", pendingBytes, AtomicLong::get).register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Accept a write. The content and the record are on disk when this returns.
+     *
+     * @param metadata The content type and user metadata to store the object with
+     * @return The receipt of the write, or {@code null} if the spool is full
+     */
+    public SpoolReceipt submit(final String env, final String bucket, final String key,
+                               final ObjectMetadata metadata, final Payload payload) throws IOException {
+        if (pendingBytes.get() >= maxBytes) {
+            return null;
+        }
+        final String id = UUID.randomUUID().toString();
+        final Path data = directory.resolve(id + DATA);
+        final Path meta = directory.resolve(id + META);
+        final Path metaTmp = directory.resolve(id + META + TMP);
+        try {
+            payload.writeTo(data);
+            if (!Files.exists(data)) {
+                Files.createFile(data);
+            }
+            force(data);
+            final long size = Files.size(data);
+            if (pendingBytes.addAndGet(size) > maxBytes) {
+                pendingBytes.addAndGet(-size);
+                Files.deleteIfExists(data);
+                return null;
+            }
+            final Entry entry = new Entry(id, env, bucket, key, sequence.incrementAndGet(), size,
+                    System.currentTimeMillis(), metadata.getContentType(), metadata.getUserMetadata());
+            try {
+                try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(metaTmp))) {
+                    out.writeInt(MAGIC_WITH_METADATA);
+                    out.writeUTF(env);
+                    out.writeUTF(bucket);
+                    out.writeUTF(key);
+                    out.writeLong(entry.sequence);
+                    out.writeLong(entry.receipt.getSubmittedAt());
+                    out.writeUTF(entry.contentType);
+                    out.writeInt(entry.userMetadata.size());
+                    for (final Map.Entry<String, String> field : entry.userMetadata.entrySet()) {
+                        out.writeUTF(field.getKey());
+                        out.writeUTF(field.getValue());
+                    }
+                }
+                force(metaTmp);
+                Files.move(metaTmp, meta, StandardCopyOption.ATOMIC_MOVE);
+                forceDirectory();
+            } catch (IOException e) {
+                pendingBytes.addAndGet(-size);
+                throw e;
+            }
+            enqueue(entry);
+            return entry.receipt;
+        } catch (IOException e) {
+            Files.deleteIfExists(metaTmp);
+            Files.deleteIfExists(meta);
+            Files.deleteIfExists(data);
+            throw e;
+        }
+    }
+
+    /**
+     * Queue the writes left in the spool by a previous run, in the order they were accepted.
+     */
+    public void recover() throws IOException {
+        final List<Entry> recovered = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.endsWith(TMP)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(DATA)) {
+                    final String id = name.substring(0, name.length() - DATA.length());
+                    final Entry entry = readEntry(id);
+                    if (entry == null) {
+                        Files.deleteIfExists(file);
+                        Files.deleteIfExists(directory.resolve(id + META));
+                    } else {
+                        recovered.add(entry);
+                    }
+                } else if (name.endsWith(META) && !Files.exists(directory.resolve(
+                        name.substring(0, name.length() - META.length()) + DATA))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        recovered.sort(Comparator.comparingLong(entry -> entry.sequence));
+        for (final Entry entry : recovered) {
+            sequence.accumulateAndGet(entry.sequence, Math::max);
+            pendingBytes.addAndGet(entry.receipt.getSize());
+            enqueue(entry);
+        }
+        if (!recovered.isEmpty()) {
+            this.getlogger().info(String.format("%s recover: %d spooled writes queued again", CLASS_NAME,
+                    recovered.size()));
+        }
+    }
+
+    /**
+     * @return The receipt of a write accepted since the start, or of a write found in the spool at startup
+     */
+    public SpoolReceipt getReceipt(final String id) {
+        lock.lock();
+        try {
+            final SpoolReceipt receipt = finished.get(id);
+            if (receipt != null) {
+                return receipt;
+            }
+            for (final Lane lane : lanes.values()) {
+                for (final Entry entry : lane.entries) {
+                    if (entry.receipt.getId().equals(id)) {
+                        return entry.receipt;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Open the content of the newest write of a key that is not uploaded yet, so that a read sees the write the
+     * caller was acknowledged for.
+     *
+     * @return The content, or {@code null} if no write of the key is pending
+     */
+    public InputStream open(final String bucket, final String key) throws IOException {
+        final Entry entry;
+        lock.lock();
+        try {
+            entry = pending.get(laneName(bucket, key));
+        } finally {
+            lock.unlock();
+        }
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return Files.newInputStream(entry.data);
+        } catch (NoSuchFileException e) {
+            // Uploaded since the lookup, S3 has it now
+            return null;
+        }
+    }
+
+    /**
+     * Make way for a direct write or delete of keys: their writes still queued are superseded, and writes being
+     * uploaded right now are waited for.
+     *
+     * @param bucket The bucket of the keys
+     * @param keys   Which keys
+     * @return The number of writes superseded
+     */
+    public int supersede(final String bucket, final Predicate<String> keys) throws InterruptedException {
+        final List<Entry> superseded = new ArrayList<>();
+        lock.lock();
+        try {
+            while (true) {
+                boolean uploading = false;
+                for (final Iterator<Lane> it = lanes.values().iterator(); it.hasNext(); ) {
+                    final Lane lane = it.next();
+                    if (!lane.bucket.equals(bucket) || !keys.test(lane.key)) {
+                        continue;
+                    }
+                    for (final Iterator<Entry> entries = lane.entries.iterator(); entries.hasNext(); ) {
+                        final Entry entry = entries.next();
+                        if (entry != lane.uploading) {
+                            superseded.add(entry);
+                            entries.remove();
+                        }
+                    }
+                    if (lane.uploading != null) {
+                        uploading = true;
+                    } else {
+                        it.remove();
+                    }
+                }
+                if (!uploading) {
+                    break;
+                }
+                laneChanged.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (final Entry entry : superseded) {
+            finish(entry, SpoolStatus.SUPERSEDED, "", "Replaced by a direct write");
+        }
+        return superseded.size();
+    }
+
+    /**
+     * Wait until the pending writes of keys are uploaded, before the keys are moved or renamed.
+     *
+     * @param bucket        The bucket of the keys
+     * @param keys          Which keys
+     * @param timeoutMillis How long to wait at most
+     * @return {@code false} if writes of the keys were still pending when the time was up
+     */
+    public boolean flush(final String bucket, final Predicate<String> keys, final long timeoutMillis)
+            throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (lanes.values().stream().anyMatch(lane -> lane.bucket.equals(bucket) && keys.test(lane.key))) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = laneChanged.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(final Entry entry) {
+        final String name = laneName(entry.bucket, entry.key);
+        final Lane lane;
+        final boolean start;
+        lock.lock();
+        try {
+            pending.put(name, entry);
+            lane = lanes.computeIfAbsent(name, n -> new Lane(entry.bucket, entry.key));
+            lane.entries.addLast(entry);
+            start = lane.entries.size() == 1;
+        } finally {
+            lock.unlock();
+        }
+        if (start) {
+            executor.execute(() -> runLane(lane));
+        }
+    }
+
+    /**
+     * Upload the head of a lane, then carry on with the next write of the key. Only one task runs per lane; a task
+     * of a lane that was emptied by {@link #supersede} in the meantime does nothing.
+     */
+    private void runLane(final Lane lane) {
+        final String name = laneName(lane.bucket, lane.key);
+        final List<Entry> superseded = new ArrayList<>();
+        final Entry entry;
+        lock.lock();
+        try {
+            if (lanes.get(name) != lane || lane.entries.isEmpty()) {
+                return;
+            }
+            while (lane.entries.size() > 1) {
+                superseded.add(lane.entries.pollFirst());
+            }
+            entry = lane.entries.peekFirst();
+            lane.uploading = entry;
+        } finally {
+            lock.unlock();
+        }
+        for (final Entry older : superseded) {
+            finish(older, SpoolStatus.SUPERSEDED, "", "");
+        }
+        entry.receipt.setStatus(SpoolStatus.UPLOADING);
+        entry.receipt.setAttempts(entry.receipt.getAttempts() + 1);
+        try {
+            final String eTag = uploader.upload(entry.env, entry.bucket, entry.key, entry.data, entry.metadata());
+            Metrics.globalRegistry.timer("s3.spool.lag").record(
+                    System.currentTimeMillis() - entry.receipt.getSubmittedAt(), TimeUnit.MILLISECONDS);
+            finish(entry, SpoolStatus.UPLOADED, eTag, "");
+        } catch (Exception e) {
+            if (isRetryable(e)) {
+                final long delay = Math.min(MAX_RETRY_DELAY_MILLIS,
+                        BASE_RETRY_DELAY_MILLIS << Math.min(16, entry.receipt.getAttempts() - 1));
+                entry.receipt.setStatus(SpoolStatus.PENDING);
+                entry.receipt.setError(e.toString());
+                Metrics.globalRegistry.counter("s3.spool.uploads", "outcome", "retried").increment();
+                this.getlogger().warn(String.format("%s runLane: Upload of %s to %s failed, attempt %d, retry in %d ms: %s",
+                        CLASS_NAME, entry.key, entry.bucket, entry.receipt.getAttempts(), delay, e));
+                lock.lock();
+                try {
+                    lane.uploading = null;
+                    laneChanged.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                executor.schedule(() -> runLane(lane), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            this.getlogger().error(String.format("%s runLane: Upload of %s to %s refused: %s", CLASS_NAME, entry.key,
+                    entry.bucket, e));
+            finish(entry, SpoolStatus.FAILED, "", e.toString());
+        }
+        final boolean more;
+        lock.lock();
+        try {
+            lane.uploading = null;
+            lane.entries.pollFirst();
+            more = !lane.entries.isEmpty();
+            if (!more) {
+                lanes.remove(name, lane);
+            }
+            laneChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (more) {
+            executor.execute(() -> runLane(lane));
+        }
+    }
+
+    private void finish(final Entry entry, final SpoolStatus status, final String eTag, final String error) {
+        try {
+            Files.deleteIfExists(directory.resolve(entry.receipt.getId() + META));
+            forceDirectory();
+            Files.deleteIfExists(entry.data);
+        } catch (IOException e) {
+            this.getlogger().error(String.format("%s finish: Cannot remove the spooled write %s: %s", CLASS_NAME,
+                    entry.receipt.getId(), e));
+        }
+        pendingBytes.addAndGet(-entry.receipt.getSize());
+        entry.receipt.setETag(eTag);
+        entry.receipt.setError(error);
+        entry.receipt.setFinishedAt(System.currentTimeMillis());
+        entry.receipt.setStatus(status);
+        Metrics.globalRegistry.counter("s3.spool.uploads", "outcome", status.name().toLowerCase()).increment();
+        lock.lock();
+        try {
+            pending.remove(laneName(entry.bucket, entry.key), entry);
+            finished.put(entry.receipt.getId(), entry.receipt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code false} for the errors that a retry cannot fix, S3 refusing the request with a 4xx other than
+     * a timeout or throttling
+     */
+    private static boolean isRetryable(final Exception e) {
+        if (e instanceof AmazonServiceException) {
+            final int status = ((AmazonServiceException) e).getStatusCode();
+            return status < 400 || status >= 500 || status == 408 || status == 429;
+        }
+        return !(e instanceof NoSuchFileException);
+    }
+
+    /**
+     * @return The write recorded under the id, or {@code null} if its record is missing or torn
+     */
+    private Entry readEntry(final String id) {
+        final Path meta = directory.resolve(id + META);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta)))) {
+            final int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_WITH_METADATA) {
+                return null;
+            }
+            final String env = in.readUTF();
+            final String bucket = in.readUTF();
+            final String key = in.readUTF();
+            final long entrySequence = in.readLong();
+            final long submittedAt = in.readLong();
+            String contentType = "";
+            final Map<String, String> userMetadata = new HashMap<>();
+            if (magic == MAGIC_WITH_METADATA) {
+                contentType = in.readUTF();
+                final int fields = in.readInt();
+                for (int i = 0; i < fields; i++) {
+                    userMetadata.put(in.readUTF(), in.readUTF());
+                }
+            }
+            return new Entry(id, env, bucket, key, entrySequence, Files.size(directory.resolve(id + DATA)),
+                    submittedAt, contentType, userMetadata);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String laneName(final String bucket, final String key) {
+        return bucket + "/" + key;
+    }
+
+    private static void force(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Force the directory, so that renames and removals are on disk as well. Not every file system supports it.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here, the rename is still atomic
+        }
+    }
+
+    /**
+     * The writes of one key in the order they were accepted. The head stays in the lane until it is done; while it is
+     * being sent it is also {@code uploading}. Guarded by the spool lock.
+     */
+    private static final class Lane {
+        private final String bucket;
+        private final String key;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private Entry uploading;
+
+        private Lane(final String bucket, final String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+    }
+
+    private final class Entry {
+        private final String env;
+        private final String bucket;
+        private final String key;
+        private final long sequence;
+        private final Path data;
+        private final SpoolReceipt receipt;
+        private final String contentType;
+        private final Map<String, String> userMetadata;
+
+        private Entry(final String id, final String env, final String bucket, final String key,
+                      final long sequence, final long size, final long submittedAt, final String contentType,
+                      final Map<String, String> userMetadata) {
+            this.env = env;
+            this.bucket = bucket;
+            this.key = key;
+            this.sequence = sequence;
+            this.data = directory.resolve(id + DATA);
+            this.receipt = new SpoolReceipt(id, env, key, size, submittedAt);
+            this.contentType = contentType == null ? "" : contentType;
+            this.userMetadata = userMetadata == null ? new HashMap<>() : new HashMap<>(userMetadata);
+        }
+
+        /**
+         * @return A new metadata object for one upload attempt
+         */
+        private ObjectMetadata metadata() {
+            final ObjectMetadata metadata = new ObjectMetadata();
+            if (!contentType.isEmpty()) {
+                metadata.setContentType(contentType);
+            }
+            metadata.setUserMetadata(new HashMap<>(userMetadata));
+            return metadata;
+        }
+    }
+
+    /**
+     * Initializing the logger
+     *
+     * @return
+     */
+    private Logger getlogger() {
+        return LoggerFactory.getLogger(WriteBehindSpool.class);
+    }
+}
@@ -6,6 +6,8 @@ import static net.logstash.logback.encoder.org.apache.commons.lang.StringEscapeU
 import com.practice.constants.ConfigurationConsts;
 import com.practice.exception.FileTransferException;
 
+import java.util.regex.Pattern;
+
 
 /**
  * input field validation for SQL injection
@@ -13,6 +15,8 @@ import com.practice.exception.FileTransferException;
  *
  */
 public class Validation {
+    private static final Pattern STORAGE_TARGET_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
     public static String sanitize(final String s) {
         if (s == null) {
             return "";
@@ -40,8 +44,12 @@ public class Validation {
                     break;
                 case ConfigurationConsts.DEV:
                 case ConfigurationConsts.DEVELOPMENT:
-                default:
+                case ConfigurationConsts.DEFAULT:
                     result = "";
+                    break;
+                default:
+                    // A named storage target. ConfigurationConsts resolves unknown names to the default environment
+                    result = STORAGE_TARGET_NAME.matcher(env.trim()).matches() ? env.trim().toUpperCase() : "";
             }
         }
 
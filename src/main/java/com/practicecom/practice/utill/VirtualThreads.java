@@ -0,0 +1,89 @@
+package com.practicecom.practice.utill;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads where the JDK has them (21 and later). The service is built for Java 8, so the JDK API is reached
+ * through reflection; on an older JDK {@link #isSupported()} is {@code false} and the factories fall back to
+ * platform threads.
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method BUILDER_NAME = method(type("java.lang.Thread$Builder"), "name", String.class,
+            long.class);
+    private static final Method BUILDER_FACTORY = method(type("java.lang.Thread$Builder"), "factory");
+    private static final Method THREAD_PER_TASK = method(Executors.class, "newThreadPerTaskExecutor",
+            ThreadFactory.class);
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_FACTORY != null && THREAD_PER_TASK != null;
+    }
+
+    /**
+     * @param prefix The thread names, numbered from 0
+     * @return A factory of virtual threads
+     * @throws UnsupportedOperationException If the JDK has no virtual threads
+     */
+    public static ThreadFactory factory(final String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        try {
+            final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual threads", e);
+        }
+    }
+
+    /**
+     * An executor that starts a new virtual thread for every task. Nothing is queued, so the caller bounds the
+     * concurrency.
+     *
+     * @throws UnsupportedOperationException If the JDK has no virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String prefix) {
+        final ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) THREAD_PER_TASK.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual threads", e);
+        }
+    }
+
+    /**
+     * A fixed pool, of virtual threads if asked for and supported. The pool still bounds the concurrency; the
+     * threads just cost no platform thread while they wait on a socket.
+     */
+    public static ExecutorService newFixedThreadPool(final boolean virtual, final int threads, final String prefix) {
+        if (virtual && isSupported()) {
+            return Executors.newFixedThreadPool(Math.max(1, threads), factory(prefix));
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    private static Class<?> type(final String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method method(final Class<?> type, final String name, final Class<?>... parameters) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.practice.s3.transfer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoveJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsWhatWasJournaled() throws IOException {
+        final MoveJournal journal = MoveJournal.create(directory, "source-bucket", "QA", "from/",
+                "destination-bucket", "PRODUCTION");
+        journal.planned("from/a", "to/a");
+        journal.planned("from/b", "to/b");
+        journal.copied("from/a");
+        journal.copied("from/b");
+        journal.copyComplete();
+        journal.deleted(Collections.singletonList("from/a"));
+        journal.close();
+
+        final MoveJournal.State state = MoveJournal.read(journal.getFile());
+        assertEquals("source-bucket", state.getBucket());
+        assertEquals("QA", state.getEnv());
+        assertEquals("from/", state.getPrefix());
+        assertEquals("destination-bucket", state.getDestinationBucket());
+        assertEquals("PRODUCTION", state.getDestinationEnv());
+        assertEquals(Arrays.asList("from/a", "from/b"), Arrays.asList(state.getPlanned().keySet().toArray()));
+        assertTrue(state.isCopyComplete());
+        assertEquals(Collections.singleton("from/b"), state.getPendingDeletes());
+    }
+
+    @Test
+    void readsLegacyHeaderWithTheSourceAsDestination() throws IOException {
+        final Path file = directory.resolve("legacy.journal");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x4d4f5645);
+            out.writeUTF("bucket");
+            out.writeUTF("DEV");
+            out.writeUTF("from/");
+            out.writeByte('P');
+            out.writeUTF("from/a");
+            out.writeUTF("to/a");
+            out.writeByte('C');
+            out.writeUTF("from/a");
+        }
+
+        final MoveJournal.State state = MoveJournal.read(file);
+        assertEquals("bucket", state.getBucket());
+        assertEquals("DEV", state.getEnv());
+        assertEquals("from/", state.getPrefix());
+        assertEquals("bucket", state.getDestinationBucket());
+        assertEquals("DEV", state.getDestinationEnv());
+        assertEquals("to/a", state.getPlanned().get("from/a"));
+        assertEquals(Collections.singleton("from/a"), state.getCopied());
+        assertFalse(state.isCopyComplete());
+    }
+
+    @Test
+    void ignoresTornLastRecord() throws IOException {
+        final MoveJournal journal = MoveJournal.create(directory, "bucket", "", "from/", "bucket", "");
+        journal.planned("from/a", "to/a");
+        journal.copied("from/a");
+        journal.planned("from/b", "to/b");
+        journal.close();
+        // Cut the last record in the middle of its destination key
+        try (FileChannel channel = FileChannel.open(journal.getFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        final MoveJournal.State state = MoveJournal.read(journal.getFile());
+        assertEquals(Collections.singletonMap("from/a", "to/a"), state.getPlanned());
+        assertEquals(Collections.singleton("from/a"), state.getCopied());
+    }
+
+    @Test
+    void rejectsUnknownVersion() throws IOException {
+        final Path file = directory.resolve("future.journal");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x4d4f5656);
+            out.writeInt(3);
+        }
+
+        assertThrows(IOException.class, () -> MoveJournal.read(file));
+    }
+
+    @Test
+    void rollBackDeletesCopiedAndLandedDestinationsOnly() throws IOException {
+        final MoveJournal journal = MoveJournal.create(directory, "bucket", "", "from/", "bucket", "");
+        journal.planned("from/copied", "to/copied");
+        journal.planned("from/landed", "to/landed");
+        journal.planned("from/lost", "to/lost");
+        journal.copied("from/copied");
+        journal.close();
+
+        final MoveJournal.State state = MoveJournal.read(journal.getFile());
+        assertFalse(state.isCopyComplete());
+        assertEquals(Arrays.asList("to/copied", "to/landed"),
+                state.getRollBackDeletes((source, destination) -> "from/landed".equals(source)));
+    }
+
+    @Test
+    void rollForwardDeletesTheCopiedSourcesNotDeletedYet() throws IOException {
+        final MoveJournal journal = MoveJournal.create(directory, "bucket", "", "from/", "bucket", "");
+        journal.planned("from/a", "to/a");
+        journal.planned("from/b", "to/b");
+        journal.planned("from/c", "to/c");
+        journal.copied("from/a");
+        journal.copied("from/b");
+        journal.copyComplete();
+        journal.deleted(Collections.singletonList("from/a"));
+        journal.close();
+
+        final MoveJournal.State state = MoveJournal.read(journal.getFile());
+        assertTrue(state.isCopyComplete());
+        assertEquals(new HashSet<>(Collections.singletonList("from/b")), state.getPendingDeletes());
+    }
+}
@@ -0,0 +1,90 @@
+package com.practicecom.practice.utill;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares platform and virtual threads on the shape of the S3 transfers: thousands of concurrent tasks that spend
+ * nearly all their time waiting on the network. Every transfer is a sequence of requests whose latency is simulated
+ * with a sleep, so the run measures what the threads cost, not S3. The executors are built with the same
+ * {@link VirtualThreads} factories the service uses.
+ * <p>
+ * It is not a unit test and is not run by the build. Run it on Java 21 or later after {@code mvn test-compile},
+ * virtual threads are skipped on older JDKs:
+ * {@code java -cp target/test-classes:target/classes:<dependencies>
+ * com.practicecom.practice.utill.VirtualThreadsBenchmark [transfers] [requests] [latency ms] [pool size]}.
+ * The defaults are 5000 transfers of 4 requests of 50 ms each, and a platform pool of 200 threads, the size of
+ * the Tomcat and async pools. For every executor it logs the wall time, the transfers per second, the 50th and
+ * 99th percentile of the time from submission to completion and the peak thread count.
+ */
+public final class VirtualThreadsBenchmark {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadsBenchmark.class);
+
+    private VirtualThreadsBenchmark() {
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        final int transfers = argument(args, 0, 5000);
+        final int requests = argument(args, 1, 4);
+        final int latencyMillis = argument(args, 2, 50);
+        final int poolSize = argument(args, 3, 200);
+        LOGGER.info(String.format("%d transfers of %d requests of %d ms", transfers, requests, latencyMillis));
+        run(String.format("platform, pool of %d", poolSize),
+                VirtualThreads.newFixedThreadPool(false, poolSize, "bench-"), transfers, requests, latencyMillis);
+        run("platform, thread per transfer",
+                VirtualThreads.newFixedThreadPool(false, transfers, "bench-"), transfers, requests, latencyMillis);
+        if (VirtualThreads.isSupported()) {
+            run("virtual, thread per transfer",
+                    VirtualThreads.newThreadPerTaskExecutor("bench-"), transfers, requests, latencyMillis);
+        } else {
+            LOGGER.info(String.format("virtual threads need Java 21 or later, running on %s: skipped",
+                    System.getProperty("java.version")));
+        }
+    }
+
+    private static void run(final String name, final ExecutorService executor, final int transfers,
+                            final int requests, final int latencyMillis) throws InterruptedException {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long[] elapsed = new long[transfers];
+        final CountDownLatch done = new CountDownLatch(transfers);
+        final long start = System.nanoTime();
+        for (int i = 0; i < transfers; i++) {
+            final int transfer = i;
+            final long submittedAt = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    for (int request = 0; request < requests; request++) {
+                        Thread.sleep(latencyMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    elapsed[transfer] = System.nanoTime() - submittedAt;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        final long wallNanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        Arrays.sort(elapsed);
+        LOGGER.info(String.format("%-32s wall %6d ms, %8.0f transfers/s, p50 %6d ms, p99 %6d ms, peak threads %d",
+                name, TimeUnit.NANOSECONDS.toMillis(wallNanos), transfers * 1e9 / wallNanos,
+                TimeUnit.NANOSECONDS.toMillis(elapsed[transfers / 2]),
+                TimeUnit.NANOSECONDS.toMillis(elapsed[Math.min(transfers - 1, transfers * 99 / 100)]),
+                threads.getPeakThreadCount()));
+    }
+
+    private static int argument(final String[] args, final int index, final int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}